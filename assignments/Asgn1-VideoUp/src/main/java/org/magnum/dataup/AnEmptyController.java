@@ -17,7 +17,40 @@
  */
 package org.magnum.dataup;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.magnum.dataup.BandwidthLimiter.Direction;
+import org.magnum.dataup.ByteRange.UnsatisfiableRangeException;
+import org.magnum.dataup.VideoFileManager.TooManyUploadsException;
+import org.magnum.dataup.model.UploadStatus;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
 
 @Controller
 public class AnEmptyController {
@@ -38,5 +71,473 @@ public class AnEmptyController {
                                                                                                                                                                                                                                                                         
 	 * 
 	 */
+
+	private static final String DEFAULT_CONTENT_TYPE = "video/mpeg";
+	
+	private static final String CRLF = "\r\n";
+	
+	// Request attributes used by Tomcat's NIO and APR connectors to
+	// send a file straight from the page cache to the socket with
+	// FileChannel.transferTo() (i.e., sendfile) once the servlet returns
+	private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+	// The longest that a client may hold a status request open while
+	// waiting for a video to become READY
+	private static final long MAX_STATUS_WAIT_MS = 30000;
+	
+	// How long clients are asked to wait before retrying an upload that
+	// was turned away because the ingestion queue or the upload sessions
+	// were full
+	private static final String RETRY_AFTER_SECONDS = "5";
+
+	@Autowired
+	private VideoRepository videos_;
+	
+	@Autowired
+	private VideoFileManager videoDataMgr_;
+	
+	@Autowired
+	private IngestionPipeline ingestion_;
+	
+	@Autowired
+	private BandwidthLimiter bandwidth_;
+	
+	// How long an upload request waits for its data to be ingested before
+	// answering PROCESSING instead of READY. The request thread is released
+	// while it waits. Set video.ingest.responseWaitMs=0 to always answer
+	// PROCESSING right away.
+	@Value("${video.ingest.responseWaitMs:2000}")
+	private long responseWaitMs_;
+	
+	// Set video.data.sendfile=false to always copy video data through
+	// the servlet output stream
+	@Value("${video.data.sendfile:true}")
+	private boolean sendfileEnabled_;
+	
+	// Receives GET requests to /video and returns the current list
+	// of videos in memory. Spring automatically converts the list
+	// of videos to JSON because of the @ResponseBody annotation.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> getVideoList() {
+		return videos_.findAll();
+	}
+	
+	// Receives POST requests to /video and converts the HTTP request body,
+	// which should contain json, into a Video object before adding it to
+	// the list. The server assigns the video its id and data URL. The
+	// data URL is filled in before the video is stored, so that no
+	// concurrent reader can see the video without it.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.POST)
+	public @ResponseBody Video addVideo(@RequestBody Video v, HttpServletRequest request) {
+		long id = videos_.allocateId();
+		v.setId(id);
+		v.setDataUrl(getDataUrl(request, id));
+		return videos_.put(v);
+	}
+	
+	// Receives GET requests to /video/{id}/data and streams the binary
+	// data for the video back to the client. Clients (e.g., a video
+	// player that is seeking) can ask for just part of the data with a
+	// "Range: bytes=..." header. A single range is sent back as a 206
+	// with a Content-Range header and multiple ranges are sent back as
+	// a multipart/byteranges 206 response. If the client sends an
+	// If-Range validator that no longer matches the stored data, the
+	// Range header is ignored and the whole video is sent.
+	@RequestMapping(value=VideoSvcApi.VIDEO_DATA_PATH, method=RequestMethod.GET)
+	public void getData(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Video v = videos_.get(id);
+		if(v == null || !videoDataMgr_.hasVideoData(v)){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		long length = videoDataMgr_.getVideoDataSize(v);
+		long lastModified = videoDataMgr_.getVideoDataLastModified(v);
+		String digest = videoDataMgr_.getVideoDataDigest(v);
+		String etag = (digest != null) ? "\"" + digest + "\""
+				: "\"" + id + "-" + length + "-" + lastModified + "\"";
+		
+		response.setHeader("Accept-Ranges", ByteRange.BYTES_UNIT);
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		
+		List<ByteRange> ranges = Collections.emptyList();
+		if(ifRangeMatches(request, etag, lastModified)){
+			try{
+				ranges = ByteRange.parse(request.getHeader("Range"), length);
+			}catch(UnsatisfiableRangeException e){
+				response.setHeader("Content-Range", ByteRange.unsatisfiedContentRange(length));
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+		
+		String contentType = getContentType(v);
+		if(ranges.isEmpty()){
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentType(contentType);
+			response.setHeader("Content-Length", Long.toString(length));
+			if(!sendfile(v, request, 0, length)){
+				try(OutputStream out = bandwidth_.throttle(response.getOutputStream(), getClientName(request))){
+					videoDataMgr_.copyVideoData(v, out);
+				}
+			}
+		}
+		else if(ranges.size() == 1){
+			ByteRange range = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType(contentType);
+			response.setHeader("Content-Range", range.toContentRange(length));
+			response.setHeader("Content-Length", Long.toString(range.getLength()));
+			if(!sendfile(v, request, range.getFirst(), range.getLength())){
+				try(OutputStream out = bandwidth_.throttle(response.getOutputStream(), getClientName(request))){
+					videoDataMgr_.copyVideoData(v, range.getFirst(), range.getLength(), out);
+				}
+			}
+		}
+		else {
+			String boundary = UUID.randomUUID().toString();
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType("multipart/byteranges; boundary=" + boundary);
+			try(OutputStream out = bandwidth_.throttle(response.getOutputStream(), getClientName(request))){
+				for(ByteRange range : ranges){
+					String partHeader = CRLF + "--" + boundary + CRLF
+							+ "Content-Type: " + contentType + CRLF
+							+ "Content-Range: " + range.toContentRange(length) + CRLF
+							+ CRLF;
+					out.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+					videoDataMgr_.copyVideoData(v, range.getFirst(), range.getLength(), out);
+				}
+				out.write((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			}
+		}
+	}
+	
+	// Receives GET requests to /video/bandwidth and returns the current
+	// throughput, in bytes per second, of each bandwidth bucket in use
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_BANDWIDTH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Map<String, Long> getBandwidth() {
+		return bandwidth_.getThroughput();
+	}
+	
+	// Receives multipart POST requests to /video/{id}/data with the video's
+	// binary data in the "data" part. The upload is staged (the container's
+	// temp file is moved, not copied) and handed to the IngestionPipeline,
+	// which verifies, checksums and stores it on a worker thread. If the
+	// pipeline's queue is full, the client gets a 503 and should retry.
+	@RequestMapping(value=VideoSvcApi.VIDEO_DATA_PATH, method=RequestMethod.POST)
+	public @ResponseBody DeferredResult<VideoStatus> setVideoData(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@RequestParam(VideoSvcApi.DATA_PARAMETER) MultipartFile videoData,
+			HttpServletResponse response) throws IOException {
+		Video v = videos_.get(id);
+		if(v == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		Path staged = videoDataMgr_.newStagingPath();
+		videoData.transferTo(staged.toFile());
+		try{
+			ingestion_.submit(v, staged);
+		}catch(RejectedExecutionException e){
+			response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return null;
+		}
+		return awaitReady(v, responseWaitMs_);
+	}
+	
+	// Receives GET requests to /video/{id}/status and returns whether the
+	// video's data is still PROCESSING or READY. With ?wait=MS, the request
+	// is held (without tying up a thread) until the video is READY or the
+	// wait runs out.
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_STATUS_PATH, method=RequestMethod.GET)
+	public @ResponseBody DeferredResult<VideoStatus> getVideoStatus(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@RequestParam(value=VideoUploadSvcApi.WAIT_PARAMETER, defaultValue="0") long waitMs,
+			HttpServletResponse response) throws IOException {
+		Video v = videos_.get(id);
+		VideoState state = (v != null) ? ingestion_.getState(v) : null;
+		if(state == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		if(state == VideoState.READY){
+			DeferredResult<VideoStatus> result = new DeferredResult<VideoStatus>();
+			result.setResult(new VideoStatus(VideoState.READY));
+			return result;
+		}
+		return awaitReady(v, Math.min(waitMs, MAX_STATUS_WAIT_MS));
+	}
+	
+	// Returns a result that is set to READY once the ingestion of the
+	// video's data finishes, or to PROCESSING if it takes longer than
+	// waitMs. A failed ingestion is reported as an error.
+	private DeferredResult<VideoStatus> awaitReady(Video v, long waitMs) {
+		final VideoStatus processing = new VideoStatus(VideoState.PROCESSING);
+		if(waitMs <= 0){
+			DeferredResult<VideoStatus> result = new DeferredResult<VideoStatus>();
+			result.setResult(processing);
+			return result;
+		}
+		
+		final DeferredResult<VideoStatus> result = new DeferredResult<VideoStatus>(waitMs, processing);
+		ingestion_.whenDone(v, new IngestionPipeline.Listener() {
+			@Override
+			public void onReady(long videoId) {
+				result.setResult(new VideoStatus(VideoState.READY));
+			}
+			
+			@Override
+			public void onFailed(long videoId, Exception e) {
+				result.setErrorResult(e);
+			}
+		});
+		return result;
+	}
+	
+	// Receives POST requests to /video/{id}/data/uploads?length=N and opens
+	// a resumable upload session for N bytes of video data. If the client
+	// sends the SHA-256 digest of the data, the session carries a challenge
+	// that the client can answer to prove that it has data that is already
+	// stored, in which case no upload is needed. Uploads larger
+	// than the VideoFileManager allows are refused with a 413 and a 503 is
+	// returned while too many sessions are open.
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOADS_PATH, method=RequestMethod.POST)
+	public @ResponseBody UploadStatus openUpload(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@RequestParam(VideoUploadSvcApi.LENGTH_PARAMETER) long length,
+			@RequestParam(value=VideoUploadSvcApi.DIGEST_PARAMETER, required=false) String sha256,
+			HttpServletResponse response) throws IOException {
+		if(length < 0){
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return null;
+		}
+		if(length > videoDataMgr_.getMaxUploadLength()){
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return null;
+		}
+		Video v = videos_.get(id);
+		if(v == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		try{
+			UploadSession session = videoDataMgr_.openUploadSession(v, length, 
+					(sha256 != null) ? sha256.toLowerCase() : null);
+			return toUploadStatus(session);
+		}catch(TooManyUploadsException e){
+			response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return null;
+		}
+	}
+	
+	// Receives PUT requests to /video/{id}/data/uploads/{session}?offset=N and
+	// writes the raw request body into the upload starting at byte N. The
+	// body is written straight into its place in the partial file without
+	// being buffered in memory or in a temporary file. A 410 is returned if
+	// the session is committed, aborted or expired while the body arrives.
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOAD_SESSION_PATH, method=RequestMethod.PUT)
+	public @ResponseBody UploadStatus uploadChunk(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoUploadSvcApi.SESSION_PARAMETER) String sessionId,
+			@RequestParam(VideoUploadSvcApi.OFFSET_PARAMETER) long offset,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		UploadSession session = getUploadSession(id, sessionId);
+		if(session == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		long count = request.getContentLength();
+		if(count < 0 || offset < 0 || offset + count > session.getLength()){
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return null;
+		}
+		try(InputStream in = bandwidth_.throttle(request.getInputStream(), getClientName(request))){
+			videoDataMgr_.writeUploadChunk(session, offset, count, in);
+		}catch(IllegalStateException e){
+			response.sendError(HttpServletResponse.SC_GONE);
+			return null;
+		}
+		return toUploadStatus(session);
+	}
+	
+	// Receives POST requests to /video/{id}/data/uploads/{session}/proof?proof=P
+	// with the answer to the session's ownership challenge. If it is right,
+	// the video is linked to the stored data, the session is closed and the
+	// returned status is complete and reports the size of the stored data.
+	// Otherwise, a 403 is returned and the data has to be uploaded.
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOAD_PROOF_PATH, method=RequestMethod.POST)
+	public @ResponseBody UploadStatus proveOwnership(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoUploadSvcApi.SESSION_PARAMETER) String sessionId,
+			@RequestParam(VideoUploadSvcApi.PROOF_PARAMETER) String proof,
+			HttpServletResponse response) throws IOException {
+		UploadSession session = getUploadSession(id, sessionId);
+		if(session == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		long size = videoDataMgr_.proveUploadOwnership(videos_.get(id), session, proof);
+		if(size < 0){
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return null;
+		}
+		UploadStatus status = new UploadStatus();
+		status.setVideoId(id);
+		status.setLength(size);
+		status.setReceivedBytes(size);
+		if(size > 0){
+			status.getReceivedRanges().add(new ByteRange(0, size - 1).toString());
+		}
+		status.setComplete(true);
+		return status;
+	}
+	
+	// Receives GET requests to /video/{id}/data/uploads/{session} and returns
+	// the ranges of the upload that have been received so far
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOAD_SESSION_PATH, method=RequestMethod.GET)
+	public @ResponseBody UploadStatus getUploadStatus(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoUploadSvcApi.SESSION_PARAMETER) String sessionId,
+			HttpServletResponse response) throws IOException {
+		UploadSession session = getUploadSession(id, sessionId);
+		if(session == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		return toUploadStatus(session);
+	}
+	
+	// Receives POST requests to /video/{id}/data/uploads/{session}/commit and
+	// atomically replaces the video's data with the uploaded data. Returns a
+	// 409 if some of the data has not been received yet.
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOAD_COMMIT_PATH, method=RequestMethod.POST)
+	public @ResponseBody VideoStatus commitUpload(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoUploadSvcApi.SESSION_PARAMETER) String sessionId,
+			HttpServletResponse response) throws IOException {
+		UploadSession session = getUploadSession(id, sessionId);
+		if(session == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		if(!session.isComplete()){
+			response.sendError(HttpServletResponse.SC_CONFLICT);
+			return null;
+		}
+		try{
+			ingestion_.commitUploadSession(videos_.get(id), session);
+		}catch(IllegalStateException e){
+			response.sendError(HttpServletResponse.SC_CONFLICT);
+			return null;
+		}
+		return new VideoStatus(VideoState.READY);
+	}
+	
+	// Receives DELETE requests to /video/{id}/data/uploads/{session} and
+	// throws away the upload
+	@RequestMapping(value=VideoUploadSvcApi.VIDEO_UPLOAD_SESSION_PATH, method=RequestMethod.DELETE)
+	public @ResponseBody UploadStatus abortUpload(@PathVariable(VideoSvcApi.ID_PARAMETER) long id,
+			@PathVariable(VideoUploadSvcApi.SESSION_PARAMETER) String sessionId,
+			HttpServletResponse response) throws IOException {
+		UploadSession session = getUploadSession(id, sessionId);
+		if(session == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		videoDataMgr_.abortUploadSession(session);
+		return toUploadStatus(session);
+	}
+	
+	// Returns the open upload session with the given id if it belongs to
+	// the video with the given id
+	private UploadSession getUploadSession(long videoId, String sessionId) throws IOException {
+		UploadSession session = videoDataMgr_.getUploadSession(sessionId);
+		return (session != null && session.getVideoId() == videoId) ? session : null;
+	}
+	
+	private UploadStatus toUploadStatus(UploadSession session) {
+		UploadStatus status = new UploadStatus();
+		status.setSessionId(session.getId());
+		status.setVideoId(session.getVideoId());
+		status.setLength(session.getLength());
+		status.setReceivedBytes(session.getReceivedBytes());
+		status.setComplete(session.isComplete());
+		List<String> ranges = new ArrayList<String>();
+		for(ByteRange range : session.getReceivedRanges()){
+			ranges.add(range.toString());
+		}
+		status.setReceivedRanges(ranges);
+		OwnershipChallenge challenge = session.getChallenge();
+		if(challenge != null){
+			status.setChallengeNonce(challenge.getNonce());
+			if(challenge.getRange() != null){
+				status.setChallengeRange(challenge.getRange().toString());
+			}
+		}
+		return status;
+	}
+	
+	// Asks the container to send count bytes of the video's data, starting
+	// at position, with sendfile after this request handler returns. The
+	// bytes never pass through the JVM. Returns false if the connector
+	// doesn't support sendfile or if the video is popular enough to be
+	// served from the VideoFileManager's memory-mapped segments, or if
+	// downloads are bandwidth limited, in which case the caller must copy
+	// the data itself. The Content-Length header must already be set.
+	private boolean sendfile(Video v, HttpServletRequest request, long position, long count) throws IOException {
+		if(!sendfileEnabled_ || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))
+				|| videoDataMgr_.isVideoDataCached(v) || bandwidth_.isLimiting(Direction.DOWNLOAD)){
+			return false;
+		}
+		request.setAttribute(SENDFILE_FILENAME_ATTR, videoDataMgr_.getVideoDataFile(v).toString());
+		request.setAttribute(SENDFILE_START_ATTR, Long.valueOf(position));
+		request.setAttribute(SENDFILE_END_ATTR, Long.valueOf(position + count));
+		return true;
+	}
+	
+	// An If-Range header makes the Range header conditional: the range
+	// is only honored if the validator (an ETag or a date) still matches
+	// the stored data. Weak ETags never match.
+	private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if(ifRange == null){
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/")){
+			return ifRange.equals(etag);
+		}
+		try{
+			long date = request.getDateHeader("If-Range");
+			return date >= 0 && (lastModified / 1000) == (date / 1000);
+		}catch(IllegalArgumentException e){
+			return false;
+		}
+	}
+	
+	// Builds the URL that clients can download a video's data from. The
+	// URL is stored with the video when it is added so that listing the
+	// videos doesn't rebuild it for each of them.
+	private String getDataUrl(HttpServletRequest request, long videoId) {
+		return getUrlBaseForLocalServer(request) + VideoSvcApi.VIDEO_DATA_PATH.replace("{id}", Long.toString(videoId));
+	}
+	
+	private String getUrlBaseForLocalServer(HttpServletRequest request) {
+		return "http://" + request.getServerName()
+				+ ((request.getServerPort() != 80) ? ":" + request.getServerPort() : "");
+	}
+	
+	// The name that a client's transfers are grouped under for bandwidth
+	// shaping: the authenticated user if there is one, or else the client's
+	// address
+	private String getClientName(HttpServletRequest request) {
+		String user = request.getRemoteUser();
+		return (user != null) ? user : request.getRemoteAddr();
+	}
+	
+	private String getContentType(Video v) {
+		return (v.getContentType() != null) ? v.getContentType() : DEFAULT_CONTENT_TYPE;
+	}
 	
 }
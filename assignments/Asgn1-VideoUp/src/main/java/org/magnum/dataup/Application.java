@@ -17,20 +17,28 @@
  */
 package org.magnum.dataup;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import javax.servlet.MultipartConfigElement;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.context.embedded.MultiPartConfigFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 // This annotation tells Spring to auto-wire your application
 @EnableAutoConfiguration
 // This annotation tells Spring to look for controllers, etc.
 // starting in the current package
 @ComponentScan
+// Run @Scheduled tasks (e.g., SegmentCacheMetrics publishing the
+// segment cache's counters)
+@EnableScheduling
 //This annotation tells Spring that this class contains configuration
 //information
 //for the application.
@@ -38,6 +46,13 @@ import org.springframework.context.annotation.Configuration;
 public class Application {
 
 	private static final String MAX_REQUEST_SIZE = "150MB";
+	
+	private static final long KB = 1024;
+	
+	private static final long MB = 1024 * 1024;
+	
+	// The same limit as MAX_REQUEST_SIZE for resumable uploads
+	private static final long MAX_UPLOAD_BYTES = 150 * MB;
 
 	// The entry point to the application.
 	public static void main(String[] args) {
@@ -62,4 +77,78 @@ public class Application {
 		return factory.createMultipartConfig();
 	}
 
+	// The in-memory store for the metadata of the videos that clients add
+	@Bean
+	public VideoRepository videoRepository() {
+		return new VideoRepository();
+	}
+
+	// The VideoFileManager that the controllers use to store and
+	// serve the binary data for videos. Identical uploads are only
+	// stored once unless video.store.deduplicate is set to false, in
+	// which case each video gets its own video{id}.mpg file.
+	//
+	// The data of videos that are downloaded at least
+	// video.cache.admitAfter times is served from memory-mapped segments,
+	// with up to video.cache.budgetMB megabytes mapped at once. Set the
+	// budget to 0 to turn the cache off.
+	//
+	// Writes are flushed to disk according to video.store.fsync (NONE,
+	// IMMEDIATE or GROUP). In GROUP mode, the directory and index flushes
+	// of concurrent uploads are shared, optionally after waiting
+	// video.store.groupCommitLingerMicros for more uploads to join.
+	//
+	// At most video.upload.maxSessions resumable uploads, and
+	// video.upload.maxSessionsPerVideo for any one video, are open at
+	// once. Sessions that are idle for video.upload.sessionTimeoutMinutes
+	// are discarded.
+	@Bean
+	public VideoFileManager videoFileManager(
+			@Value("${video.store.fsync:GROUP}") FileSyncer.Mode fsyncMode,
+			@Value("${video.store.groupCommitLingerMicros:0}") long lingerMicros,
+			@Value("${video.store.deduplicate:true}") boolean deduplicate,
+			@Value("${video.cache.budgetMB:512}") long cacheBudgetMB,
+			@Value("${video.cache.segmentMB:4}") int cacheSegmentMB,
+			@Value("${video.cache.admitAfter:3}") int cacheAdmitAfter,
+			@Value("${video.upload.maxSessions:64}") int maxUploadSessions,
+			@Value("${video.upload.maxSessionsPerVideo:2}") int maxUploadSessionsPerVideo,
+			@Value("${video.upload.sessionTimeoutMinutes:30}") long uploadTimeoutMinutes) throws IOException {
+		FileSyncer syncer = new FileSyncer(fsyncMode, lingerMicros);
+		VideoBlobStore store = deduplicate 
+				? new ContentAddressedBlobStore(VideoFileManager.TARGET_DIR, syncer) 
+				: new FlatFileBlobStore(VideoFileManager.TARGET_DIR, syncer);
+		MappedSegmentCache cache = (cacheBudgetMB > 0)
+				? new MappedSegmentCache(cacheBudgetMB * MB, cacheSegmentMB * (int)MB, cacheAdmitAfter)
+				: null;
+		VideoFileManager manager = VideoFileManager.get(store, cache);
+		manager.setUploadLimits(MAX_UPLOAD_BYTES, maxUploadSessions, maxUploadSessionsPerVideo,
+				TimeUnit.MINUTES.toMillis(uploadTimeoutMinutes));
+		return manager;
+	}
+
+	// The pipeline that finishes uploads of video data on a bounded pool
+	// of worker threads so that request threads don't wait on the disk.
+	// When the application stops, it waits up to
+	// video.ingest.shutdownTimeoutSeconds for accepted uploads to finish.
+	@Bean(destroyMethod="shutdown")
+	public IngestionPipeline ingestionPipeline(VideoFileManager videoFileManager,
+			@Value("${video.ingest.workers:4}") int workers,
+			@Value("${video.ingest.queueCapacity:64}") int queueCapacity,
+			@Value("${video.ingest.shutdownTimeoutSeconds:30}") long shutdownTimeoutSeconds) {
+		return new IngestionPipeline(videoFileManager, workers, queueCapacity, 
+				TimeUnit.SECONDS.toMillis(shutdownTimeoutSeconds));
+	}
+
+	// Limits the bandwidth, in KB/s, that uploads and downloads of video
+	// data may use per connection, per user (or client address) and for
+	// the whole node. A limit of 0 turns that level of shaping off. While
+	// downloads are limited, they are not sent with sendfile.
+	@Bean
+	public BandwidthLimiter bandwidthLimiter(
+			@Value("${video.bandwidth.perConnectionKBps:0}") long perConnectionKBps,
+			@Value("${video.bandwidth.perUserKBps:0}") long perUserKBps,
+			@Value("${video.bandwidth.perNodeKBps:0}") long perNodeKBps) {
+		return new BandwidthLimiter(perConnectionKBps * KB, perUserKBps * KB, perNodeKBps * KB);
+	}
+
 }
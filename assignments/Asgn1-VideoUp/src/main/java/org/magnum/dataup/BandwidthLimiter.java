@@ -0,0 +1,308 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the bandwidth used to upload and download video data so that a
+ * few bulk clients can't saturate the network and slow down everyone
+ * else's requests (e.g., GET /video).
+ * 
+ * Streams wrapped by the limiter draw from up to three token buckets per
+ * direction: one for the connection, one for the user and one for the
+ * whole node. A limit of 0 turns that level off. The buckets are lock-free
+ * on the hot path: each chunk of a transfer reserves its bytes from each
+ * bucket with a CAS and then sleeps for the longest delay that any of the
+ * buckets asks for.
+ * 
+ * @author jules
+ *
+ */
+public class BandwidthLimiter {
+
+	public enum Direction {
+		UPLOAD, DOWNLOAD
+	}
+
+	// The largest number of bytes that are reserved at once, which keeps the
+	// shaping smooth for large reads and writes
+	private static final int MAX_CHUNK = 16 * 1024;
+
+	// The smallest burst that any bucket allows
+	private static final long MIN_BURST = 64 * 1024;
+
+	// Per-user buckets that have been idle this long are forgotten
+	private static final long USER_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	private static final int MAX_USERS_BEFORE_CLEANUP = 10000;
+
+	private final long perConnection_;
+
+	private final long perUser_;
+
+	private final Map<Direction, TokenBucket> node_ = new ConcurrentHashMap<Direction, TokenBucket>();
+
+	private final Map<Direction, ConcurrentMap<String, TokenBucket>> users_ = 
+			new ConcurrentHashMap<Direction, ConcurrentMap<String, TokenBucket>>();
+
+	private final Map<Direction, ConcurrentMap<Long, TokenBucket>> connections_ = 
+			new ConcurrentHashMap<Direction, ConcurrentMap<Long, TokenBucket>>();
+
+	private final AtomicLong connectionIds_ = new AtomicLong();
+
+	/**
+	 * @param perConnection
+	 *            bytes per second allowed for each transfer, or 0
+	 * @param perUser
+	 *            bytes per second allowed for all of a user's transfers, or 0
+	 * @param perNode
+	 *            bytes per second allowed for all transfers, or 0
+	 */
+	public BandwidthLimiter(long perConnection, long perUser, long perNode) {
+		perConnection_ = perConnection;
+		perUser_ = perUser;
+		for (Direction d : Direction.values()) {
+			if (perNode > 0) {
+				node_.put(d, newBucket("node." + name(d), perNode));
+			}
+			users_.put(d, new ConcurrentHashMap<String, TokenBucket>());
+			connections_.put(d, new ConcurrentHashMap<Long, TokenBucket>());
+		}
+	}
+
+	/**
+	 * Returns true if any limit applies to transfers in the given direction.
+	 * Data that is sent without passing through a wrapped stream (e.g., with
+	 * sendfile) would escape the limits.
+	 * 
+	 * @param d
+	 * @return
+	 */
+	public boolean isLimiting(Direction d) {
+		return perConnection_ > 0 || perUser_ > 0 || node_.containsKey(d);
+	}
+
+	/**
+	 * Wraps a stream that video data is uploaded through.
+	 * 
+	 * @param in
+	 * @param user
+	 *            the user (or client address) making the upload
+	 * @return
+	 */
+	public InputStream throttle(InputStream in, String user) {
+		if (!isLimiting(Direction.UPLOAD)) {
+			return in;
+		}
+		final Transfer transfer = new Transfer(Direction.UPLOAD, user);
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					transfer.pace(1);
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, Math.min(len, MAX_CHUNK));
+				if (n > 0) {
+					transfer.pace(n);
+				}
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				transfer.close();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * Wraps a stream that video data is downloaded through. The caller must
+	 * close the returned stream when the download is done.
+	 * 
+	 * @param out
+	 * @param user
+	 *            the user (or client address) making the download
+	 * @return
+	 */
+	public OutputStream throttle(OutputStream out, String user) {
+		if (!isLimiting(Direction.DOWNLOAD)) {
+			return out;
+		}
+		final Transfer transfer = new Transfer(Direction.DOWNLOAD, user);
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				transfer.pace(1);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				while (len > 0) {
+					int n = Math.min(len, MAX_CHUNK);
+					transfer.pace(n);
+					out.write(b, off, n);
+					off += n;
+					len -= n;
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				transfer.close();
+				flush();
+			}
+		};
+	}
+
+	/**
+	 * Returns the current throughput, in bytes per second, of every bucket
+	 * that is in use, keyed by the bucket's name.
+	 * 
+	 * @return
+	 */
+	public Map<String, Long> getThroughput() {
+		Map<String, Long> rates = new TreeMap<String, Long>();
+		for (TokenBucket b : node_.values()) {
+			rates.put(b.getName(), b.getCurrentRate());
+		}
+		for (Direction d : Direction.values()) {
+			for (TokenBucket b : users_.get(d).values()) {
+				rates.put(b.getName(), b.getCurrentRate());
+			}
+			for (TokenBucket b : connections_.get(d).values()) {
+				rates.put(b.getName(), b.getCurrentRate());
+			}
+		}
+		return rates;
+	}
+
+	// The buckets that a single upload or download draws from
+	private class Transfer {
+
+		private final Direction direction_;
+
+		private final long id_;
+
+		private final TokenBucket[] buckets_;
+
+		Transfer(Direction d, String user) {
+			direction_ = d;
+			id_ = connectionIds_.incrementAndGet();
+
+			TokenBucket connection = null;
+			if (perConnection_ > 0) {
+				connection = newBucket("connection." + name(d) + "." + id_, perConnection_);
+				connections_.get(d).put(id_, connection);
+			}
+			TokenBucket userBucket = (perUser_ > 0) ? getUserBucket(d, user) : null;
+			TokenBucket node = node_.get(d);
+
+			int count = 0;
+			TokenBucket[] all = { connection, userBucket, node };
+			for (TokenBucket b : all) {
+				if (b != null) {
+					count++;
+				}
+			}
+			buckets_ = new TokenBucket[count];
+			int i = 0;
+			for (TokenBucket b : all) {
+				if (b != null) {
+					buckets_[i++] = b;
+				}
+			}
+		}
+
+		// Reserves the bytes from every bucket and waits as long as the
+		// slowest one asks
+		void pace(int bytes) throws IOException {
+			long wait = 0;
+			for (TokenBucket b : buckets_) {
+				wait = Math.max(wait, b.reserve(bytes));
+			}
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while shaping a video transfer");
+				}
+			}
+		}
+
+		void close() {
+			connections_.get(direction_).remove(id_);
+		}
+	}
+
+	private TokenBucket getUserBucket(Direction d, String user) {
+		ConcurrentMap<String, TokenBucket> users = users_.get(d);
+		TokenBucket bucket = users.get(user);
+		if (bucket == null) {
+			if (users.size() >= MAX_USERS_BEFORE_CLEANUP) {
+				forgetIdleUsers(users);
+			}
+			TokenBucket fresh = newBucket("user." + name(d) + "." + user, perUser_);
+			bucket = users.putIfAbsent(user, fresh);
+			if (bucket == null) {
+				bucket = fresh;
+			}
+		}
+		return bucket;
+	}
+
+	private static void forgetIdleUsers(ConcurrentMap<String, TokenBucket> users) {
+		Iterator<TokenBucket> it = users.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().getIdleNanos() > USER_IDLE_NANOS) {
+				it.remove();
+			}
+		}
+	}
+
+	private static TokenBucket newBucket(String name, long bytesPerSecond) {
+		// Allow a quarter of a second of traffic in a burst
+		return new TokenBucket(name, bytesPerSecond, Math.max(MIN_BURST, bytesPerSecond / 4));
+	}
+
+	private static String name(Direction d) {
+		return d.name().toLowerCase();
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of bytes [first, last] within a resource of a known
+ * length, as described by an HTTP "Range: bytes=..." request header
+ * (RFC 7233).
+ *
+ * @author jules
+ *
+ */
+public class ByteRange {
+
+	public static final String BYTES_UNIT = "bytes";
+
+	// Upper bound on the number of ranges that we are willing to serve
+	// in a single multipart/byteranges response. Clients that ask for
+	// more than this are sent the whole entity instead.
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 * Thrown when a syntactically valid Range header does not contain
+	 * any range that overlaps the current length of the resource. The
+	 * server should respond with a 416 status code.
+	 */
+	public static class UnsatisfiableRangeException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public UnsatisfiableRangeException(String header) {
+			super("No satisfiable range in: " + header);
+		}
+	}
+
+	private final long first;
+	private final long last;
+
+	public ByteRange(long first, long last) {
+		assert(first >= 0 && last >= first);
+
+		this.first = first;
+		this.last = last;
+	}
+
+	public long getFirst() {
+		return first;
+	}
+
+	public long getLast() {
+		return last;
+	}
+
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * Returns the value to use for a Content-Range response header
+	 * describing this range of a resource with the given total length.
+	 *
+	 * @param total
+	 * @return
+	 */
+	public String toContentRange(long total) {
+		return BYTES_UNIT + " " + first + "-" + last + "/" + total;
+	}
+
+	/**
+	 * Returns the value to use for the Content-Range header of a 416
+	 * response.
+	 *
+	 * @param total
+	 * @return
+	 */
+	public static String unsatisfiedContentRange(long total) {
+		return BYTES_UNIT + " */" + total;
+	}
+
+	/**
+	 * Parses the value of an HTTP Range header against a resource of the
+	 * given length. The returned ranges are sorted and any overlapping or
+	 * adjacent ranges are coalesced so that no byte is sent twice.
+	 *
+	 * An empty list is returned if the header is missing, malformed, uses
+	 * a unit other than "bytes", or asks for more than MAX_RANGES ranges.
+	 * In each of these cases the header must be ignored and the full entity
+	 * served with a 200.
+	 *
+	 * @param header
+	 * @param length
+	 * @return
+	 * @throws UnsatisfiableRangeException
+	 *             if none of the requested ranges overlap the resource
+	 */
+	public static List<ByteRange> parse(String header, long length)
+			throws UnsatisfiableRangeException {
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+		if(header == null) {
+			return ranges;
+		}
+
+		String value = header.trim();
+		int eq = value.indexOf('=');
+		if(eq < 0 || !BYTES_UNIT.equalsIgnoreCase(value.substring(0, eq).trim())) {
+			return ranges;
+		}
+
+		String[] specs = value.substring(eq + 1).split(",");
+		if(specs.length > MAX_RANGES) {
+			return ranges;
+		}
+
+		for(String raw : specs) {
+			String spec = raw.trim();
+			int dash = spec.indexOf('-');
+			if(dash < 0) {
+				return new ArrayList<ByteRange>();
+			}
+			String start = spec.substring(0, dash).trim();
+			String end = spec.substring(dash + 1).trim();
+
+			long first;
+			long last;
+			try {
+				if(start.isEmpty()) {
+					// Suffix range: "-500" means the final 500 bytes
+					if(end.isEmpty()) {
+						return new ArrayList<ByteRange>();
+					}
+					long suffix = Long.parseLong(end);
+					if(suffix <= 0 || length == 0) {
+						continue;
+					}
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(start);
+					last = end.isEmpty() ? Long.MAX_VALUE : Long.parseLong(end);
+					if(first < 0 || last < first) {
+						return new ArrayList<ByteRange>();
+					}
+					if(first >= length) {
+						continue;
+					}
+					last = Math.min(last, length - 1);
+				}
+			} catch (NumberFormatException e) {
+				return new ArrayList<ByteRange>();
+			}
+			ranges.add(new ByteRange(first, last));
+		}
+
+		if(ranges.isEmpty()) {
+			throw new UnsatisfiableRangeException(header);
+		}
+		return coalesce(ranges);
+	}
+
+	private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+		if(ranges.size() < 2) {
+			return ranges;
+		}
+		Collections.sort(ranges, new Comparator<ByteRange>() {
+			@Override
+			public int compare(ByteRange a, ByteRange b) {
+				return Long.compare(a.first, b.first);
+			}
+		});
+
+		List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+		ByteRange current = ranges.get(0);
+		for(int i = 1; i < ranges.size(); i++) {
+			ByteRange next = ranges.get(i);
+			if(next.first <= current.last + 1) {
+				current = new ByteRange(current.first, Math.max(current.last, next.last));
+			} else {
+				merged.add(current);
+				current = next;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+
+}
@@ -0,0 +1,435 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A VideoBlobStore that stores each distinct piece of video data exactly
+ * once, under the SHA-256 digest of its contents. Data is hashed while it
+ * is streamed to disk, so identical uploads for different videos share a
+ * single blob. The blobs are fanned out into a two level directory tree
+ * (e.g., blobs/ab/cd/abcd...) so that no directory grows too large.
+ * 
+ * An index maps each video id to the digest of its data and keeps a
+ * reference count for every blob. A blob is deleted when the last video
+ * that refers to it is removed or replaced. The index is persisted as an
+ * append-only log that is replayed and compacted at startup.
+ * 
+ * New blobs are written to a temp file and moved into place only after
+ * their data has been flushed to disk, so a crash never leaves a torn blob
+ * behind. The blob's directory and the index log are then flushed through
+ * the FileSyncer, which shares those flushes between concurrent uploads
+ * when it is in GROUP mode. Data that turns out to be a duplicate of a
+ * stored blob is never flushed. Temp files and blobs that no video refers
+ * to, which a crash can leave behind, are deleted at startup.
+ * 
+ * @author jules
+ *
+ */
+public class ContentAddressedBlobStore implements VideoBlobStore {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private static final String INDEX_FILE = "index.log";
+
+	// Marks an id that has been removed from the index in the log
+	private static final String REMOVED = "-";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Path blobDir_;
+
+	private final Path tmpDir_;
+
+	private final Path indexFile_;
+
+	// video id -> digest of its data
+	private final ConcurrentMap<Long, String> index_ = new ConcurrentHashMap<Long, String>();
+
+	// digest -> number of videos that refer to the blob. Guarded by "this",
+	// along with the creation and deletion of blobs and writes to the log.
+	private final Map<String, Integer> refs_ = new HashMap<String, Integer>();
+
+	private final FileSyncer syncer_;
+
+	private final Path rootDir_;
+
+	// Guarded by "this" for writes
+	private FileChannel log_;
+
+	public ContentAddressedBlobStore(Path rootDir) throws IOException {
+		this(rootDir, new FileSyncer(FileSyncer.Mode.GROUP, 0));
+	}
+
+	public ContentAddressedBlobStore(Path rootDir, FileSyncer syncer) throws IOException {
+		syncer_ = syncer;
+		rootDir_ = rootDir;
+		blobDir_ = rootDir.resolve("blobs");
+		tmpDir_ = rootDir.resolve("tmp");
+		indexFile_ = rootDir.resolve(INDEX_FILE);
+		Files.createDirectories(blobDir_);
+		Files.createDirectories(tmpDir_);
+
+		deleteTempFiles();
+		replayIndex();
+		deleteUnreferencedBlobs();
+	}
+
+	@Override
+	public Path getBlob(long videoId) {
+		String digest = index_.get(videoId);
+		if (digest == null) {
+			return null;
+		}
+		Path blob = getBlobPath(digest);
+		return Files.exists(blob) ? blob : null;
+	}
+
+	@Override
+	public String getKey(long videoId) {
+		return index_.get(videoId);
+	}
+
+	@Override
+	public String store(long videoId, InputStream data) throws IOException {
+		MessageDigest md = newDigest();
+		Path tmp = Files.createTempFile(tmpDir_, "blob", ".tmp");
+		try {
+			try (InputStream in = new DigestInputStream(data, md)) {
+				Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			String digest = toHex(md.digest());
+			install(videoId, digest, tmp);
+			return digest;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	@Override
+	public String adopt(long videoId, Path file) throws IOException {
+		try {
+			String digest = digestOf(file);
+			install(videoId, digest, file);
+			return digest;
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Override
+	public Path getBlobByKey(String digest) {
+		if (!isDigest(digest)) {
+			return null;
+		}
+		Path blob = getBlobPath(digest);
+		return Files.exists(blob) ? blob : null;
+	}
+
+	@Override
+	public boolean link(long videoId, String digest) throws IOException {
+		String orphan;
+		synchronized (this) {
+			if (!isDigest(digest) || !Files.exists(getBlobPath(digest))) {
+				return false;
+			}
+			orphan = bind(videoId, digest);
+		}
+		syncLog();
+		deleteIfUnreferenced(orphan);
+		return true;
+	}
+
+	@Override
+	public void remove(long videoId) throws IOException {
+		String orphan;
+		synchronized (this) {
+			String old = index_.remove(videoId);
+			if (old == null) {
+				return;
+			}
+			appendToLog(videoId, REMOVED);
+			orphan = release(old);
+		}
+		syncLog();
+		deleteIfUnreferenced(orphan);
+	}
+
+	// Moves a fully written file into the store under its digest unless a
+	// blob with that digest already exists, in which case the new copy is
+	// simply left for the caller to delete without ever being flushed. The
+	// flushes of the blob's directories and of the index log happen outside
+	// of the store's lock so that concurrent uploads can share them.
+	private void install(long videoId, String digest, Path file) throws IOException {
+		if (link(videoId, digest)) {
+			return;
+		}
+		syncer_.syncFile(file);
+
+		Path blob = getBlobPath(digest);
+		Path fanout = blob.getParent();
+		boolean moved = false;
+		boolean createdDirs = false;
+		String orphan;
+		synchronized (this) {
+			if (!Files.exists(blob)) {
+				if (!Files.exists(fanout)) {
+					Files.createDirectories(fanout);
+					createdDirs = true;
+				}
+				try {
+					Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(file, blob);
+				}
+				moved = true;
+			}
+			orphan = bind(videoId, digest);
+		}
+
+		if (createdDirs) {
+			syncer_.syncDirectory(blobDir_);
+			syncer_.syncDirectory(fanout.getParent());
+		}
+		if (moved) {
+			syncer_.syncDirectory(fanout);
+		}
+		syncLog();
+		deleteIfUnreferenced(orphan);
+	}
+
+	// Points the video id at the digest and adjusts the reference counts.
+	// Returns the digest of a blob that is no longer referenced, if any.
+	// Must be called while holding the lock on "this".
+	private String bind(long videoId, String digest) throws IOException {
+		String old = index_.put(videoId, digest);
+		if (digest.equals(old)) {
+			return null;
+		}
+		retain(digest);
+		appendToLog(videoId, digest);
+		return (old != null) ? release(old) : null;
+	}
+
+	private void retain(String digest) {
+		Integer count = refs_.get(digest);
+		refs_.put(digest, (count == null) ? 1 : count + 1);
+	}
+
+	// Returns the digest if this was the blob's last reference
+	private String release(String digest) {
+		Integer count = refs_.get(digest);
+		if (count == null || count <= 1) {
+			refs_.remove(digest);
+			return digest;
+		}
+		refs_.put(digest, count - 1);
+		return null;
+	}
+
+	// Blobs are only deleted once the log entry that dropped their last
+	// reference is durable, so that a crash can't leave the index pointing
+	// at a deleted blob. The blob may have been linked again in the meantime.
+	private synchronized void deleteIfUnreferenced(String digest) throws IOException {
+		if (digest != null && !refs_.containsKey(digest)) {
+			Files.deleteIfExists(getBlobPath(digest));
+		}
+	}
+
+	/**
+	 * Returns the path that the blob with the given digest is (or would be)
+	 * stored at.
+	 * 
+	 * @param digest
+	 * @return
+	 */
+	public Path getBlobPath(String digest) {
+		return blobDir_.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest);
+	}
+
+	/**
+	 * Returns the number of videos that refer to the blob with the given
+	 * digest.
+	 * 
+	 * @param digest
+	 * @return
+	 */
+	public synchronized int getReferenceCount(String digest) {
+		Integer count = refs_.get(digest);
+		return (count == null) ? 0 : count;
+	}
+
+	private void appendToLog(long videoId, String digest) throws IOException {
+		ByteBuffer line = ByteBuffer.wrap((videoId + " " + digest + "\n").getBytes(StandardCharsets.US_ASCII));
+		while (line.hasRemaining()) {
+			log_.write(line);
+		}
+	}
+
+	// Flushes everything appended to the index log so far to disk
+	private void syncLog() throws IOException {
+		syncer_.sync(indexFile_, new FileSyncer.SyncAction() {
+			@Override
+			public void sync() throws IOException {
+				log_.force(false);
+			}
+		});
+	}
+
+	// Rebuilds the index and reference counts from the log and then rewrites
+	// the log so that it only holds the live entries
+	private synchronized void replayIndex() throws IOException {
+		if (Files.exists(indexFile_)) {
+			try (BufferedReader reader = Files.newBufferedReader(indexFile_, StandardCharsets.US_ASCII)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int space = line.indexOf(' ');
+					if (space < 0) {
+						continue;
+					}
+					long videoId;
+					try {
+						videoId = Long.parseLong(line.substring(0, space));
+					} catch (NumberFormatException e) {
+						continue;
+					}
+					String digest = line.substring(space + 1).trim();
+					if (REMOVED.equals(digest)) {
+						index_.remove(videoId);
+					} else {
+						index_.put(videoId, digest);
+					}
+				}
+			}
+		}
+		for (String digest : index_.values()) {
+			retain(digest);
+		}
+
+		Path compacted = Files.createTempFile(tmpDir_, "index", ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.US_ASCII)) {
+			for (Map.Entry<Long, String> e : index_.entrySet()) {
+				writer.write(e.getKey() + " " + e.getValue());
+				writer.newLine();
+			}
+		}
+		syncer_.syncFile(compacted);
+		Files.move(compacted, indexFile_, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncer_.syncDirectory(rootDir_);
+		log_ = FileChannel.open(indexFile_, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	// Nothing is using the temp files of an earlier run (e.g., uploads that
+	// were cut off by a crash)
+	private void deleteTempFiles() throws IOException {
+		try (DirectoryStream<Path> tmps = Files.newDirectoryStream(tmpDir_)) {
+			for (Path tmp : tmps) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	// A crash between moving a blob into place and logging the video that
+	// refers to it, or between logging its last release and deleting it,
+	// leaves a blob that no video refers to
+	private synchronized void deleteUnreferencedBlobs() throws IOException {
+		Files.walkFileTree(blobDir_, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!refs_.containsKey(file.getFileName().toString())) {
+					Files.deleteIfExists(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static String digestOf(Path file) throws IOException {
+		MessageDigest md = newDigest();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				md.update(buffer, 0, read);
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns true if the given string looks like a digest produced by this
+	 * store.
+	 * 
+	 * @param digest
+	 * @return
+	 */
+	public static boolean isDigest(String digest) {
+		if (digest == null || digest.length() != 64) {
+			return false;
+		}
+		for (int i = 0; i < digest.length(); i++) {
+			char c = digest.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,285 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes writes to the video store durable with fsync.
+ * 
+ * A new file only survives a crash once its data has been flushed to disk
+ * and the directory entry that names it has been flushed too. Flushing the
+ * data of each file is unavoidable, but the directory flushes of many
+ * concurrent uploads into the same directory can be shared. In GROUP mode,
+ * a thread that needs a directory (or any other shared target, such as an
+ * index log) flushed joins a group. The first thread in the group performs
+ * a single fsync on behalf of every thread that asked before it started,
+ * and the rest wait for it. Under heavy upload load this turns one fsync
+ * per request into one fsync per group.
+ * 
+ * @author jules
+ *
+ */
+public class FileSyncer {
+
+	public enum Mode {
+		/** Never fsync. A crash may lose or tear recently written videos. */
+		NONE,
+		/** fsync file data and directories on every write. */
+		IMMEDIATE,
+		/** fsync file data on every write and share directory fsyncs. */
+		GROUP
+	}
+
+	/**
+	 * Something that can be flushed to disk, such as a directory or a log.
+	 */
+	public interface SyncAction {
+
+		public void sync() throws IOException;
+
+	}
+
+	// The group commit state of a single target. Guarded by itself.
+	private static class Group {
+
+		// The number of sync requests that have been made
+		private long requested_;
+
+		// All requests up to this number are durable
+		private long completed_;
+
+		private boolean syncing_;
+	}
+
+	private final Mode mode_;
+
+	private final long lingerNanos_;
+
+	private final ConcurrentMap<Path, Group> groups_ = new ConcurrentHashMap<Path, Group>();
+
+	private final AtomicLong requests_ = new AtomicLong();
+
+	private final AtomicLong syncs_ = new AtomicLong();
+
+	/**
+	 * @param mode
+	 * @param lingerMicros
+	 *            in GROUP mode, how long the thread that performs a group's
+	 *            fsync waits for more threads to join the group first
+	 */
+	public FileSyncer(Mode mode, long lingerMicros) {
+		mode_ = mode;
+		lingerNanos_ = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+	}
+
+	public Mode getMode() {
+		return mode_;
+	}
+
+	/**
+	 * Flushes the data of the given file to disk.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void syncFile(Path file) throws IOException {
+		if (mode_ == Mode.NONE) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Flushes the data of an open file to disk.
+	 * 
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void syncFile(FileChannel channel) throws IOException {
+		if (mode_ != Mode.NONE) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Flushes the entries of the given directory (e.g., a file that was just
+	 * moved into it) to disk.
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 */
+	public void syncDirectory(final Path dir) throws IOException {
+		sync(dir, new SyncAction() {
+			@Override
+			public void sync() throws IOException {
+				forceDirectory(dir);
+			}
+		});
+	}
+
+	/**
+	 * Runs the action, which flushes the shared target identified by key, so
+	 * that everything written to the target before this call is durable when
+	 * it returns. In GROUP mode, concurrent calls for the same key share a
+	 * single run of the action.
+	 * 
+	 * @param key
+	 * @param action
+	 * @throws IOException
+	 */
+	public void sync(Path key, SyncAction action) throws IOException {
+		if (mode_ == Mode.NONE) {
+			return;
+		}
+		requests_.incrementAndGet();
+		if (mode_ == Mode.IMMEDIATE) {
+			syncs_.incrementAndGet();
+			action.sync();
+			return;
+		}
+
+		Group group = getGroup(key);
+		long ticket;
+		synchronized (group) {
+			ticket = ++group.requested_;
+		}
+
+		while (true) {
+			long batch;
+			synchronized (group) {
+				while (group.syncing_ && group.completed_ < ticket) {
+					waitFor(group);
+				}
+				if (group.completed_ >= ticket) {
+					return;
+				}
+				// Lead a group on behalf of everyone who has asked so far.
+				// Threads that arrive while we linger or while the disk
+				// works join the group or wait for the next one.
+				group.syncing_ = true;
+				linger(group);
+				batch = group.requested_;
+			}
+
+			boolean done = false;
+			try {
+				syncs_.incrementAndGet();
+				action.sync();
+				done = true;
+			} finally {
+				synchronized (group) {
+					if (done) {
+						group.completed_ = Math.max(group.completed_, batch);
+					}
+					// If the fsync failed, one of the waiting threads will
+					// retry it and this thread sees the exception
+					group.syncing_ = false;
+					group.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of times that a directory or other shared target
+	 * was asked to be flushed.
+	 * 
+	 * @return
+	 */
+	public long getRequestCount() {
+		return requests_.get();
+	}
+
+	/**
+	 * Returns the number of flushes of directories and other shared targets
+	 * that were actually performed. In GROUP mode this is lower than the
+	 * request count when flushes are shared.
+	 * 
+	 * @return
+	 */
+	public long getSyncCount() {
+		return syncs_.get();
+	}
+
+	// Gives other threads a moment to join the group before its fsync
+	private void linger(Group group) {
+		if (lingerNanos_ <= 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + lingerNanos_;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.timedWait(group, remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static void waitFor(Group group) throws IOException {
+		try {
+			group.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a group fsync", e);
+		}
+	}
+
+	private Group getGroup(Path key) {
+		Group group = groups_.get(key);
+		if (group == null) {
+			Group fresh = new Group();
+			group = groups_.putIfAbsent(key, fresh);
+			if (group == null) {
+				group = fresh;
+			}
+		}
+		return group;
+	}
+
+	// Opening a directory for reading and forcing it flushes its entries on
+	// Linux and other POSIX systems. Some platforms (e.g., Windows) don't
+	// allow directories to be opened, in which case there is nothing we can
+	// do and the directory's durability is up to the file system.
+	private static void forceDirectory(Path dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+}
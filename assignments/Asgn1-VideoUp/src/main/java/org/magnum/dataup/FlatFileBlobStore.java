@@ -0,0 +1,108 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The original VideoBlobStore layout, which keeps the data for each video
+ * in its own "video{id}.mpg" file in a single directory. Identical uploads
+ * are stored once per video.
+ * 
+ * @author jules
+ *
+ */
+public class FlatFileBlobStore implements VideoBlobStore {
+
+	private final Path targetDir_;
+	
+	private final FileSyncer syncer_;
+
+	public FlatFileBlobStore(Path targetDir) throws IOException {
+		this(targetDir, new FileSyncer(FileSyncer.Mode.GROUP, 0));
+	}
+
+	public FlatFileBlobStore(Path targetDir, FileSyncer syncer) throws IOException {
+		targetDir_ = targetDir;
+		syncer_ = syncer;
+		if(!Files.exists(targetDir_)){
+			Files.createDirectories(targetDir_);
+		}
+	}
+
+	private Path getVideoPath(long videoId) {
+		return targetDir_.resolve("video"+videoId+".mpg");
+	}
+
+	@Override
+	public Path getBlob(long videoId) {
+		Path source = getVideoPath(videoId);
+		return Files.exists(source) ? source : null;
+	}
+
+	@Override
+	public String getKey(long videoId) {
+		return (getBlob(videoId) != null) ? Long.toString(videoId) : null;
+	}
+
+	// The data is written to a new file that is then moved over the old
+	// one, rather than overwriting the old file in place, so that readers
+	// that have the old file open or mapped never see it change
+	@Override
+	public String store(long videoId, InputStream data) throws IOException {
+		Path tmp = Files.createTempFile(targetDir_, "video"+videoId, ".tmp");
+		try{
+			Files.copy(data, tmp, StandardCopyOption.REPLACE_EXISTING);
+			return adopt(videoId, tmp);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	@Override
+	public String adopt(long videoId, Path file) throws IOException {
+		// The data must be on disk before the file gets its final name, or a
+		// crash could leave a torn video that looks complete
+		syncer_.syncFile(file);
+		Files.move(file, getVideoPath(videoId),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncer_.syncDirectory(targetDir_);
+		return Long.toString(videoId);
+	}
+
+	// Keys are video ids, which clients can't be allowed to link to
+	@Override
+	public Path getBlobByKey(String key) {
+		return null;
+	}
+
+	@Override
+	public boolean link(long videoId, String key) {
+		return false;
+	}
+
+	@Override
+	public void remove(long videoId) throws IOException {
+		Files.deleteIfExists(getVideoPath(videoId));
+	}
+
+}
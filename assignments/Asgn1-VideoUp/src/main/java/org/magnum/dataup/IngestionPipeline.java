@@ -0,0 +1,341 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finishes uploads of video data in the background so that request
+ * threads aren't tied up while the data is verified, checksummed and
+ * moved into the VideoFileManager's store.
+ * 
+ * The upload handler only stages the uploaded bytes (which is a rename
+ * of the container's multipart temp file) and submits them here. Staged
+ * uploads are processed by a fixed number of workers. The queue of
+ * pending uploads is bounded, and submit() throws a
+ * RejectedExecutionException when it is full so that the handler can
+ * push back on clients with a 503 instead of piling up work.
+ * 
+ * While an upload is being processed, its video is in the PROCESSING
+ * state. Listeners can be registered to find out when it is READY.
+ * 
+ * Uploads for the same video are committed one at a time, and an upload
+ * that is superseded by a newer one for the same video before it is
+ * committed is dropped, so the last upload that was accepted wins. The
+ * listeners of a dropped upload are told about the newer one instead.
+ * Resumable upload sessions are committed through the pipeline too (see
+ * commitUploadSession()), so they take part in the same ordering.
+ * 
+ * The workers are not daemon threads and shutdown() waits for accepted
+ * uploads to finish, so stopping the server doesn't cut off an upload that
+ * a client has already been told is being processed.
+ * 
+ * @author jules
+ *
+ */
+public class IngestionPipeline {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IngestionPipeline.class);
+
+	/**
+	 * Notified when the upload of a video's data has finished.
+	 */
+	public interface Listener {
+
+		public void onReady(long videoId);
+
+		public void onFailed(long videoId, Exception e);
+
+	}
+
+	// An upload that has been accepted but not finished yet
+	private class Task implements Runnable {
+
+		private final Video video_;
+
+		private final Path staged_;
+
+		// Guarded by "this"
+		private List<Listener> listeners_ = new ArrayList<Listener>();
+
+		Task(Video video, Path staged) {
+			video_ = video;
+			staged_ = staged;
+		}
+
+		@Override
+		public void run() {
+			Exception failure = null;
+			boolean superseded = false;
+			try {
+				synchronized (videoLock(video_.getId())) {
+					synchronized (inFlight_) {
+						superseded = inFlight_.get(video_.getId()) != this;
+					}
+					if (!superseded) {
+						verify(staged_);
+						videoDataMgr_.commitStagedVideoData(video_, staged_);
+					}
+				}
+			} catch (Exception e) {
+				LOG.warn("Unable to ingest the data for videoId:" + video_.getId(), e);
+				failure = e;
+			} finally {
+				deleteQuietly(staged_);
+				synchronized (inFlight_) {
+					inFlight_.remove(video_.getId(), this);
+				}
+			}
+			for (Listener l : drainListeners()) {
+				if (superseded) {
+					whenDone(video_, l);
+				} else if (failure == null) {
+					l.onReady(video_.getId());
+				} else {
+					l.onFailed(video_.getId(), failure);
+				}
+			}
+		}
+
+		// Returns false if the task has already finished and the listener
+		// should be called right away by the caller
+		synchronized boolean addListener(Listener l) {
+			if (listeners_ == null) {
+				return false;
+			}
+			listeners_.add(l);
+			return true;
+		}
+
+		private synchronized List<Listener> drainListeners() {
+			List<Listener> listeners = listeners_;
+			listeners_ = null;
+			return listeners;
+		}
+	}
+
+	// The number of locks that commits for the same video are serialized by
+	private static final int VIDEO_LOCKS = 64;
+
+	private final VideoFileManager videoDataMgr_;
+
+	private final ThreadPoolExecutor workers_;
+
+	private final long shutdownTimeoutMs_;
+
+	// The newest accepted upload for each video. Changes that must agree
+	// with the workers' queue are made while holding its lock.
+	private final ConcurrentMap<Long, Task> inFlight_ = new ConcurrentHashMap<Long, Task>();
+
+	private final Object[] videoLocks_ = new Object[VIDEO_LOCKS];
+
+	/**
+	 * @param videoDataMgr
+	 *            where finished uploads are stored
+	 * @param workers
+	 *            the number of uploads that are processed at the same time
+	 * @param queueCapacity
+	 *            the number of accepted uploads that may wait for a worker
+	 * @param shutdownTimeoutMs
+	 *            how long shutdown() waits for accepted uploads to finish
+	 */
+	public IngestionPipeline(VideoFileManager videoDataMgr, int workers, int queueCapacity, long shutdownTimeoutMs) {
+		videoDataMgr_ = videoDataMgr;
+		shutdownTimeoutMs_ = shutdownTimeoutMs;
+		for (int i = 0; i < videoLocks_.length; i++) {
+			videoLocks_[i] = new Object();
+		}
+		workers_ = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count_ = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "video-ingest-" + count_.incrementAndGet());
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Accepts a staged upload for the given video. The pipeline takes
+	 * ownership of the staged file and deletes it once it is done.
+	 * 
+	 * @param v
+	 * @param staged
+	 * @throws RejectedExecutionException
+	 *             if too many uploads are already waiting. The staged
+	 *             file is deleted.
+	 */
+	public void submit(Video v, Path staged) {
+		Task task = new Task(v, staged);
+		// The previous upload can't finish, or see that it was superseded,
+		// until the new one has been queued or turned away
+		synchronized (inFlight_) {
+			Task previous = inFlight_.put(v.getId(), task);
+			try {
+				workers_.execute(task);
+			} catch (RejectedExecutionException e) {
+				if (previous != null) {
+					inFlight_.put(v.getId(), previous);
+				} else {
+					inFlight_.remove(v.getId());
+				}
+				deleteQuietly(staged);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Commits a complete resumable upload session for the given video from
+	 * the calling thread. The commit waits for an upload of the video that
+	 * a worker is already committing, and supersedes any upload of the
+	 * video that is still queued, so that the session's data is what the
+	 * video ends up with unless a newer upload is accepted after it.
+	 * 
+	 * @param v
+	 * @param session
+	 * @throws IllegalStateException
+	 *             if the session isn't complete or is no longer open. An
+	 *             upload that is in flight is left alone.
+	 * @throws IOException
+	 */
+	public void commitUploadSession(Video v, UploadSession session) throws IOException {
+		synchronized (videoLock(v.getId())) {
+			// Only the uploads accepted before the commit are superseded,
+			// not one that is submitted while the session is committed
+			Task superseded = inFlight_.get(v.getId());
+			videoDataMgr_.commitUploadSession(v, session);
+			if (superseded != null) {
+				// The queued upload sees that it was superseded when it runs
+				synchronized (inFlight_) {
+					inFlight_.remove(v.getId(), superseded);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns PROCESSING if an upload for the given video is still being
+	 * processed, READY if the video has data, or null if it has neither.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public VideoState getState(Video v) throws IOException {
+		if (inFlight_.containsKey(v.getId())) {
+			return VideoState.PROCESSING;
+		}
+		return videoDataMgr_.hasVideoData(v) ? VideoState.READY : null;
+	}
+
+	/**
+	 * Calls the listener once the upload that is in flight for the given
+	 * video finishes. If no upload is in flight, the listener is called
+	 * right away from the calling thread, with onReady() if the video has
+	 * data and with onFailed() if it doesn't.
+	 * 
+	 * @param v
+	 * @param l
+	 */
+	public void whenDone(Video v, Listener l) {
+		Task task = inFlight_.get(v.getId());
+		if (task != null && task.addListener(l)) {
+			return;
+		}
+		try {
+			if (videoDataMgr_.hasVideoData(v)) {
+				l.onReady(v.getId());
+			} else {
+				l.onFailed(v.getId(), new FileNotFoundException("No data was stored for videoId:" + v.getId()));
+			}
+		} catch (IOException e) {
+			l.onFailed(v.getId(), e);
+		}
+	}
+
+	/**
+	 * Returns the number of uploads that are waiting for a worker.
+	 * 
+	 * @return
+	 */
+	public int getQueuedCount() {
+		return workers_.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting uploads and waits for the uploads that have already
+	 * been accepted to finish. If they don't finish within the shutdown
+	 * timeout, the workers are interrupted and the rest are abandoned.
+	 * Returns true if every accepted upload finished.
+	 * 
+	 * @return
+	 */
+	public boolean shutdown() {
+		workers_.shutdown();
+		try {
+			if (workers_.awaitTermination(shutdownTimeoutMs_, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Runnable> abandoned = workers_.shutdownNow();
+		LOG.warn("Stopped ingesting video data with " + abandoned.size() + " uploads still queued");
+		return false;
+	}
+
+	private Object videoLock(long videoId) {
+		return videoLocks_[(int) ((videoId ^ (videoId >>> 32)) & 0x7fffffff) % videoLocks_.length];
+	}
+
+	// Makes sure the staged upload is something that we are willing to store
+	private void verify(Path staged) throws IOException {
+		if (!Files.isRegularFile(staged) || Files.size(staged) == 0) {
+			throw new IOException("The uploaded video data is empty: " + staged);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOG.warn("Unable to delete " + file, e);
+		}
+	}
+
+}
@@ -0,0 +1,329 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of memory-mapped segments of the most frequently downloaded
+ * video files. The mapped segments live outside of the Java heap and are
+ * served from the page cache, so popular videos can be sent without a
+ * read() system call per request and without growing the heap.
+ * 
+ * Files are split into fixed size segments so that a range request only
+ * maps the part of the file that it needs. The total number of mapped
+ * bytes is kept under a configurable budget by evicting the least
+ * recently used segments. To keep one-off downloads from pushing out the
+ * hot videos, a file is only admitted to the cache once it has been read
+ * a configurable number of times.
+ * 
+ * Lookups of mapped segments don't take a lock. A segment that isn't
+ * mapped yet is mapped by the first thread that asks for it, without
+ * holding up lookups of other segments, and threads that ask for the same
+ * segment in the meantime wait for that mapping rather than making their
+ * own.
+ * 
+ * Cached files must never be modified in place, since a mapping of a
+ * truncated file faults when it is read. The VideoBlobStores only ever
+ * replace data by moving a new file into place, which leaves existing
+ * mappings of the old file valid.
+ * 
+ * @author jules
+ *
+ */
+public class MappedSegmentCache {
+
+	// The number of distinct files that the admission filter keeps counts
+	// for before it forgets them all and starts over
+	private static final int MAX_TRACKED_FILES = 10000;
+
+	private static final class SegmentKey {
+
+		private final String file_;
+
+		private final long segment_;
+
+		SegmentKey(String file, long segment) {
+			file_ = file;
+			segment_ = segment;
+		}
+
+		@Override
+		public int hashCode() {
+			return file_.hashCode() * 31 + (int) (segment_ ^ (segment_ >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof SegmentKey)
+					&& segment_ == ((SegmentKey) obj).segment_
+					&& file_.equals(((SegmentKey) obj).file_);
+		}
+	}
+
+	// A segment that is mapped, or being mapped by the thread that missed
+	private static final class Segment {
+
+		private final FutureTask<MappedByteBuffer> mapping_;
+
+		// When the segment was last used, on the cache's clock
+		private volatile long lastUsed_;
+
+		Segment(FutureTask<MappedByteBuffer> mapping) {
+			mapping_ = mapping;
+		}
+	}
+
+	private final long budgetBytes_;
+
+	private final int segmentSize_;
+
+	private final int admitAfter_;
+
+	private final ConcurrentMap<SegmentKey, Segment> segments_ = new ConcurrentHashMap<SegmentKey, Segment>();
+
+	// Counts lookups so that segments can be ordered by when they were used
+	private final AtomicLong clock_ = new AtomicLong();
+
+	private final AtomicLong mappedBytes_ = new AtomicLong();
+
+	// Held while segments are evicted so that two threads don't both evict
+	// for the same overshoot of the budget
+	private final Object evictionLock_ = new Object();
+
+	private final ConcurrentMap<String, AtomicInteger> accesses_ = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final AtomicLong hits_ = new AtomicLong();
+
+	private final AtomicLong misses_ = new AtomicLong();
+
+	private final AtomicLong evictions_ = new AtomicLong();
+
+	/**
+	 * @param budgetBytes
+	 *            the most bytes that may be mapped at once
+	 * @param segmentSize
+	 *            the size of each mapped segment of a file
+	 * @param admitAfter
+	 *            the number of reads of a file before it is cached
+	 */
+	public MappedSegmentCache(long budgetBytes, int segmentSize, int admitAfter) {
+		if (segmentSize <= 0 || budgetBytes < segmentSize) {
+			throw new IllegalArgumentException("The budget of " + budgetBytes
+					+ " bytes can't hold a segment of " + segmentSize + " bytes");
+		}
+		budgetBytes_ = budgetBytes;
+		segmentSize_ = segmentSize;
+		admitAfter_ = admitAfter;
+	}
+
+	/**
+	 * Records a read of the given file and returns true if it is popular
+	 * enough to be served from the cache.
+	 * 
+	 * @param key
+	 *            identifies the contents of the file (e.g., its digest)
+	 * @return
+	 */
+	public boolean admit(String key) {
+		AtomicInteger count = accesses_.get(key);
+		if (count == null) {
+			if (accesses_.size() >= MAX_TRACKED_FILES) {
+				accesses_.clear();
+			}
+			AtomicInteger fresh = new AtomicInteger();
+			count = accesses_.putIfAbsent(key, fresh);
+			if (count == null) {
+				count = fresh;
+			}
+		}
+		return count.incrementAndGet() >= admitAfter_;
+	}
+
+	/**
+	 * Returns true if the given file has been read often enough to be served
+	 * from the cache, without recording a read.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public boolean isAdmitted(String key) {
+		AtomicInteger count = accesses_.get(key);
+		return count != null && count.get() >= admitAfter_;
+	}
+
+	/**
+	 * Returns a read-only view of the bytes of the file in the range
+	 * [position, position + count), or of the part of that range that falls
+	 * within a single segment. The returned buffer is positioned at the
+	 * first requested byte and may hold fewer than count bytes, in which
+	 * case the caller should ask again for the rest.
+	 * 
+	 * @param key
+	 *            identifies the contents of the file (e.g., its digest)
+	 * @param file
+	 * @param fileSize
+	 * @param position
+	 * @param count
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer slice(String key, Path file, long fileSize, long position, long count) throws IOException {
+		long segment = position / segmentSize_;
+		MappedByteBuffer mapped = getSegment(key, file, fileSize, segment);
+
+		ByteBuffer view = mapped.asReadOnlyBuffer();
+		int offset = (int) (position - segment * segmentSize_);
+		view.position(offset);
+		view.limit((int) Math.min(view.capacity(), offset + count));
+		return view;
+	}
+
+	private MappedByteBuffer getSegment(String key, final Path file, long fileSize, long segment)
+			throws IOException {
+		SegmentKey sk = new SegmentKey(key, segment);
+		Segment cached = segments_.get(sk);
+		if (cached == null) {
+			final long start = segment * segmentSize_;
+			final long size = Math.min(segmentSize_, fileSize - start);
+			Segment fresh = new Segment(new FutureTask<MappedByteBuffer>(new Callable<MappedByteBuffer>() {
+				@Override
+				public MappedByteBuffer call() throws IOException {
+					try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+						return channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+					}
+				}
+			}));
+			cached = segments_.putIfAbsent(sk, fresh);
+			if (cached == null) {
+				misses_.incrementAndGet();
+				fresh.lastUsed_ = clock_.incrementAndGet();
+				fresh.mapping_.run();
+				MappedByteBuffer mapped = await(sk, fresh);
+				mappedBytes_.addAndGet(mapped.capacity());
+				evict();
+				return mapped;
+			}
+		}
+		hits_.incrementAndGet();
+		cached.lastUsed_ = clock_.incrementAndGet();
+		return await(sk, cached);
+	}
+
+	// Waits for the segment to be mapped. A mapping that failed is dropped
+	// so that the next lookup tries again.
+	private MappedByteBuffer await(SegmentKey sk, Segment segment) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return segment.mapping_.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					segments_.remove(sk, segment);
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// Drops the least recently used segments until the mapped bytes fit in
+	// the budget. The cache holds at most budget / segment size segments,
+	// so finding the eldest with a scan is cheap. Segments that are still
+	// being mapped are skipped. The memory of a dropped mapping is released
+	// when the GC collects it, since Java 7 has no public way to unmap a
+	// file.
+	private void evict() {
+		synchronized (evictionLock_) {
+			while (mappedBytes_.get() > budgetBytes_) {
+				Map.Entry<SegmentKey, Segment> eldest = null;
+				for (Map.Entry<SegmentKey, Segment> e : segments_.entrySet()) {
+					if (e.getValue().mapping_.isDone()
+							&& (eldest == null || e.getValue().lastUsed_ < eldest.getValue().lastUsed_)) {
+						eldest = e;
+					}
+				}
+				if (eldest == null) {
+					return;
+				}
+				if (segments_.remove(eldest.getKey(), eldest.getValue())) {
+					try {
+						mappedBytes_.addAndGet(-eldest.getValue().mapping_.get().capacity());
+						evictions_.incrementAndGet();
+					} catch (InterruptedException | ExecutionException e) {
+						// Failed mappings were never counted
+					}
+				}
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits_.get();
+	}
+
+	public long getMisses() {
+		return misses_.get();
+	}
+
+	public long getEvictions() {
+		return evictions_.get();
+	}
+
+	public long getMappedBytes() {
+		return mappedBytes_.get();
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes_;
+	}
+
+	/**
+	 * Returns the fraction of segment lookups that were served from an
+	 * existing mapping.
+	 * 
+	 * @return
+	 */
+	public double getHitRatio() {
+		long hits = hits_.get();
+		long total = hits + misses_.get();
+		return (total == 0) ? 0.0 : (double) hits / total;
+	}
+
+}
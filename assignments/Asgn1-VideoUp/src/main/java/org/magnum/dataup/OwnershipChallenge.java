@@ -0,0 +1,162 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * A challenge that a client must answer before its video is linked to
+ * data that is already stored under the SHA-256 digest that it sent. A
+ * digest alone proves nothing (it may have been copied from anywhere), so
+ * the server picks a random range of the data and a random nonce, and the
+ * client has to send back the SHA-256 digest of the nonce followed by the
+ * bytes in that range. Only a client that has the data can answer.
+ * 
+ * A challenge is issued for every digest that a client sends, whether or
+ * not the data is stored, so that the challenge doesn't reveal which data
+ * the server holds. It can be answered once.
+ * 
+ * @author jules
+ *
+ */
+public class OwnershipChallenge {
+
+	// The most bytes of the data that a proof covers
+	public static final int MAX_RANGE_LENGTH = 64 * 1024;
+
+	private static final int NONCE_BYTES = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final String digest_;
+
+	private final long length_;
+
+	// Null if the data is empty
+	private final ByteRange range_;
+
+	private final String nonce_;
+
+	private OwnershipChallenge(String digest, long length, ByteRange range, String nonce) {
+		digest_ = digest;
+		length_ = length;
+		range_ = range;
+		nonce_ = nonce;
+	}
+
+	/**
+	 * Creates a challenge for length bytes of data with the given digest.
+	 * 
+	 * @param digest
+	 * @param length
+	 * @return
+	 */
+	public static OwnershipChallenge issue(String digest, long length) {
+		ByteRange range = null;
+		if (length > 0) {
+			long rangeLength = Math.min(length, MAX_RANGE_LENGTH);
+			long first = (long) (RANDOM.nextDouble() * (length - rangeLength + 1));
+			range = new ByteRange(first, first + rangeLength - 1);
+		}
+		byte[] nonce = new byte[NONCE_BYTES];
+		RANDOM.nextBytes(nonce);
+		return new OwnershipChallenge(digest, length, range, ContentAddressedBlobStore.toHex(nonce));
+	}
+
+	public String getDigest() {
+		return digest_;
+	}
+
+	public long getLength() {
+		return length_;
+	}
+
+	/**
+	 * Returns the range of the data that the proof must cover or null if
+	 * the data is empty.
+	 * 
+	 * @return
+	 */
+	public ByteRange getRange() {
+		return range_;
+	}
+
+	public String getNonce() {
+		return nonce_;
+	}
+
+	/**
+	 * Returns true if the proof is the answer to this challenge for the
+	 * data in the given file, which must be exactly as long as the data
+	 * that the challenge was issued for.
+	 * 
+	 * @param data
+	 * @param proof
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isAnsweredBy(Path data, String proof) throws IOException {
+		if (proof == null || Files.size(data) != length_) {
+			return false;
+		}
+		ByteBuffer bytes = ByteBuffer.allocate(range_ == null ? 0 : (int) range_.getLength());
+		if (range_ != null) {
+			try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+				while (bytes.hasRemaining()) {
+					if (channel.read(bytes, range_.getFirst() + bytes.position()) < 0) {
+						return false;
+					}
+				}
+			}
+			bytes.flip();
+		}
+		byte[] expected = answer(nonce_, bytes).getBytes(StandardCharsets.US_ASCII);
+		return MessageDigest.isEqual(expected, proof.toLowerCase().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Computes the answer to a challenge: the hex SHA-256 digest of the
+	 * nonce's characters followed by the bytes in the challenged range.
+	 * 
+	 * @param nonce
+	 * @param range
+	 * @return
+	 */
+	public static String answer(String nonce, ByteBuffer range) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		md.update(nonce.getBytes(StandardCharsets.US_ASCII));
+		md.update(range);
+		return ContentAddressedBlobStore.toHex(md.digest());
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the counters of the VideoFileManager's MappedSegmentCache as
+ * gauges on the actuator's /metrics endpoint (as gauge.cache.video-segments.*)
+ * so that the cache's budget and admission threshold can be tuned from how
+ * it actually behaves. Nothing is published if the cache is turned off.
+ * 
+ * @author jules
+ *
+ */
+@Component
+public class SegmentCacheMetrics {
+
+	private static final String PREFIX = "cache.video-segments";
+
+	@Autowired
+	private VideoFileManager videoDataMgr_;
+
+	@Autowired
+	private GaugeService gauges_;
+
+	@Scheduled(fixedDelayString = "${video.cache.metricsIntervalMs:10000}")
+	public void publish() {
+		MappedSegmentCache cache = videoDataMgr_.getSegmentCache();
+		if (cache == null) {
+			return;
+		}
+		gauges_.submit(PREFIX + ".hitRatio", cache.getHitRatio());
+		gauges_.submit(PREFIX + ".hits", cache.getHits());
+		gauges_.submit(PREFIX + ".misses", cache.getMisses());
+		gauges_.submit(PREFIX + ".evictions", cache.getEvictions());
+		gauges_.submit(PREFIX + ".mappedBytes", cache.getMappedBytes());
+		gauges_.submit(PREFIX + ".budgetBytes", cache.getBudgetBytes());
+	}
+
+}
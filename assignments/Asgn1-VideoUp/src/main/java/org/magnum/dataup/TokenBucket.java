@@ -0,0 +1,157 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket that limits a flow of bytes to a rate, while
+ * allowing short bursts. Each byte costs a fixed number of nanoseconds of
+ * "send time". The bucket tracks the time at which everything reserved so
+ * far will have been paid for (the theoretical arrival time of the GCRA
+ * algorithm) in a single AtomicLong, so reserving bytes is one CAS on the
+ * hot path and never blocks.
+ * 
+ * The bucket also meters the bytes that pass through it so that its
+ * current throughput can be reported.
+ * 
+ * @author jules
+ *
+ */
+public class TokenBucket {
+
+	private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final String name_;
+
+	private final long bytesPerSecond_;
+
+	private final double nanosPerByte_;
+
+	// How far ahead of the current time the bucket may be booked before
+	// callers have to wait, i.e., the size of a burst expressed in time
+	private final long burstNanos_;
+
+	private final AtomicLong theoreticalArrival_;
+
+	private final AtomicLong totalBytes_ = new AtomicLong();
+
+	private final AtomicLong windowStart_;
+
+	private final AtomicLong windowBytes_ = new AtomicLong();
+
+	private volatile long lastRate_;
+
+	private volatile long lastUsed_;
+
+	/**
+	 * @param name
+	 *            identifies the bucket in reports
+	 * @param bytesPerSecond
+	 *            the long term rate to allow
+	 * @param burstBytes
+	 *            the number of bytes that may be sent at once by a flow that
+	 *            has been idle
+	 */
+	public TokenBucket(String name, long bytesPerSecond, long burstBytes) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("The rate of bucket " + name + " must be positive");
+		}
+		name_ = name;
+		bytesPerSecond_ = bytesPerSecond;
+		nanosPerByte_ = (double) ONE_SECOND / bytesPerSecond;
+		burstNanos_ = (long) (burstBytes * nanosPerByte_);
+
+		long now = System.nanoTime();
+		theoreticalArrival_ = new AtomicLong(now);
+		windowStart_ = new AtomicLong(now);
+		lastUsed_ = now;
+	}
+
+	public String getName() {
+		return name_;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond_;
+	}
+
+	/**
+	 * Reserves the given number of bytes and returns the number of
+	 * nanoseconds that the caller must wait before sending them to stay
+	 * within the bucket's rate. The reservation can't be undone.
+	 * 
+	 * @param bytes
+	 * @return
+	 */
+	public long reserve(int bytes) {
+		long cost = (long) (bytes * nanosPerByte_);
+		long now;
+		long next;
+		while (true) {
+			now = System.nanoTime();
+			long tat = theoreticalArrival_.get();
+			next = Math.max(tat, now) + cost;
+			if (theoreticalArrival_.compareAndSet(tat, next)) {
+				break;
+			}
+		}
+		record(bytes, now);
+		return Math.max(0, next - now - burstNanos_);
+	}
+
+	// Lock-free throughput meter. Bytes are counted in windows of about a
+	// second, and the rate of the last complete window is reported.
+	private void record(int bytes, long now) {
+		totalBytes_.addAndGet(bytes);
+		lastUsed_ = now;
+		long start = windowStart_.get();
+		long elapsed = now - start;
+		if (elapsed >= ONE_SECOND && windowStart_.compareAndSet(start, now)) {
+			long windowBytes = windowBytes_.getAndSet(0);
+			lastRate_ = (long) (windowBytes * ((double) ONE_SECOND / elapsed));
+		}
+		windowBytes_.addAndGet(bytes);
+	}
+
+	/**
+	 * Returns the number of bytes per second that passed through the bucket
+	 * during its most recent full second of use, or 0 if it has been idle.
+	 * 
+	 * @return
+	 */
+	public long getCurrentRate() {
+		long idle = System.nanoTime() - windowStart_.get();
+		return (idle > 2 * ONE_SECOND) ? 0 : lastRate_;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes_.get();
+	}
+
+	/**
+	 * Returns the number of nanoseconds since the bucket was last used.
+	 * 
+	 * @return
+	 */
+	public long getIdleNanos() {
+		return System.nanoTime() - lastUsed_;
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The server side state of a resumable, chunked upload of the binary data
+ * for a single video. The data is written into a partial file that is
+ * preallocated to the full length of the video when the session is
+ * opened. Each chunk is written straight into its slot in that file, so
+ * chunks can arrive in any order, be retried after a dropped connection,
+ * and never need to be copied again when the upload is committed.
+ *
+ * Sessions are created and committed through the VideoFileManager, which
+ * closes and deletes sessions that have been idle for too long.
+ *
+ * @author jules
+ *
+ */
+public class UploadSession {
+
+	private final String id_;
+
+	private final long videoId_;
+
+	private final long length_;
+
+	private final Path partFile_;
+
+	private final FileChannel channel_;
+
+	// The ranges of bytes that have been received, keyed by their first
+	// byte and mapping to their last byte (inclusive). Adjacent and
+	// overlapping ranges are merged as chunks arrive.
+	private final TreeMap<Long, Long> received_ = new TreeMap<Long, Long>();
+
+	private long receivedBytes_;
+
+	private boolean closed_;
+
+	// Chunks that are being written right now. A session is never idle
+	// while a chunk is arriving, however slowly.
+	private int activeWrites_;
+
+	private long lastActiveNanos_ = System.nanoTime();
+
+	// Set if the client claimed that the data is already stored, until it
+	// is answered
+	private OwnershipChallenge challenge_;
+
+	UploadSession(String id, long videoId, long length, Path partFile) throws IOException {
+		id_ = id;
+		videoId_ = videoId;
+		length_ = length;
+		partFile_ = partFile;
+		channel_ = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		// Reserve the full length of the video up front so that every
+		// chunk has a slot to be written into
+		if (length > 0) {
+			channel_.write(ByteBuffer.wrap(new byte[1]), length - 1);
+		}
+	}
+
+	public String getId() {
+		return id_;
+	}
+
+	public long getVideoId() {
+		return videoId_;
+	}
+
+	public long getLength() {
+		return length_;
+	}
+
+	Path getPartFile() {
+		return partFile_;
+	}
+
+	/**
+	 * Writes count bytes read from the provided stream into the partial
+	 * file starting at the given offset. Only the bytes that actually
+	 * reached the file are recorded as received, so the client can ask
+	 * which ranges are missing after a dropped connection and resend
+	 * just those.
+	 *
+	 * An IllegalStateException is thrown if the session is closed (i.e.,
+	 * committed, aborted or expired) before or while the chunk is written.
+	 *
+	 * @param offset
+	 * @param count
+	 * @param data
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	long write(long offset, long count, InputStream data) throws IOException {
+		if (offset < 0 || count < 0 || offset + count > length_) {
+			throw new IllegalArgumentException("Chunk [" + offset + ", " + (offset + count)
+					+ ") is outside of the upload's length of " + length_);
+		}
+		synchronized (this) {
+			if (closed_) {
+				throw new IllegalStateException("Upload session " + id_ + " is closed");
+			}
+			activeWrites_++;
+			lastActiveNanos_ = System.nanoTime();
+		}
+
+		try {
+			ReadableByteChannel source = Channels.newChannel(data);
+			long written = 0;
+			while (written < count) {
+				long n = channel_.transferFrom(source, offset + written, count - written);
+				if (n <= 0) {
+					break;
+				}
+				written += n;
+			}
+			if (written > 0) {
+				markReceived(offset, offset + written - 1);
+			}
+			return written;
+		} catch (ClosedChannelException e) {
+			// A commit, abort or expiry closed the channel under this write
+			if (isClosed()) {
+				throw new IllegalStateException("Upload session " + id_ + " was closed during a write", e);
+			}
+			throw e;
+		} finally {
+			synchronized (this) {
+				activeWrites_--;
+				lastActiveNanos_ = System.nanoTime();
+			}
+		}
+	}
+
+	private synchronized void markReceived(long first, long last) {
+		Map.Entry<Long, Long> before = received_.floorEntry(first);
+		if (before != null && before.getValue() >= first - 1) {
+			first = before.getKey();
+			last = Math.max(last, before.getValue());
+		}
+		Map.Entry<Long, Long> next = received_.ceilingEntry(first);
+		while (next != null && next.getKey() <= last + 1) {
+			last = Math.max(last, next.getValue());
+			received_.remove(next.getKey());
+			next = received_.ceilingEntry(first);
+		}
+		received_.put(first, last);
+
+		receivedBytes_ = 0;
+		for (Map.Entry<Long, Long> e : received_.entrySet()) {
+			receivedBytes_ += e.getValue() - e.getKey() + 1;
+		}
+	}
+
+	/**
+	 * Returns the ranges of bytes that have been received so far, in order.
+	 *
+	 * @return
+	 */
+	public synchronized List<ByteRange> getReceivedRanges() {
+		List<ByteRange> ranges = new ArrayList<ByteRange>(received_.size());
+		for (Map.Entry<Long, Long> e : received_.entrySet()) {
+			ranges.add(new ByteRange(e.getKey(), e.getValue()));
+		}
+		return ranges;
+	}
+
+	public synchronized long getReceivedBytes() {
+		return receivedBytes_;
+	}
+
+	public synchronized boolean isComplete() {
+		return receivedBytes_ == length_;
+	}
+
+	public synchronized OwnershipChallenge getChallenge() {
+		return challenge_;
+	}
+
+	synchronized void setChallenge(OwnershipChallenge challenge) {
+		challenge_ = challenge;
+	}
+
+	// A challenge can only be answered once, so that a client can't try to
+	// guess the bytes in the range
+	synchronized OwnershipChallenge takeChallenge() {
+		OwnershipChallenge challenge = challenge_;
+		challenge_ = null;
+		return challenge;
+	}
+
+	synchronized void touch() {
+		lastActiveNanos_ = System.nanoTime();
+	}
+
+	/**
+	 * Returns true if no chunk is being written and nothing has touched
+	 * the session for at least timeoutNanos.
+	 *
+	 * @param nowNanos
+	 * @param timeoutNanos
+	 * @return
+	 */
+	synchronized boolean isIdle(long nowNanos, long timeoutNanos) {
+		return activeWrites_ == 0 && nowNanos - lastActiveNanos_ >= timeoutNanos;
+	}
+
+	synchronized boolean isClosed() {
+		return closed_;
+	}
+
+	synchronized void close() throws IOException {
+		if (!closed_) {
+			closed_ = true;
+			channel_.close();
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * A place to keep the binary data for videos. The VideoFileManager
+ * delegates to a VideoBlobStore to decide where each video's data lives
+ * on disk, which allows the layout to be changed (e.g., to deduplicate
+ * identical uploads) without touching the controllers.
+ * 
+ * @author jules
+ *
+ */
+public interface VideoBlobStore {
+
+	/**
+	 * Returns the file that holds the data for the given video id or null
+	 * if no data has been stored for it.
+	 * 
+	 * @param videoId
+	 * @return
+	 * @throws IOException
+	 */
+	public Path getBlob(long videoId) throws IOException;
+
+	/**
+	 * Returns the key that the video's data is stored under (e.g., its
+	 * digest) or null if no data has been stored for it. Two videos with
+	 * the same key have identical data.
+	 * 
+	 * @param videoId
+	 * @return
+	 */
+	public String getKey(long videoId);
+
+	/**
+	 * Reads all of the data from the provided stream and stores it as the
+	 * data for the given video, replacing any previous data. Returns the
+	 * key that the data was stored under.
+	 * 
+	 * @param videoId
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public String store(long videoId, InputStream data) throws IOException;
+
+	/**
+	 * Takes ownership of a file that has already been completely written
+	 * (e.g., a committed chunked upload) and stores it as the data for the
+	 * given video. The file is moved rather than copied and must be on the
+	 * same file system as the store.
+	 * 
+	 * @param videoId
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public String adopt(long videoId, Path file) throws IOException;
+
+	/**
+	 * Returns the file that holds the data stored under the given key or
+	 * null if the store doesn't hold data under that key.
+	 * 
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	public Path getBlobByKey(String key) throws IOException;
+
+	/**
+	 * Makes the data that is already stored under the given key the data for
+	 * the given video without reading or writing any video data. Returns false
+	 * if the store doesn't hold data under that key.
+	 * 
+	 * @param videoId
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean link(long videoId, String key) throws IOException;
+
+	/**
+	 * Removes the data for the given video, if any.
+	 * 
+	 * @param videoId
+	 * @throws IOException
+	 */
+	public void remove(long videoId) throws IOException;
+
+}
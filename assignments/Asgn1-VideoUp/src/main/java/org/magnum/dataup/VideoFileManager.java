@@ -21,10 +21,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.magnum.dataup.model.Video;
 
@@ -33,6 +41,10 @@ import org.magnum.dataup.model.Video;
  * data on the file system in a "videos" folder. The class provides
  * methods for saving videos and retrieving their binary data.
  * 
+ * Where the data for each video actually lives is decided by a
+ * VideoBlobStore. By default, the data is kept in a content-addressed
+ * store so that identical uploads are only stored once.
+ * 
  * @author jules
  *
  */
@@ -47,24 +59,149 @@ public class VideoFileManager {
 	 * @throws IOException
 	 */
 	public static VideoFileManager get() throws IOException {
-		return new VideoFileManager();
+		return get(TARGET_DIR);
+	}
+	
+	/**
+	 * This static factory method creates a VideoFileManager that keeps
+	 * video data, its index and partial uploads in the provided directory
+	 * rather than in the default "videos" folder.
+	 * 
+	 * @param targetDir
+	 * @return
+	 * @throws IOException
+	 */
+	public static VideoFileManager get(Path targetDir) throws IOException {
+		return new VideoFileManager(targetDir, new ContentAddressedBlobStore(targetDir), null);
+	}
+	
+	/**
+	 * This static factory method creates a VideoFileManager that keeps
+	 * video data in the provided VideoBlobStore.
+	 * 
+	 * @param store
+	 * @return
+	 * @throws IOException
+	 */
+	public static VideoFileManager get(VideoBlobStore store) throws IOException {
+		return new VideoFileManager(TARGET_DIR, store, null);
+	}
+	
+	/**
+	 * This static factory method creates a VideoFileManager that keeps
+	 * video data in the provided VideoBlobStore and serves the data of
+	 * popular videos from the provided MappedSegmentCache.
+	 * 
+	 * @param store
+	 * @param cache
+	 * @return
+	 * @throws IOException
+	 */
+	public static VideoFileManager get(VideoBlobStore store, MappedSegmentCache cache) throws IOException {
+		return new VideoFileManager(TARGET_DIR, store, cache);
+	}
+	
+	/**
+	 * This static factory method creates a VideoFileManager that keeps
+	 * video data in the provided VideoBlobStore, serves popular videos from
+	 * the provided MappedSegmentCache (which may be null) and keeps partial
+	 * uploads in the provided directory, which must be on the same file
+	 * system as the store.
+	 * 
+	 * @param targetDir
+	 * @param store
+	 * @param cache
+	 * @return
+	 * @throws IOException
+	 */
+	public static VideoFileManager get(Path targetDir, VideoBlobStore store, MappedSegmentCache cache) throws IOException {
+		return new VideoFileManager(targetDir, store, cache);
+	}
+	
+	public static final Path TARGET_DIR = Paths.get("videos");
+	
+	/**
+	 * Thrown when an upload session can't be opened because too many
+	 * sessions are already open for the video or for the whole server.
+	 * The client should try again later.
+	 */
+	public static class TooManyUploadsException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public TooManyUploadsException(String message) {
+			super(message);
+		}
 	}
 	
-	private Path targetDir_ = Paths.get("videos");
+	// The default limits on resumable uploads, see setUploadLimits()
+	public static final long DEFAULT_MAX_UPLOAD_LENGTH = 150L * 1024 * 1024;
+	public static final int DEFAULT_MAX_UPLOAD_SESSIONS = 64;
+	public static final int DEFAULT_MAX_UPLOAD_SESSIONS_PER_VIDEO = 2;
+	public static final long DEFAULT_UPLOAD_SESSION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+	
+	// Size of the heap buffer used to copy video data to an OutputStream
+	// when it can't be handed to the kernel with transferTo(). The buffer
+	// is passed straight to OutputStream.write() so that each byte is
+	// copied into the Java heap once, as Files.copy() does.
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final Path targetDir_;
+	
+	// Partial files for chunked uploads live next to the videos so that
+	// committing an upload is a rename on the same file system
+	private final Path uploadDir_;
+	
+	private final VideoBlobStore store_;
+	
+	// Optional, may be null
+	private final MappedSegmentCache cache_;
+	
+	private final ConcurrentMap<String, UploadSession> uploads_ = new ConcurrentHashMap<String, UploadSession>();
+	
+	// Held while the open sessions are counted and a new one is added
+	private final Object uploadsLock_ = new Object();
+	
+	private volatile long maxUploadLength_ = DEFAULT_MAX_UPLOAD_LENGTH;
+	
+	private volatile int maxUploadSessions_ = DEFAULT_MAX_UPLOAD_SESSIONS;
+	
+	private volatile int maxUploadSessionsPerVideo_ = DEFAULT_MAX_UPLOAD_SESSIONS_PER_VIDEO;
+	
+	private volatile long uploadSessionTimeoutNanos_ = TimeUnit.MILLISECONDS.toNanos(DEFAULT_UPLOAD_SESSION_TIMEOUT_MS);
 	
 	// The VideoFileManager.get() method should be used
 	// to obtain an instance
-	private VideoFileManager() throws IOException{
+	private VideoFileManager(Path targetDir, VideoBlobStore store, MappedSegmentCache cache) throws IOException{
+		targetDir_ = targetDir;
+		uploadDir_ = targetDir.resolve("uploads");
+		store_ = store;
+		cache_ = cache;
 		if(!Files.exists(targetDir_)){
 			Files.createDirectories(targetDir_);
 		}
+		if(!Files.exists(uploadDir_)){
+			Files.createDirectories(uploadDir_);
+		}
+		deleteOrphanedParts();
 	}
 	
-	// Private helper method for resolving video file paths
-	private Path getVideoPath(Video v){
+	// Upload sessions only live in memory, so the partial files of any
+	// sessions that were open when the server last stopped can never be
+	// committed
+	private void deleteOrphanedParts() throws IOException{
+		try(DirectoryStream<Path> parts = Files.newDirectoryStream(uploadDir_, "*.part")){
+			for(Path part : parts){
+				Files.deleteIfExists(part);
+			}
+		}
+	}
+	
+	// Private helper method for resolving video file paths. Returns
+	// null if the video has no data.
+	private Path getVideoPath(Video v) throws IOException{
 		assert(v != null);
 		
-		return targetDir_.resolve("video"+v.getId()+".mpg");
+		return store_.getBlob(v.getId());
 	}
 	
 	/**
@@ -74,9 +211,21 @@ public class VideoFileManager {
 	 * @param v
 	 * @return
 	 */
-	public boolean hasVideoData(Video v){
+	public boolean hasVideoData(Video v) throws IOException{
 		Path source = getVideoPath(v);
-		return Files.exists(source);
+		return source != null && Files.exists(source);
+	}
+	
+	/**
+	 * This method returns the SHA-256 digest (or other store specific key)
+	 * of the binary data for the given video, or null if it has no data.
+	 * Videos with the same digest have identical data.
+	 * 
+	 * @param v
+	 * @return
+	 */
+	public String getVideoDataDigest(Video v){
+		return store_.getKey(v.getId());
 	}
 	
 	/**
@@ -91,10 +240,204 @@ public class VideoFileManager {
 	 */
 	public void copyVideoData(Video v, OutputStream out) throws IOException {
 		Path source = getVideoPath(v);
-		if(!Files.exists(source)){
+		if(source == null || !Files.exists(source)){
 			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
 		}
-		Files.copy(source, out);
+		copyVideoData(v, 0, Files.size(source), out);
+	}
+	
+	/**
+	 * This method returns the absolute path of the file that holds the binary
+	 * data for the given video. It is intended for containers that can send
+	 * a file straight from the page cache to a socket (e.g., Tomcat's
+	 * sendfile support) and should not be used to modify the data.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public Path getVideoDataFile(Video v) throws IOException {
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+		return source.toAbsolutePath();
+	}
+	
+	/**
+	 * This method returns the number of bytes of binary data stored for
+	 * the given video. If the video has no data, this method will throw
+	 * a FileNotFoundException.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public long getVideoDataSize(Video v) throws IOException {
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+		return Files.size(source);
+	}
+	
+	/**
+	 * This method returns the time, in milliseconds since the epoch, that
+	 * the binary data for the given video was last written. Together with
+	 * the size, this can be used to build a validator (e.g., an ETag) for
+	 * conditional range requests.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public long getVideoDataLastModified(Video v) throws IOException {
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+		return Files.getLastModifiedTime(source).toMillis();
+	}
+	
+	/**
+	 * This method copies count bytes of the binary data for the given video,
+	 * starting at the given position, to the provided output stream. The
+	 * data is read with positional reads so that a seek in a client's
+	 * player only costs the bytes that were actually requested.
+	 * 
+	 * If the file is shorter than position + count, only the bytes that
+	 * exist are copied. The number of bytes copied is returned.
+	 * 
+	 * @param v
+	 * @param position
+	 * @param count
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	public long copyVideoData(Video v, long position, long count, OutputStream out) throws IOException {
+		assert(position >= 0 && count >= 0);
+		
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+		
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		String cacheKey = getCacheKey(v, source);
+		if(cacheKey != null && cache_.admit(cacheKey)){
+			return copyFromCache(cacheKey, source, Files.size(source), position, count, buffer, out);
+		}
+		
+		try(FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)){
+			ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+			long copied = 0;
+			while(copied < count){
+				wrapped.clear();
+				wrapped.limit((int)Math.min(buffer.length, count - copied));
+				int read = channel.read(wrapped, position + copied);
+				if(read < 0){
+					break;
+				}
+				out.write(buffer, 0, read);
+				copied += read;
+			}
+			return copied;
+		}
+	}
+	
+	/**
+	 * This method returns true if the given video is popular enough that its
+	 * data is served from memory-mapped segments by copyVideoData().
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isVideoDataCached(Video v) throws IOException {
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			return false;
+		}
+		String cacheKey = getCacheKey(v, source);
+		return cacheKey != null && cache_.isAdmitted(cacheKey);
+	}
+	
+	/**
+	 * This method returns the cache of memory-mapped video segments, which can
+	 * be used to read its hit and miss counts, or null if there is no cache.
+	 * 
+	 * @return
+	 */
+	public MappedSegmentCache getSegmentCache() {
+		return cache_;
+	}
+	
+	// The size and modification time are part of the cache key so that a
+	// store that reuses keys never serves a stale mapping
+	private String getCacheKey(Video v, Path source) throws IOException {
+		String key = store_.getKey(v.getId());
+		if(cache_ == null || key == null){
+			return null;
+		}
+		return key+":"+Files.size(source)+":"+Files.getLastModifiedTime(source).toMillis();
+	}
+	
+	// Copies a range of a popular video from its memory-mapped segments. The
+	// mapped pages are copied into the heap buffer, which is then written
+	// straight to the stream, so the data is copied once on its way out.
+	private long copyFromCache(String cacheKey, Path source, long size, long position, long count, 
+			byte[] buffer, OutputStream out) throws IOException {
+		long end = Math.min(position + count, size);
+		long copied = 0;
+		while(position + copied < end){
+			ByteBuffer slice = cache_.slice(cacheKey, source, size, position + copied, end - position - copied);
+			while(slice.hasRemaining()){
+				int n = Math.min(buffer.length, slice.remaining());
+				slice.get(buffer, 0, n);
+				out.write(buffer, 0, n);
+				copied += n;
+			}
+		}
+		return copied;
+	}
+	
+	/**
+	 * This method transfers count bytes of the binary data for the given
+	 * video, starting at the given position, to the provided channel using
+	 * FileChannel.transferTo(). When the target is a socket or file channel,
+	 * the operating system can move the data without copying it through
+	 * the Java heap (e.g., with sendfile on Linux).
+	 * 
+	 * The number of bytes transferred is returned.
+	 * 
+	 * @param v
+	 * @param position
+	 * @param count
+	 * @param target
+	 * @return
+	 * @throws IOException
+	 */
+	public long transferVideoData(Video v, long position, long count, WritableByteChannel target) throws IOException {
+		assert(position >= 0 && count >= 0);
+		
+		Path source = getVideoPath(v);
+		if(source == null || !Files.exists(source)){
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+		
+		try(FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)){
+			long end = Math.min(position + count, channel.size());
+			long transferred = 0;
+			while(position + transferred < end){
+				long sent = channel.transferTo(position + transferred, end - position - transferred, target);
+				if(sent <= 0){
+					break;
+				}
+				transferred += sent;
+			}
+			return transferred;
+		}
 	}
 	
 	/**
@@ -109,8 +452,278 @@ public class VideoFileManager {
 	public void saveVideoData(Video v, InputStream videoData) throws IOException{
 		assert(videoData != null);
 		
-		Path target = getVideoPath(v);
-		Files.copy(videoData, target, StandardCopyOption.REPLACE_EXISTING);
+		store_.store(v.getId(), videoData);
+	}
+	
+	/**
+	 * This method returns a path in the VideoFileManager's working area where
+	 * an upload can be staged before it is committed. The file does not exist
+	 * yet. The path is on the same file system as the stored videos so that
+	 * staged data can be moved into place rather than copied.
+	 * 
+	 * @return
+	 */
+	public Path newStagingPath(){
+		return uploadDir_.resolve(UUID.randomUUID().toString()+".staged").toAbsolutePath();
+	}
+	
+	/**
+	 * This method makes a completely written staged file (see newStagingPath())
+	 * the binary data for the given video. The file is moved into the store
+	 * rather than copied.
+	 * 
+	 * @param v
+	 * @param staged
+	 * @throws IOException
+	 */
+	public void commitStagedVideoData(Video v, Path staged) throws IOException{
+		store_.adopt(v.getId(), staged);
+	}
+	
+	/**
+	 * This method sets the limits on resumable uploads. Each session holds
+	 * an open file and a partial file of up to maxLength bytes, so both the
+	 * length of an upload and the number of open sessions, for each video
+	 * and in total, are bounded. Sessions that nothing has written to or
+	 * asked about for idleTimeoutMs are closed and their partial files are
+	 * deleted.
+	 * 
+	 * @param maxLength
+	 * @param maxSessions
+	 * @param maxSessionsPerVideo
+	 * @param idleTimeoutMs
+	 */
+	public void setUploadLimits(long maxLength, int maxSessions, int maxSessionsPerVideo, long idleTimeoutMs) {
+		if(maxLength < 0 || maxSessions < 1 || maxSessionsPerVideo < 1 || idleTimeoutMs < 0){
+			throw new IllegalArgumentException("Invalid upload limits");
+		}
+		maxUploadLength_ = maxLength;
+		maxUploadSessions_ = maxSessions;
+		maxUploadSessionsPerVideo_ = maxSessionsPerVideo;
+		uploadSessionTimeoutNanos_ = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+	}
+	
+	/**
+	 * This method returns the largest number of bytes that can be sent
+	 * with a resumable upload.
+	 * 
+	 * @return
+	 */
+	public long getMaxUploadLength() {
+		return maxUploadLength_;
+	}
+	
+	/**
+	 * This method opens a resumable upload of length bytes of binary data for
+	 * the given video. A partial file of the full length is allocated up front
+	 * and each chunk is later written straight into its place in that file.
+	 * 
+	 * Idle sessions are expired first. A TooManyUploadsException is thrown if
+	 * the video or the server still has as many open sessions as allowed.
+	 * 
+	 * @param v
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 * @throws TooManyUploadsException
+	 */
+	public UploadSession openUploadSession(Video v, long length) throws IOException, TooManyUploadsException {
+		return openUploadSession(v, length, null);
+	}
+	
+	/**
+	 * This method opens a resumable upload like openUploadSession(v, length)
+	 * for a client that claims that the data has the given SHA-256 digest.
+	 * The session then carries an OwnershipChallenge and, if the client
+	 * answers it with proveUploadOwnership(), the video is linked to data
+	 * with that digest that is already stored and nothing is uploaded. An
+	 * invalid digest is ignored.
+	 * 
+	 * @param v
+	 * @param length
+	 * @param digest
+	 * @return
+	 * @throws IOException
+	 * @throws TooManyUploadsException
+	 */
+	public UploadSession openUploadSession(Video v, long length, String digest) 
+			throws IOException, TooManyUploadsException {
+		if(length < 0 || length > maxUploadLength_){
+			throw new IllegalArgumentException("The length of an upload must be between 0 and "
+					+maxUploadLength_+": "+length);
+		}
+		expireUploadSessions();
+		
+		synchronized(uploadsLock_){
+			if(uploads_.size() >= maxUploadSessions_){
+				throw new TooManyUploadsException("There are already "+uploads_.size()+" open upload sessions");
+			}
+			int forVideo = 0;
+			for(UploadSession open : uploads_.values()){
+				if(open.getVideoId() == v.getId()){
+					forVideo++;
+				}
+			}
+			if(forVideo >= maxUploadSessionsPerVideo_){
+				throw new TooManyUploadsException("There are already "+forVideo
+						+" open upload sessions for videoId:"+v.getId());
+			}
+			String id = UUID.randomUUID().toString();
+			UploadSession session = new UploadSession(id, v.getId(), length, uploadDir_.resolve(id+".part"));
+			if(digest != null && ContentAddressedBlobStore.isDigest(digest)){
+				session.setChallenge(OwnershipChallenge.issue(digest, length));
+			}
+			uploads_.put(id, session);
+			return session;
+		}
+	}
+	
+	/**
+	 * This method checks the client's answer to the upload session's
+	 * OwnershipChallenge. If it is right, the video is linked to the stored
+	 * data with the digest that the client claimed, the session is closed
+	 * and the size of the stored data is returned. Otherwise, -1 is returned
+	 * and the client has to upload the data through the session as usual.
+	 * The challenge can only be answered once.
+	 * 
+	 * @param v
+	 * @param session
+	 * @param proof
+	 * @return
+	 * @throws IOException
+	 */
+	public long proveUploadOwnership(Video v, UploadSession session, String proof) throws IOException {
+		if(session.getVideoId() != v.getId()){
+			throw new IllegalArgumentException("Upload session "+session.getId()+" is not for videoId:"+v.getId());
+		}
+		OwnershipChallenge challenge = session.takeChallenge();
+		if(challenge == null){
+			return -1;
+		}
+		Path blob = store_.getBlobByKey(challenge.getDigest());
+		if(blob == null || !challenge.isAnsweredBy(blob, proof)){
+			return -1;
+		}
+		if(!store_.link(v.getId(), challenge.getDigest())){
+			return -1;
+		}
+		long size = Files.size(blob);
+		abortUploadSession(session);
+		return size;
+	}
+	
+	/**
+	 * This method returns the open upload session with the given id or null
+	 * if there isn't one (e.g., it was committed, aborted or expired).
+	 * 
+	 * @param sessionId
+	 * @return
+	 * @throws IOException
+	 */
+	public UploadSession getUploadSession(String sessionId) throws IOException {
+		UploadSession session = uploads_.get(sessionId);
+		if(session == null){
+			return null;
+		}
+		if(session.isIdle(System.nanoTime(), uploadSessionTimeoutNanos_)){
+			expireUploadSession(session);
+			return null;
+		}
+		session.touch();
+		return session;
+	}
+	
+	/**
+	 * This method closes every upload session that has been idle for longer
+	 * than the session timeout and deletes its partial file. It is called
+	 * whenever a session is opened and returns the number of sessions that
+	 * were expired.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int expireUploadSessions() throws IOException {
+		long now = System.nanoTime();
+		int expired = 0;
+		for(UploadSession session : uploads_.values()){
+			if(session.isIdle(now, uploadSessionTimeoutNanos_) && expireUploadSession(session)){
+				expired++;
+			}
+		}
+		return expired;
+	}
+	
+	private boolean expireUploadSession(UploadSession session) throws IOException {
+		if(!uploads_.remove(session.getId(), session)){
+			return false;
+		}
+		session.close();
+		Files.deleteIfExists(session.getPartFile());
+		return true;
+	}
+	
+	/**
+	 * This method returns the number of upload sessions that are open.
+	 * 
+	 * @return
+	 */
+	public int getUploadSessionCount() {
+		return uploads_.size();
+	}
+	
+	/**
+	 * This method writes count bytes from the provided InputStream into the
+	 * upload session at the given offset and returns the number of bytes
+	 * that were written.
+	 * 
+	 * @param session
+	 * @param offset
+	 * @param count
+	 * @param chunk
+	 * @return
+	 * @throws IOException
+	 */
+	public long writeUploadChunk(UploadSession session, long offset, long count, InputStream chunk) throws IOException {
+		return session.write(offset, count, chunk);
+	}
+	
+	/**
+	 * This method finishes an upload session once every byte has been received.
+	 * The partial file is handed to the blob store, which flushes it to disk
+	 * and moves it into place without copying it, so readers see either
+	 * the old data or the complete new data and never a partially written
+	 * file.
+	 * 
+	 * @param v
+	 * @param session
+	 * @throws IOException
+	 */
+	public void commitUploadSession(Video v, UploadSession session) throws IOException {
+		if(session.getVideoId() != v.getId()){
+			throw new IllegalArgumentException("Upload session "+session.getId()+" is not for videoId:"+v.getId());
+		}
+		if(!session.isComplete()){
+			throw new IllegalStateException("Upload session "+session.getId()+" has only received "
+					+session.getReceivedBytes()+" of "+session.getLength()+" bytes");
+		}
+		if(!uploads_.remove(session.getId(), session)){
+			throw new IllegalStateException("Upload session "+session.getId()+" is no longer open");
+		}
+		
+		session.close();
+		store_.adopt(v.getId(), session.getPartFile());
+	}
+	
+	/**
+	 * This method discards an upload session and its partial file.
+	 * 
+	 * @param session
+	 * @throws IOException
+	 */
+	public void abortUploadSession(UploadSession session) throws IOException {
+		uploads_.remove(session.getId(), session);
+		session.close();
+		Files.deleteIfExists(session.getPartFile());
 	}
 	
 }
@@ -0,0 +1,186 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.magnum.dataup.model.Video;
+
+/**
+ * An in-memory store for the metadata of videos. Ids are allocated from
+ * an AtomicLong sequence, so they are dense, and each video is kept in a
+ * slot of a paged array that is indexed directly by its id. Looking up a
+ * video is two array reads, ids are never boxed, and adding a video never
+ * copies the videos that are already stored (unlike a
+ * CopyOnWriteArrayList). Neither reads nor writes take a lock: the only
+ * contended operations are the increment of the id sequence and the CAS
+ * that installs a new page.
+ * 
+ * @author jules
+ *
+ */
+public class VideoRepository {
+
+	// Each page holds 2^PAGE_BITS videos
+	private static final int PAGE_BITS = 14;
+
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// Enough pages for about a billion videos. Only the references to the
+	// pages are allocated up front.
+	private static final int MAX_PAGES = 1 << 16;
+
+	public static final long MAX_ID = (long) MAX_PAGES * PAGE_SIZE - 1;
+
+	private final AtomicLong currentId_ = new AtomicLong(0L);
+
+	private final AtomicReferenceArray<AtomicReferenceArray<Video>> pages_ = 
+			new AtomicReferenceArray<AtomicReferenceArray<Video>>(MAX_PAGES);
+
+	/**
+	 * Gives the video the next id from the sequence and stores it. Any id
+	 * that the video already had is replaced.
+	 * 
+	 * @param v
+	 * @return the video
+	 * @throws IllegalStateException
+	 *             if the store is full
+	 */
+	public Video add(Video v) {
+		v.setId(allocateId());
+		return put(v);
+	}
+
+	/**
+	 * Hands out the next id from the sequence without storing anything
+	 * under it yet. This lets a caller finish filling in a video that
+	 * depends on its id (such as its data url) before the video becomes
+	 * visible to readers through {@link #put(Video)}. Until then, lookups of
+	 * the id return null.
+	 * 
+	 * @return the id
+	 * @throws IllegalStateException
+	 *             if the store is full
+	 */
+	public long allocateId() {
+		long id = currentId_.incrementAndGet();
+		if (id > MAX_ID) {
+			throw new IllegalStateException("The video store is full");
+		}
+		return id;
+	}
+
+	/**
+	 * Stores the video under its id, which must have come from
+	 * {@link #allocateId()}.
+	 * 
+	 * @param v
+	 * @return the video
+	 * @throws IllegalArgumentException
+	 *             if the id of the video has not been handed out
+	 */
+	public Video put(Video v) {
+		long id = v.getId();
+		if (id <= 0 || id > currentId_.get()) {
+			throw new IllegalArgumentException("The id " + id + " has not been allocated");
+		}
+		getOrCreatePage(id).set(slot(id), v);
+		return v;
+	}
+
+	/**
+	 * Returns the video with the given id, or null if there is none.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public Video get(long id) {
+		if (id <= 0 || id > currentId_.get()) {
+			return null;
+		}
+		AtomicReferenceArray<Video> page = pages_.get(page(id));
+		return (page != null) ? page.get(slot(id)) : null;
+	}
+
+	public boolean contains(long id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Returns the videos in the order that they were added. Videos that are
+	 * added while the list is being built may or may not be included.
+	 * 
+	 * @return
+	 */
+	public Collection<Video> findAll() {
+		long last = currentId_.get();
+		Collection<Video> videos = new ArrayList<Video>((int) Math.min(last, 64 * PAGE_SIZE));
+		for (long id = 1; id <= last; id += PAGE_SIZE - slot(id)) {
+			AtomicReferenceArray<Video> page = pages_.get(page(id));
+			if (page == null) {
+				continue;
+			}
+			int end = (int) Math.min(PAGE_SIZE - 1, slot(id) + (last - id));
+			for (int i = slot(id); i <= end; i++) {
+				Video v = page.get(i);
+				// A slot can still be empty if its id was just handed out
+				if (v != null) {
+					videos.add(v);
+				}
+			}
+		}
+		return videos;
+	}
+
+	/**
+	 * Returns the number of ids that have been handed out.
+	 * 
+	 * @return
+	 */
+	public long size() {
+		return currentId_.get();
+	}
+
+	private AtomicReferenceArray<Video> getOrCreatePage(long id) {
+		int index = page(id);
+		AtomicReferenceArray<Video> page = pages_.get(index);
+		if (page == null) {
+			AtomicReferenceArray<Video> fresh = new AtomicReferenceArray<Video>(PAGE_SIZE);
+			if (pages_.compareAndSet(index, null, fresh)) {
+				page = fresh;
+			} else {
+				page = pages_.get(index);
+			}
+		}
+		return page;
+	}
+
+	private static int page(long id) {
+		return (int) (id >>> PAGE_BITS);
+	}
+
+	private static int slot(long id) {
+		return (int) (id & PAGE_MASK);
+	}
+
+}
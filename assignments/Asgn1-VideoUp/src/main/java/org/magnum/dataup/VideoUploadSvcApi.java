@@ -0,0 +1,148 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.util.Map;
+
+import org.magnum.dataup.model.UploadStatus;
+import org.magnum.dataup.model.VideoStatus;
+
+import retrofit.http.Body;
+import retrofit.http.DELETE;
+import retrofit.http.GET;
+import retrofit.http.POST;
+import retrofit.http.PUT;
+import retrofit.http.Path;
+import retrofit.http.Query;
+import retrofit.mime.TypedOutput;
+
+/**
+ * This interface defines a resumable, chunked alternative to
+ * VideoSvcApi.setVideoData(). It is meant for clients on unreliable
+ * connections that can't afford to resend a whole video when an upload
+ * is interrupted.
+ * 
+ * POST /video/{id}/data/uploads?length=N[&sha256=D]
+ *   - Opens an upload session for N bytes of video data and returns its
+ *     UploadStatus, which includes the session id. If the client passes
+ *     the SHA-256 digest D of the data, the status also carries an
+ *     ownership challenge: a nonce and a range of the data. Returns a 413 if N is larger than the
+ *     server accepts (150MB by default) and a 503 with a Retry-After
+ *     header while too many sessions are open for the video or the server.
+ *     Sessions that are left idle (30 minutes by default) are discarded.
+ *     
+ * PUT /video/{id}/data/uploads/{session}?offset=N
+ *   - Writes the raw request body (application/octet-stream) into the
+ *     video at byte offset N. Chunks may be sent in any order and may
+ *     be resent. Returns a 410 if the session is committed, aborted or
+ *     discarded while the chunk is being written.
+ *     
+ * POST /video/{id}/data/uploads/{session}/proof?proof=P
+ *   - Answers the session's ownership challenge with P, the hex SHA-256
+ *     digest of the nonce followed by the bytes in the challenge range.
+ *     If the server already stores data with digest D and P is right, the
+ *     video is linked to that data and the session is closed. The returned
+ *     status is complete and reports the size of the stored data, and
+ *     there is nothing to upload or commit. Otherwise, a 403 is returned
+ *     and the data has to be uploaded. A challenge can be answered once.
+ *     
+ * GET /video/{id}/data/uploads/{session}
+ *   - Returns the UploadStatus, including the ranges received so far.
+ *   
+ * POST /video/{id}/data/uploads/{session}/commit
+ *   - Makes the uploaded data the video's data once every byte has been
+ *     received. Returns a 409 if some ranges are still missing.
+ *     
+ * DELETE /video/{id}/data/uploads/{session}
+ *   - Abandons the upload and discards the data received so far.
+ *   
+ * GET /video/{id}/status[?wait=MS]
+ *   - Returns the VideoStatus of the video's data: PROCESSING while an
+ *     upload sent to POST /video/{id}/data is still being ingested, READY
+ *     once the data can be downloaded, or a 404 if there is no data. With
+ *     a wait parameter, the server holds the request for up to MS
+ *     milliseconds (capped by the server) until the video is READY.
+ *     
+ * GET /video/bandwidth
+ *   - Returns the current throughput, in bytes per second, of each of the
+ *     server's bandwidth buckets (per connection, per user and per node)
+ *     that is in use, keyed by the bucket's name.
+ * 
+ * @author jules
+ *
+ */
+public interface VideoUploadSvcApi {
+
+	public static final String LENGTH_PARAMETER = "length";
+
+	public static final String DIGEST_PARAMETER = "sha256";
+
+	public static final String WAIT_PARAMETER = "wait";
+
+	public static final String OFFSET_PARAMETER = "offset";
+
+	public static final String SESSION_PARAMETER = "session";
+
+	public static final String PROOF_PARAMETER = "proof";
+
+	public static final String VIDEO_STATUS_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/{id}/status";
+
+	public static final String VIDEO_UPLOADS_PATH = VideoSvcApi.VIDEO_DATA_PATH + "/uploads";
+
+	public static final String VIDEO_UPLOAD_SESSION_PATH = VIDEO_UPLOADS_PATH + "/{session}";
+
+	public static final String VIDEO_UPLOAD_COMMIT_PATH = VIDEO_UPLOAD_SESSION_PATH + "/commit";
+
+	public static final String VIDEO_UPLOAD_PROOF_PATH = VIDEO_UPLOAD_SESSION_PATH + "/proof";
+
+	public static final String VIDEO_BANDWIDTH_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/bandwidth";
+
+	@POST(VIDEO_UPLOADS_PATH)
+	public UploadStatus openUpload(@Path(VideoSvcApi.ID_PARAMETER) long id, @Query(LENGTH_PARAMETER) long length);
+
+	@POST(VIDEO_UPLOADS_PATH)
+	public UploadStatus openUpload(@Path(VideoSvcApi.ID_PARAMETER) long id, @Query(LENGTH_PARAMETER) long length,
+			@Query(DIGEST_PARAMETER) String sha256);
+
+	@PUT(VIDEO_UPLOAD_SESSION_PATH)
+	public UploadStatus uploadChunk(@Path(VideoSvcApi.ID_PARAMETER) long id, @Path(SESSION_PARAMETER) String session,
+			@Query(OFFSET_PARAMETER) long offset, @Body TypedOutput chunk);
+
+	@POST(VIDEO_UPLOAD_PROOF_PATH)
+	public UploadStatus proveOwnership(@Path(VideoSvcApi.ID_PARAMETER) long id, @Path(SESSION_PARAMETER) String session,
+			@Query(PROOF_PARAMETER) String proof);
+
+	@GET(VIDEO_UPLOAD_SESSION_PATH)
+	public UploadStatus getUploadStatus(@Path(VideoSvcApi.ID_PARAMETER) long id, @Path(SESSION_PARAMETER) String session);
+
+	@POST(VIDEO_UPLOAD_COMMIT_PATH)
+	public VideoStatus commitUpload(@Path(VideoSvcApi.ID_PARAMETER) long id, @Path(SESSION_PARAMETER) String session);
+
+	@DELETE(VIDEO_UPLOAD_SESSION_PATH)
+	public UploadStatus abortUpload(@Path(VideoSvcApi.ID_PARAMETER) long id, @Path(SESSION_PARAMETER) String session);
+
+	@GET(VIDEO_STATUS_PATH)
+	public VideoStatus getVideoStatus(@Path(VideoSvcApi.ID_PARAMETER) long id);
+
+	@GET(VIDEO_STATUS_PATH)
+	public VideoStatus getVideoStatus(@Path(VideoSvcApi.ID_PARAMETER) long id, @Query(WAIT_PARAMETER) long waitMs);
+
+	@GET(VIDEO_BANDWIDTH_PATH)
+	public Map<String, Long> getBandwidth();
+
+}
@@ -0,0 +1,112 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of a resumable, chunked upload of a video's binary data. The
+ * received ranges are inclusive byte ranges written as "first-last" (the
+ * same notation as an HTTP Range header), so a client that lost its
+ * connection can work out which chunks it still has to send.
+ * 
+ * If the client sent the digest of the data when it opened the upload,
+ * the status carries an ownership challenge: the SHA-256 digest of the
+ * nonce followed by the bytes in the challenge range (if any) proves that
+ * the client has the data (see OwnershipChallenge).
+ * 
+ * @author jules
+ *
+ */
+public class UploadStatus {
+
+	private String sessionId;
+	private long videoId;
+	private long length;
+	private long receivedBytes;
+	private List<String> receivedRanges = new ArrayList<String>();
+	private boolean complete;
+	private String challengeNonce;
+	private String challengeRange;
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public void setSessionId(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public long getVideoId() {
+		return videoId;
+	}
+
+	public void setVideoId(long videoId) {
+		this.videoId = videoId;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	public long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	public void setReceivedBytes(long receivedBytes) {
+		this.receivedBytes = receivedBytes;
+	}
+
+	public List<String> getReceivedRanges() {
+		return receivedRanges;
+	}
+
+	public void setReceivedRanges(List<String> receivedRanges) {
+		this.receivedRanges = receivedRanges;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public String getChallengeNonce() {
+		return challengeNonce;
+	}
+
+	public void setChallengeNonce(String challengeNonce) {
+		this.challengeNonce = challengeNonce;
+	}
+
+	public String getChallengeRange() {
+		return challengeRange;
+	}
+
+	public void setChallengeRange(String challengeRange) {
+		this.challengeRange = challengeRange;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.magnum.dataup.BandwidthLimiter.Direction;
+
+/**
+ * Checks that TokenBucket lets a burst through right away and then paces
+ * reservations to its rate, and that the streams wrapped by a
+ * BandwidthLimiter pass their data through unchanged while drawing from
+ * the per-connection and per-user buckets.
+ * 
+ * @author jules
+ *
+ */
+public class BandwidthLimiterTest {
+
+	private static final int KB = 1024;
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testBucketAllowsBurst() {
+		TokenBucket bucket = new TokenBucket("test", 1000, 100);
+		assertEquals(0, bucket.reserve(100));
+		assertEquals(100, bucket.getTotalBytes());
+	}
+
+	@Test
+	public void testBucketPacesAfterBurst() {
+		TokenBucket bucket = new TokenBucket("test", 1000, 100);
+		bucket.reserve(100);
+		// 100 more bytes at 1000 bytes/s are due 100ms from now
+		long wait = bucket.reserve(100);
+		assertTrue("waited " + wait, wait > 90 * MS && wait <= 100 * MS);
+		// Reservations add up even though nobody has waited yet
+		wait = bucket.reserve(100);
+		assertTrue("waited " + wait, wait > 190 * MS && wait <= 200 * MS);
+	}
+
+	@Test
+	public void testIdleBucketRefills() throws Exception {
+		TokenBucket bucket = new TokenBucket("test", 10000, 100);
+		bucket.reserve(100);
+		Thread.sleep(20);
+		assertEquals(0, bucket.reserve(100));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBucketNeedsRate() {
+		new TokenBucket("test", 0, 100);
+	}
+
+	@Test
+	public void testNoLimits() {
+		BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 0);
+		assertFalse(limiter.isLimiting(Direction.UPLOAD));
+		assertFalse(limiter.isLimiting(Direction.DOWNLOAD));
+		InputStream in = new ByteArrayInputStream(new byte[1]);
+		OutputStream out = new ByteArrayOutputStream();
+		assertSame(in, limiter.throttle(in, "alice"));
+		assertSame(out, limiter.throttle(out, "alice"));
+		assertTrue(limiter.getThroughput().isEmpty());
+	}
+
+	@Test
+	public void testNodeLimitOnlyAppliesToItsDirection() {
+		BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 1000 * KB);
+		assertTrue(limiter.isLimiting(Direction.UPLOAD));
+		assertTrue(limiter.isLimiting(Direction.DOWNLOAD));
+		assertTrue(limiter.getThroughput().containsKey("node.upload"));
+		assertTrue(limiter.getThroughput().containsKey("node.download"));
+	}
+
+	@Test
+	public void testConnectionLimitPacesUpload() throws Exception {
+		// 256KB/s allows a 64KB burst, so the second 64KB takes 250ms
+		BandwidthLimiter limiter = new BandwidthLimiter(256 * KB, 0, 0);
+		byte[] data = randomBytes(128 * KB);
+		long start = System.nanoTime();
+		try (InputStream in = limiter.throttle(new ByteArrayInputStream(data), "alice")) {
+			assertTrue(limiter.getThroughput().containsKey("connection.upload.1"));
+			assertArrayEquals(data, readAll(in));
+		}
+		assertTrue(System.nanoTime() - start >= 200 * MS);
+		// The connection's bucket goes away with the connection
+		assertFalse(limiter.getThroughput().containsKey("connection.upload.1"));
+	}
+
+	@Test
+	public void testConnectionLimitPacesDownload() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter(256 * KB, 0, 0);
+		byte[] data = randomBytes(128 * KB);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		long start = System.nanoTime();
+		try (OutputStream out = limiter.throttle(target, "alice")) {
+			out.write(data);
+		}
+		assertTrue(System.nanoTime() - start >= 200 * MS);
+		assertArrayEquals(data, target.toByteArray());
+	}
+
+	@Test
+	public void testUserLimitIsShared() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter(0, 256 * KB, 0);
+		byte[] data = randomBytes(64 * KB);
+
+		// Bob's transfer has its own burst and doesn't wait
+		long start = System.nanoTime();
+		readAll(limiter.throttle(new ByteArrayInputStream(data), "alice"));
+		readAll(limiter.throttle(new ByteArrayInputStream(data), "bob"));
+		assertTrue(System.nanoTime() - start < 200 * MS);
+
+		// Alice's second transfer shares her first one's bucket
+		readAll(limiter.throttle(new ByteArrayInputStream(data), "alice"));
+		assertTrue(System.nanoTime() - start >= 200 * MS);
+		assertTrue(limiter.getThroughput().containsKey("user.upload.alice"));
+		assertTrue(limiter.getThroughput().containsKey("user.upload.bob"));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8 * KB];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.magnum.dataup.ByteRange.UnsatisfiableRangeException;
+
+/**
+ * Checks how ByteRange parses Range headers against a resource of 1000
+ * bytes: which ranges are satisfiable, how they are clamped to the
+ * resource, how overlapping and adjacent ranges are coalesced, and which
+ * headers are ignored so that the whole entity is served instead.
+ * 
+ * @author jules
+ *
+ */
+public class ByteRangeTest {
+
+	private static final long LENGTH = 1000;
+
+	@Test
+	public void testSingleRange() throws Exception {
+		assertRanges("bytes=0-499", "0-499");
+		assertRanges("bytes=500-999", "500-999");
+		assertRanges(" Bytes = 10 - 20 ", "10-20");
+	}
+
+	@Test
+	public void testOpenEndedRange() throws Exception {
+		assertRanges("bytes=900-", "900-999");
+	}
+
+	@Test
+	public void testSuffixRange() throws Exception {
+		assertRanges("bytes=-100", "900-999");
+		// A suffix longer than the resource is the whole resource
+		assertRanges("bytes=-5000", "0-999");
+	}
+
+	@Test
+	public void testRangesAreClampedToTheResource() throws Exception {
+		assertRanges("bytes=990-2000", "990-999");
+	}
+
+	@Test
+	public void testUnsatisfiableRangesAreDropped() throws Exception {
+		assertRanges("bytes=2000-3000,0-9", "0-9");
+		assertRanges("bytes=-0,5-5", "5-5");
+	}
+
+	@Test
+	public void testOverlappingAndAdjacentRangesAreCoalesced() throws Exception {
+		assertRanges("bytes=0-99,50-149", "0-149");
+		assertRanges("bytes=0-99,100-199", "0-199");
+		assertRanges("bytes=0-9,200-299,5-20,-10", "0-20", "200-299", "990-999");
+	}
+
+	@Test
+	public void testRangesAreSorted() throws Exception {
+		assertRanges("bytes=500-599,0-99", "0-99", "500-599");
+	}
+
+	@Test
+	public void testIgnoredHeaders() throws Exception {
+		// Each of these is served as the whole entity with a 200
+		assertRanges(null);
+		assertRanges("bytes");
+		assertRanges("items=0-10");
+		assertRanges("bytes=10");
+		assertRanges("bytes=-");
+		assertRanges("bytes=a-b");
+		assertRanges("bytes=20-10");
+		assertRanges("bytes=0-1,2-3,4-5,6-7,8-9,10-11,12-13,14-15,16-17,18-19,"
+				+ "20-21,22-23,24-25,26-27,28-29,30-31,32-33");
+	}
+
+	@Test
+	public void testMaxRangesIsAllowed() throws Exception {
+		StringBuilder header = new StringBuilder("bytes=");
+		for(int i = 0; i < ByteRange.MAX_RANGES; i++) {
+			header.append(i == 0 ? "" : ",").append(i * 10).append('-').append(i * 10 + 1);
+		}
+		assertEquals(ByteRange.MAX_RANGES, ByteRange.parse(header.toString(), LENGTH).size());
+	}
+
+	@Test(expected = UnsatisfiableRangeException.class)
+	public void testRangePastTheEndIsUnsatisfiable() throws Exception {
+		ByteRange.parse("bytes=1000-1100", LENGTH);
+	}
+
+	@Test(expected = UnsatisfiableRangeException.class)
+	public void testEmptyResourceIsUnsatisfiable() throws Exception {
+		ByteRange.parse("bytes=-10", 0);
+	}
+
+	@Test
+	public void testContentRange() throws Exception {
+		ByteRange range = ByteRange.parse("bytes=100-199", LENGTH).get(0);
+		assertEquals(100, range.getLength());
+		assertEquals("bytes 100-199/1000", range.toContentRange(LENGTH));
+		assertEquals("bytes */1000", ByteRange.unsatisfiedContentRange(LENGTH));
+	}
+
+	private void assertRanges(String header, String... expected) throws Exception {
+		List<ByteRange> ranges = ByteRange.parse(header, LENGTH);
+		assertEquals(header, expected.length, ranges.size());
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(header, expected[i], ranges.get(i).toString());
+		}
+		assertTrue(ranges.size() <= ByteRange.MAX_RANGES);
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the ContentAddressedBlobStore keeps identical data once,
+ * counts the videos that refer to each blob, and cleans up the temp files
+ * and unreferenced blobs that a crash can leave behind when it is
+ * reopened.
+ * 
+ * @author jules
+ *
+ */
+public class ContentAddressedBlobStoreTest {
+
+	private Path root;
+
+	private ContentAddressedBlobStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("blob-store-test");
+		store = open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testIdenticalDataIsStoredOnce() throws Exception {
+		byte[] data = randomBytes(1000, 1);
+		String digest = store(1, data);
+		assertEquals(digest, store(2, data));
+		assertEquals(2, store.getReferenceCount(digest));
+		assertEquals(store.getBlob(1), store.getBlob(2));
+		assertArrayEquals(data, Files.readAllBytes(store.getBlob(1)));
+
+		// Nothing but the blob is left in the store's temp directory
+		assertEquals(0, countFiles(root.resolve("tmp")));
+	}
+
+	@Test
+	public void testLastReleaseDeletesBlob() throws Exception {
+		String digest = store(1, randomBytes(1000, 1));
+		store(2, randomBytes(1000, 1));
+		Path blob = store.getBlobByKey(digest);
+		assertNotNull(blob);
+
+		store.remove(1);
+		assertTrue(Files.exists(blob));
+		// Replacing the data of the last video releases the old blob
+		store(2, randomBytes(1000, 2));
+		assertFalse(Files.exists(blob));
+		assertEquals(0, store.getReferenceCount(digest));
+		assertNull(store.getBlobByKey(digest));
+	}
+
+	@Test
+	public void testLink() throws Exception {
+		String digest = store(1, randomBytes(1000, 1));
+		assertTrue(store.link(2, digest));
+		assertEquals(2, store.getReferenceCount(digest));
+		assertFalse(store.link(3, "not a digest"));
+		assertFalse(store.link(3, digest.replace(digest.charAt(0), digest.charAt(0) == 'a' ? 'b' : 'a')));
+		assertNull(store.getKey(3));
+	}
+
+	@Test
+	public void testIndexSurvivesRestart() throws Exception {
+		String digest = store(1, randomBytes(1000, 1));
+		store(2, randomBytes(1000, 1));
+		store.remove(2);
+
+		ContentAddressedBlobStore reopened = open();
+		assertEquals(digest, reopened.getKey(1));
+		assertNull(reopened.getKey(2));
+		assertEquals(1, reopened.getReferenceCount(digest));
+	}
+
+	@Test
+	public void testRestartDeletesLeftovers() throws Exception {
+		String digest = store(1, randomBytes(1000, 1));
+		Path tmp = Files.createTempFile(root.resolve("tmp"), "blob", ".tmp");
+
+		// A blob that was moved into place but never logged
+		byte[] unlogged = randomBytes(1000, 2);
+		String orphan = store(2, unlogged);
+		Path orphanBlob = store.getBlobByKey(orphan);
+		Files.copy(orphanBlob, root.resolve("copy"));
+		store.remove(2);
+		Files.move(root.resolve("copy"), orphanBlob);
+
+		ContentAddressedBlobStore reopened = open();
+		assertFalse(Files.exists(tmp));
+		assertFalse(Files.exists(orphanBlob));
+		assertNotNull(reopened.getBlobByKey(digest));
+	}
+
+	private ContentAddressedBlobStore open() throws IOException {
+		return new ContentAddressedBlobStore(root, new FileSyncer(FileSyncer.Mode.NONE, 0));
+	}
+
+	private String store(long videoId, byte[] data) throws IOException {
+		return store.store(videoId, new ByteArrayInputStream(data));
+	}
+
+	private static int countFiles(Path dir) throws IOException {
+		int count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+}
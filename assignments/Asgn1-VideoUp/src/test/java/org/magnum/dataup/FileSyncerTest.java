@@ -0,0 +1,194 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Checks how often the FileSyncer actually flushes in each of its modes,
+ * that concurrent requests to flush the same target share a flush in
+ * GROUP mode, and that a failed flush is retried by a waiting thread.
+ * 
+ * @author jules
+ *
+ */
+public class FileSyncerTest {
+
+	private static final Path TARGET = Paths.get("target");
+
+	// Counts its runs and can hold the first one until it is released
+	private static class CountingAction implements FileSyncer.SyncAction {
+
+		private final AtomicInteger runs_ = new AtomicInteger();
+
+		private final CountDownLatch entered_ = new CountDownLatch(1);
+
+		private final CountDownLatch release_;
+
+		private volatile boolean failFirst_;
+
+		CountingAction(boolean hold) {
+			release_ = new CountDownLatch(hold ? 1 : 0);
+		}
+
+		@Override
+		public void sync() throws IOException {
+			int run = runs_.incrementAndGet();
+			if (run == 1) {
+				entered_.countDown();
+				try {
+					release_.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				if (failFirst_) {
+					throw new IOException("The disk is unhappy");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNoneNeverSyncs() throws Exception {
+		FileSyncer syncer = new FileSyncer(FileSyncer.Mode.NONE, 0);
+		CountingAction action = new CountingAction(false);
+		syncer.sync(TARGET, action);
+		assertEquals(0, action.runs_.get());
+		assertEquals(0, syncer.getRequestCount());
+		assertEquals(0, syncer.getSyncCount());
+	}
+
+	@Test
+	public void testImmediateSyncsEveryTime() throws Exception {
+		FileSyncer syncer = new FileSyncer(FileSyncer.Mode.IMMEDIATE, 0);
+		CountingAction action = new CountingAction(false);
+		for (int i = 0; i < 3; i++) {
+			syncer.sync(TARGET, action);
+		}
+		assertEquals(3, action.runs_.get());
+		assertEquals(3, syncer.getRequestCount());
+		assertEquals(3, syncer.getSyncCount());
+	}
+
+	@Test
+	public void testGroupSharesSyncs() throws Exception {
+		final FileSyncer syncer = new FileSyncer(FileSyncer.Mode.GROUP, 0);
+		final CountingAction action = new CountingAction(true);
+		ExecutorService threads = Executors.newFixedThreadPool(9);
+		try {
+			Future<Void> leader = threads.submit(sync(syncer, action));
+			action.entered_.await();
+
+			// Everyone who asks while the leader's flush is running shares
+			// the next flush
+			List<Future<Void>> followers = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 8; i++) {
+				followers.add(threads.submit(sync(syncer, action)));
+			}
+			while (syncer.getRequestCount() < 9) {
+				Thread.sleep(1);
+			}
+			action.release_.countDown();
+
+			leader.get(10, TimeUnit.SECONDS);
+			for (Future<Void> f : followers) {
+				f.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			threads.shutdown();
+		}
+		assertEquals(9, syncer.getRequestCount());
+		assertEquals(2, syncer.getSyncCount());
+		assertEquals(2, action.runs_.get());
+	}
+
+	@Test
+	public void testFailedGroupSyncIsRetried() throws Exception {
+		final FileSyncer syncer = new FileSyncer(FileSyncer.Mode.GROUP, 0);
+		final CountingAction action = new CountingAction(true);
+		action.failFirst_ = true;
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			Future<Void> leader = threads.submit(sync(syncer, action));
+			action.entered_.await();
+			Future<Void> follower = threads.submit(sync(syncer, action));
+			while (syncer.getRequestCount() < 2) {
+				Thread.sleep(1);
+			}
+			action.release_.countDown();
+
+			try {
+				leader.get(10, TimeUnit.SECONDS);
+				fail("The thread whose flush failed wasn't told");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			// The follower's data is only durable after a flush that worked
+			follower.get(10, TimeUnit.SECONDS);
+		} finally {
+			threads.shutdown();
+		}
+		assertEquals(2, action.runs_.get());
+	}
+
+	@Test
+	public void testSyncFileAndDirectory() throws Exception {
+		Path dir = Files.createTempDirectory("file-syncer-test");
+		Path file = Files.write(dir.resolve("video.mpg"), new byte[] { 1, 2, 3 });
+		try {
+			FileSyncer syncer = new FileSyncer(FileSyncer.Mode.GROUP, 100);
+			syncer.syncFile(file);
+			syncer.syncDirectory(dir);
+			assertEquals(1, syncer.getRequestCount());
+			assertEquals(1, syncer.getSyncCount());
+		} finally {
+			Files.delete(file);
+			Files.delete(dir);
+		}
+	}
+
+	private static Callable<Void> sync(final FileSyncer syncer, final FileSyncer.SyncAction action) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				syncer.sync(TARGET, action);
+				return null;
+			}
+		};
+	}
+
+}
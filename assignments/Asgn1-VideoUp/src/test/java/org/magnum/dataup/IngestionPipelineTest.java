@@ -0,0 +1,419 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+import org.magnum.dataup.model.VideoStatus.VideoState;
+
+/**
+ * Checks that the IngestionPipeline commits staged uploads on its
+ * workers, turns uploads away when its queue is full, lets the last
+ * accepted upload for a video win (including an upload session that is
+ * committed through it), and waits for accepted uploads when it is shut
+ * down.
+ * 
+ * @author jules
+ *
+ */
+public class IngestionPipelineTest {
+
+	// Stores data like a ContentAddressedBlobStore but can hold the
+	// commits of chosen videos until they are released
+	private static class BlockingStore implements VideoBlobStore {
+
+		private final VideoBlobStore store_;
+
+		private final Set<Long> blocked_ = Collections.synchronizedSet(new HashSet<Long>());
+
+		private final CountDownLatch release_ = new CountDownLatch(1);
+
+		private final CountDownLatch entered_ = new CountDownLatch(1);
+
+		private final AtomicInteger adopted_ = new AtomicInteger();
+
+		BlockingStore(VideoBlobStore store) {
+			store_ = store;
+		}
+
+		@Override
+		public String adopt(long videoId, Path file) throws IOException {
+			if (blocked_.contains(videoId)) {
+				entered_.countDown();
+				try {
+					release_.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			adopted_.incrementAndGet();
+			return store_.adopt(videoId, file);
+		}
+
+		@Override
+		public Path getBlob(long videoId) throws IOException {
+			return store_.getBlob(videoId);
+		}
+
+		@Override
+		public String getKey(long videoId) {
+			return store_.getKey(videoId);
+		}
+
+		@Override
+		public String store(long videoId, InputStream data) throws IOException {
+			return store_.store(videoId, data);
+		}
+
+		@Override
+		public Path getBlobByKey(String key) throws IOException {
+			return store_.getBlobByKey(key);
+		}
+
+		@Override
+		public boolean link(long videoId, String key) throws IOException {
+			return store_.link(videoId, key);
+		}
+
+		@Override
+		public void remove(long videoId) throws IOException {
+			store_.remove(videoId);
+		}
+	}
+
+	// Records how an upload finished
+	private static class Outcome implements IngestionPipeline.Listener {
+
+		private final CountDownLatch done_ = new CountDownLatch(1);
+
+		private volatile Exception failure_;
+
+		@Override
+		public void onReady(long videoId) {
+			done_.countDown();
+		}
+
+		@Override
+		public void onFailed(long videoId, Exception e) {
+			failure_ = e;
+			done_.countDown();
+		}
+
+		boolean isReady() throws InterruptedException {
+			assertTrue("The upload didn't finish", done_.await(10, TimeUnit.SECONDS));
+			return failure_ == null;
+		}
+	}
+
+	private Path root;
+
+	private BlockingStore store;
+
+	private VideoFileManager mgr;
+
+	private IngestionPipeline pipeline;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("ingestion-pipeline-test");
+		store = new BlockingStore(new ContentAddressedBlobStore(root, new FileSyncer(FileSyncer.Mode.NONE, 0)));
+		mgr = VideoFileManager.get(root, store, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.release_.countDown();
+		if (pipeline != null) {
+			pipeline.shutdown();
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testUploadIsCommitted() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 2, 4, 10000);
+		Video v = video(1);
+		Path staged = stage("video data");
+		pipeline.submit(v, staged);
+
+		assertTrue(await(v).isReady());
+		assertEquals(VideoState.READY, pipeline.getState(v));
+		assertEquals("video data", read(v));
+		assertFalse(Files.exists(staged));
+	}
+
+	@Test
+	public void testEmptyUploadFails() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 2, 4, 10000);
+		Video v = video(1);
+		pipeline.submit(v, stage(""));
+
+		assertFalse(await(v).isReady());
+		assertNull(pipeline.getState(v));
+	}
+
+	@Test
+	public void testFullQueueRejectsUploads() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 1, 10000);
+		store.blocked_.add(1L);
+		pipeline.submit(video(1), stage("running"));
+		store.entered_.await();
+		pipeline.submit(video(2), stage("queued"));
+		assertEquals(1, pipeline.getQueuedCount());
+
+		Path rejected = stage("rejected");
+		try {
+			pipeline.submit(video(3), rejected);
+			fail("An upload was accepted while the queue was full");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertFalse(Files.exists(rejected));
+		assertNull(pipeline.getState(video(3)));
+		assertEquals(VideoState.PROCESSING, pipeline.getState(video(2)));
+	}
+
+	@Test
+	public void testRejectedUploadKeepsPreviousInFlight() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 1, 10000);
+		store.blocked_.add(1L);
+		pipeline.submit(video(1), stage("running"));
+		store.entered_.await();
+		pipeline.submit(video(2), stage("first"));
+		try {
+			pipeline.submit(video(2), stage("second"));
+			fail("An upload was accepted while the queue was full");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+
+		// The upload that was accepted is still committed
+		Outcome first = await(video(2));
+		store.release_.countDown();
+		assertTrue(first.isReady());
+		assertEquals("first", read(video(2)));
+	}
+
+	@Test
+	public void testLastAcceptedUploadWins() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 4, 10000);
+		store.blocked_.add(1L);
+		pipeline.submit(video(1), stage("running"));
+		store.entered_.await();
+
+		Video v = video(2);
+		pipeline.submit(v, stage("older"));
+		Outcome older = await(v);
+		pipeline.submit(v, stage("newer"));
+		Outcome newer = await(v);
+		store.release_.countDown();
+
+		assertTrue(older.isReady());
+		assertTrue(newer.isReady());
+		assertEquals("newer", read(v));
+		// The older upload was dropped without being committed
+		assertEquals(2, store.adopted_.get());
+	}
+
+	@Test
+	public void testUploadsForTheSameVideoAreSerialized() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 2, 4, 10000);
+		Video v = video(1);
+		store.blocked_.add(1L);
+		pipeline.submit(v, stage("older"));
+		store.entered_.await();
+		pipeline.submit(v, stage("newer"));
+		Outcome newer = await(v);
+
+		// The newer upload can't be committed before the older one
+		Thread.sleep(100);
+		assertEquals(0, store.adopted_.get());
+		store.release_.countDown();
+
+		assertTrue(newer.isReady());
+		assertEquals("newer", read(v));
+		assertEquals(2, store.adopted_.get());
+	}
+
+	@Test
+	public void testSessionCommitSupersedesQueuedUpload() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 4, 10000);
+		store.blocked_.add(1L);
+		pipeline.submit(video(1), stage("running"));
+		store.entered_.await();
+
+		Video v = video(2);
+		pipeline.submit(v, stage("older"));
+		Outcome older = await(v);
+		pipeline.commitUploadSession(v, session(v, "newer"));
+		assertEquals(VideoState.READY, pipeline.getState(v));
+		store.release_.countDown();
+
+		assertTrue(older.isReady());
+		assertEquals("newer", read(v));
+		// The queued upload was dropped without being committed
+		pipeline.shutdown();
+		assertEquals(2, store.adopted_.get());
+	}
+
+	@Test
+	public void testSessionCommitWaitsForRunningUpload() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 4, 10000);
+		final Video v = video(1);
+		store.blocked_.add(1L);
+		pipeline.submit(v, stage("older"));
+		Outcome older = await(v);
+		store.entered_.await();
+
+		final UploadSession session = session(v, "newer");
+		Thread commit = new Thread() {
+			@Override
+			public void run() {
+				try {
+					pipeline.commitUploadSession(v, session);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		commit.start();
+
+		// The session can't be committed before the running upload
+		Thread.sleep(100);
+		assertEquals(0, store.adopted_.get());
+		store.blocked_.remove(1L);
+		store.release_.countDown();
+		commit.join(10000);
+
+		assertTrue(older.isReady());
+		assertEquals("newer", read(v));
+		assertEquals(2, store.adopted_.get());
+	}
+
+	@Test
+	public void testShutdownWaitsForAcceptedUploads() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 4, 10000);
+		store.blocked_.add(1L);
+		Video v = video(1);
+		pipeline.submit(v, stage("running"));
+		store.entered_.await();
+		pipeline.submit(video(2), stage("queued"));
+
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().startsWith("video-ingest-")) {
+				assertFalse(t.isDaemon());
+			}
+		}
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// release right away
+				}
+				store.release_.countDown();
+			}
+		}.start();
+		assertTrue(pipeline.shutdown());
+		assertEquals("running", read(v));
+		assertEquals("queued", read(video(2)));
+	}
+
+	@Test
+	public void testShutdownTimesOut() throws Exception {
+		pipeline = new IngestionPipeline(mgr, 1, 4, 50);
+		store.blocked_.add(1L);
+		pipeline.submit(video(1), stage("running"));
+		store.entered_.await();
+
+		assertFalse(pipeline.shutdown());
+	}
+
+	private Outcome await(Video v) {
+		Outcome outcome = new Outcome();
+		pipeline.whenDone(v, outcome);
+		return outcome;
+	}
+
+	private Path stage(String data) throws IOException {
+		Path staged = mgr.newStagingPath();
+		Files.write(staged, data.getBytes("UTF-8"));
+		return staged;
+	}
+
+	// Returns a complete upload session of the data for the video
+	private UploadSession session(Video v, String data) throws Exception {
+		byte[] bytes = data.getBytes("UTF-8");
+		UploadSession session = mgr.openUploadSession(v, bytes.length);
+		mgr.writeUploadChunk(session, 0, bytes.length, new ByteArrayInputStream(bytes));
+		return session;
+	}
+
+	private String read(Video v) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mgr.copyVideoData(v, out);
+		return out.toString("UTF-8");
+	}
+
+	private static Video video(long id) {
+		Video v = new Video();
+		v.setId(id);
+		return v;
+	}
+
+}
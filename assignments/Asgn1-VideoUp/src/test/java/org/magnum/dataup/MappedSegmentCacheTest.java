@@ -0,0 +1,183 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the MappedSegmentCache serves the right bytes, counts its
+ * hits and misses, maps each segment once even when many threads miss on
+ * it together, and evicts the least recently used segments to stay within
+ * its budget.
+ * 
+ * @author jules
+ *
+ */
+public class MappedSegmentCacheTest {
+
+	private static final int SEGMENT = 1024;
+
+	private Path file;
+
+	private byte[] data;
+
+	@Before
+	public void setUp() throws Exception {
+		file = Files.createTempFile("mapped-segment-cache-test", ".mpg");
+		data = new byte[10 * SEGMENT + 100];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		Files.write(file, data);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testAdmission() {
+		MappedSegmentCache cache = new MappedSegmentCache(4 * SEGMENT, SEGMENT, 3);
+		assertFalse(cache.admit("a"));
+		assertFalse(cache.admit("a"));
+		assertFalse(cache.isAdmitted("a"));
+		assertTrue(cache.admit("a"));
+		assertTrue(cache.isAdmitted("a"));
+		assertFalse(cache.isAdmitted("b"));
+	}
+
+	@Test
+	public void testSlices() throws Exception {
+		MappedSegmentCache cache = new MappedSegmentCache(20 * SEGMENT, SEGMENT, 1);
+		// A slice stops at the end of its segment
+		assertSlice(cache.slice("a", file, data.length, 100, 5000), 100, SEGMENT - 100);
+		assertSlice(cache.slice("a", file, data.length, 2 * SEGMENT + 10, 20), 2 * SEGMENT + 10, 20);
+		// The last segment is shorter than the others
+		assertSlice(cache.slice("a", file, data.length, 10 * SEGMENT, 5000), 10 * SEGMENT, 100);
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		MappedSegmentCache cache = new MappedSegmentCache(20 * SEGMENT, SEGMENT, 1);
+		cache.slice("a", file, data.length, 0, 10);
+		cache.slice("a", file, data.length, 10, 10);
+		cache.slice("a", file, data.length, SEGMENT, 10);
+		cache.slice("a", file, data.length, 20, 10);
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.getHits());
+		assertEquals(0.5, cache.getHitRatio(), 0.0);
+		assertEquals(2 * SEGMENT, cache.getMappedBytes());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedSegmentsAreEvicted() throws Exception {
+		MappedSegmentCache cache = new MappedSegmentCache(3 * SEGMENT, SEGMENT, 1);
+		for (int segment = 0; segment < 3; segment++) {
+			cache.slice("a", file, data.length, segment * SEGMENT, 1);
+		}
+		// Segment 0 is used again, so segment 1 is the least recently used
+		cache.slice("a", file, data.length, 0, 1);
+		cache.slice("a", file, data.length, 3 * SEGMENT, 1);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3 * SEGMENT, cache.getMappedBytes());
+
+		long misses = cache.getMisses();
+		cache.slice("a", file, data.length, 0, 1);
+		cache.slice("a", file, data.length, 2 * SEGMENT, 1);
+		assertEquals(misses, cache.getMisses());
+		cache.slice("a", file, data.length, SEGMENT, 1);
+		assertEquals(misses + 1, cache.getMisses());
+		assertTrue(cache.getMappedBytes() <= cache.getBudgetBytes());
+	}
+
+	@Test
+	public void testConcurrentMissesMapOnce() throws Exception {
+		final MappedSegmentCache cache = new MappedSegmentCache(20 * SEGMENT, SEGMENT, 1);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<ByteBuffer>> slices = new ArrayList<Future<ByteBuffer>>();
+			for (int i = 0; i < 8; i++) {
+				slices.add(threads.submit(new Callable<ByteBuffer>() {
+					@Override
+					public ByteBuffer call() throws Exception {
+						start.await();
+						return cache.slice("a", file, data.length, 5, 10);
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<ByteBuffer> slice : slices) {
+				assertSlice(slice.get(), 5, 10);
+			}
+		} finally {
+			threads.shutdown();
+		}
+		assertEquals(1, cache.getMisses());
+		assertEquals(7, cache.getHits());
+		assertEquals(SEGMENT, cache.getMappedBytes());
+	}
+
+	@Test
+	public void testFailedMappingIsRetried() throws Exception {
+		MappedSegmentCache cache = new MappedSegmentCache(20 * SEGMENT, SEGMENT, 1);
+		Path missing = file.resolveSibling(file.getFileName() + ".missing");
+		try {
+			cache.slice("b", missing, data.length, 0, 10);
+			fail("A missing file was mapped");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, cache.getMappedBytes());
+
+		Files.copy(file, missing);
+		try {
+			assertSlice(cache.slice("b", missing, data.length, 0, 10), 0, 10);
+		} finally {
+			Files.deleteIfExists(missing);
+		}
+	}
+
+	private void assertSlice(ByteBuffer slice, int position, int length) {
+		assertEquals(length, slice.remaining());
+		for (int i = 0; i < length; i++) {
+			assertEquals(data[position + i], slice.get());
+		}
+	}
+
+}
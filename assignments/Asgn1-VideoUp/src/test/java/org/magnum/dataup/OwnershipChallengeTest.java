@@ -0,0 +1,171 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+
+/**
+ * Checks that a client can only link its video to stored data by
+ * answering the OwnershipChallenge of its upload session with bytes of
+ * that data, and not just by sending the data's digest.
+ * 
+ * @author jules
+ *
+ */
+public class OwnershipChallengeTest {
+
+	private Path root;
+
+	private VideoFileManager mgr;
+
+	private byte[] data;
+
+	private String digest;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("ownership-challenge-test");
+		mgr = VideoFileManager.get(root);
+		data = new byte[200 * 1024];
+		new Random(1).nextBytes(data);
+		mgr.saveVideoData(video(1), new ByteArrayInputStream(data));
+		digest = mgr.getVideoDataDigest(video(1));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testChallengeRange() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			OwnershipChallenge challenge = OwnershipChallenge.issue(digest, data.length);
+			ByteRange range = challenge.getRange();
+			assertEquals(OwnershipChallenge.MAX_RANGE_LENGTH, range.getLength());
+			assertTrue(range.getFirst() >= 0 && range.getLast() < data.length);
+			assertEquals(32, challenge.getNonce().length());
+		}
+		assertEquals(10, OwnershipChallenge.issue(digest, 10).getRange().getLength());
+		assertNull(OwnershipChallenge.issue(digest, 0).getRange());
+	}
+
+	@Test
+	public void testLinkWithProof() throws Exception {
+		Video v = video(2);
+		UploadSession session = mgr.openUploadSession(v, data.length, digest);
+
+		assertEquals(data.length, mgr.proveUploadOwnership(v, session, answer(session.getChallenge(), data)));
+		assertEquals(digest, mgr.getVideoDataDigest(v));
+		assertNull(mgr.getUploadSession(session.getId()));
+		assertFalse(Files.exists(session.getPartFile()));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mgr.copyVideoData(v, out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void testDigestAloneIsNotEnough() throws Exception {
+		Video v = video(2);
+		UploadSession session = mgr.openUploadSession(v, data.length, digest);
+		assertEquals(-1, mgr.proveUploadOwnership(v, session, digest));
+		assertNull(mgr.getVideoDataDigest(v));
+
+		// The challenge can't be answered again, but the upload goes on
+		assertNull(session.getChallenge());
+		assertEquals(-1, mgr.proveUploadOwnership(v, session, answer(OwnershipChallenge.issue(digest, data.length), data)));
+		assertNotNull(mgr.getUploadSession(session.getId()));
+	}
+
+	@Test
+	public void testWrongBytes() throws Exception {
+		Video v = video(2);
+		UploadSession session = mgr.openUploadSession(v, data.length, digest);
+		byte[] other = data.clone();
+		ByteRange range = session.getChallenge().getRange();
+		other[(int) range.getFirst()] ^= 1;
+		assertEquals(-1, mgr.proveUploadOwnership(v, session, answer(session.getChallenge(), other)));
+		assertNull(mgr.getVideoDataDigest(v));
+	}
+
+	@Test
+	public void testWrongLength() throws Exception {
+		Video v = video(2);
+		UploadSession session = mgr.openUploadSession(v, data.length - 1, digest);
+		assertEquals(-1, mgr.proveUploadOwnership(v, session, answer(session.getChallenge(), data)));
+		assertNull(mgr.getVideoDataDigest(v));
+	}
+
+	@Test
+	public void testUnknownDigestStillGetsAChallenge() throws Exception {
+		Video v = video(2);
+		String unknown = digest.replace(digest.charAt(0), digest.charAt(0) == 'a' ? 'b' : 'a');
+		UploadSession session = mgr.openUploadSession(v, data.length, unknown);
+		assertNotNull(session.getChallenge());
+		assertEquals(-1, mgr.proveUploadOwnership(v, session, answer(session.getChallenge(), data)));
+		assertNull(mgr.getVideoDataDigest(v));
+	}
+
+	// What a client that has the data sends back
+	private static String answer(OwnershipChallenge challenge, byte[] data) {
+		ByteRange range = challenge.getRange();
+		return OwnershipChallenge.answer(challenge.getNonce(),
+				ByteBuffer.wrap(data, (int) range.getFirst(), (int) range.getLength()));
+	}
+
+	private static Video video(long id) {
+		Video v = new Video();
+		v.setId(id);
+		return v;
+	}
+
+}
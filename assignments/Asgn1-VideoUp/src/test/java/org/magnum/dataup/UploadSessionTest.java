@@ -0,0 +1,278 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.dataup.VideoFileManager.TooManyUploadsException;
+import org.magnum.dataup.model.Video;
+
+/**
+ * Checks resumable uploads through the VideoFileManager: chunks that
+ * arrive out of order and overlap, the limits on the length of an upload
+ * and on the number of open sessions, the expiry of idle sessions, and
+ * writes that race a commit or an abort.
+ * 
+ * @author jules
+ *
+ */
+public class UploadSessionTest {
+
+	private Path root;
+
+	private VideoFileManager mgr;
+
+	private Video video;
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("upload-session-test");
+		mgr = VideoFileManager.get(root);
+		video = new Video();
+		video.setId(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void testChunksInAnyOrder() throws Exception {
+		byte[] data = randomBytes(10000);
+		UploadSession session = mgr.openUploadSession(video, data.length);
+
+		write(session, data, 6000, 4000);
+		write(session, data, 0, 3000);
+		assertFalse(session.isComplete());
+		assertEquals("[0-2999, 6000-9999]", session.getReceivedRanges().toString());
+
+		// A resent chunk that overlaps both received ranges fills the gap
+		write(session, data, 2000, 5000);
+		assertEquals("[0-9999]", session.getReceivedRanges().toString());
+		assertEquals(data.length, session.getReceivedBytes());
+		assertTrue(session.isComplete());
+
+		mgr.commitUploadSession(video, session);
+		assertNull(mgr.getUploadSession(session.getId()));
+		assertFalse(Files.exists(session.getPartFile()));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mgr.copyVideoData(video, out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitIncompleteUpload() throws Exception {
+		UploadSession session = mgr.openUploadSession(video, 100);
+		write(session, randomBytes(100), 0, 50);
+		mgr.commitUploadSession(video, session);
+	}
+
+	@Test
+	public void testMaxUploadLength() throws Exception {
+		mgr.setUploadLimits(1000, 10, 10, 60000);
+		assertEquals(1000, mgr.getUploadSession(mgr.openUploadSession(video, 1000).getId()).getLength());
+		try {
+			mgr.openUploadSession(video, 1001);
+			fail("An upload longer than the limit was opened");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, mgr.getUploadSessionCount());
+	}
+
+	@Test
+	public void testMaxSessionsPerVideo() throws Exception {
+		mgr.setUploadLimits(1000, 10, 2, 60000);
+		mgr.openUploadSession(video, 10);
+		UploadSession second = mgr.openUploadSession(video, 10);
+		try {
+			mgr.openUploadSession(video, 10);
+			fail("A third session was opened for the same video");
+		} catch (TooManyUploadsException e) {
+			// expected
+		}
+
+		// Other videos are not affected and closing a session frees its slot
+		mgr.openUploadSession(otherVideo(2), 10);
+		mgr.abortUploadSession(second);
+		mgr.openUploadSession(video, 10);
+		assertEquals(3, mgr.getUploadSessionCount());
+	}
+
+	@Test
+	public void testMaxSessions() throws Exception {
+		mgr.setUploadLimits(1000, 3, 3, 60000);
+		for (int i = 0; i < 3; i++) {
+			mgr.openUploadSession(otherVideo(i + 10), 10);
+		}
+		try {
+			mgr.openUploadSession(video, 10);
+			fail("More sessions were opened than the server allows");
+		} catch (TooManyUploadsException e) {
+			// expected
+		}
+		assertEquals(3, mgr.getUploadSessionCount());
+	}
+
+	@Test
+	public void testIdleSessionsExpire() throws Exception {
+		UploadSession session = mgr.openUploadSession(video, 100);
+		assertSame(session, mgr.getUploadSession(session.getId()));
+		assertTrue(Files.exists(session.getPartFile()));
+
+		mgr.setUploadLimits(1000, 10, 10, 0);
+		assertNull(mgr.getUploadSession(session.getId()));
+		assertTrue(session.isClosed());
+		assertFalse(Files.exists(session.getPartFile()));
+		assertEquals(0, mgr.getUploadSessionCount());
+	}
+
+	@Test
+	public void testIdleSessionsAreExpiredWhenAnotherIsOpened() throws Exception {
+		mgr.setUploadLimits(1000, 1, 1, 0);
+		UploadSession abandoned = mgr.openUploadSession(video, 100);
+		UploadSession session = mgr.openUploadSession(video, 100);
+		assertTrue(abandoned.isClosed());
+		assertFalse(Files.exists(abandoned.getPartFile()));
+		assertFalse(session.isClosed());
+	}
+
+	@Test
+	public void testSessionIsNotIdleWhileAChunkArrives() throws Exception {
+		final byte[] data = randomBytes(100);
+		final UploadSession session = mgr.openUploadSession(video, data.length);
+		mgr.setUploadLimits(1000, 10, 10, 0);
+
+		final int[] expired = { -1 };
+		InputStream slow = new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				if (expired[0] < 0) {
+					try {
+						expired[0] = mgr.expireUploadSessions();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return super.read(b, off, len);
+			}
+		};
+		assertEquals(data.length, mgr.writeUploadChunk(session, 0, data.length, slow));
+		assertEquals(0, expired[0]);
+		assertTrue(session.isComplete());
+	}
+
+	@Test
+	public void testWriteRacingAbort() throws Exception {
+		final byte[] data = randomBytes(100);
+		final UploadSession session = mgr.openUploadSession(video, data.length);
+
+		// The session is aborted after the write has started
+		InputStream racing = new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				try {
+					mgr.abortUploadSession(session);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return super.read(b, off, len);
+			}
+		};
+		try {
+			mgr.writeUploadChunk(session, 0, data.length, racing);
+			fail("A write to an aborted session succeeded");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertFalse(Files.exists(session.getPartFile()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteAfterCommit() throws Exception {
+		byte[] data = randomBytes(100);
+		UploadSession session = mgr.openUploadSession(video, data.length);
+		write(session, data, 0, data.length);
+		mgr.commitUploadSession(video, session);
+		write(session, data, 0, data.length);
+	}
+
+	@Test
+	public void testOrphanedPartsAreDeleted() throws Exception {
+		UploadSession session = mgr.openUploadSession(video, 100);
+		session.close();
+		assertTrue(Files.exists(session.getPartFile()));
+
+		// A restarted server can't resume the sessions of the last one
+		VideoFileManager.get(root);
+		assertFalse(Files.exists(session.getPartFile()));
+	}
+
+	private void write(UploadSession session, byte[] data, int offset, int count) throws IOException {
+		InputStream chunk = new ByteArrayInputStream(Arrays.copyOfRange(data, offset, offset + count));
+		assertEquals(count, mgr.writeUploadChunk(session, offset, count, chunk));
+	}
+
+	private static Video otherVideo(long id) {
+		Video v = new Video();
+		v.setId(id);
+		return v;
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.magnum.dataup.model.Video;
+
+/**
+ * Compares the ways that VideoFileManager can serve video data to a
+ * client socket:
+ *
+ *  - stream:   Files.copy() into the socket's OutputStream (the original path)
+ *  - pooled:   positional reads into a heap buffer written to the stream
+ *  - sendfile: FileChannel.transferTo() straight into the SocketChannel
+ *
+ * For 1 MB, 100 MB and 1 GB files, the benchmark reports the CPU time
+ * that the serving thread spent per GB served and the p99 latency of a
+ * single download. The videos are written to a temporary directory that
+ * is deleted when the benchmark ends. Run it with:
+ *
+ *   java -cp ... org.magnum.dataup.VideoDataServingBenchmark
+ *
+ * This is not a JUnit test because the large files take a while to
+ * create and serve.
+ *
+ * @author jules
+ *
+ */
+public class VideoDataServingBenchmark {
+
+	private static final long MB = 1024L * 1024L;
+
+	private static final long GB = 1024L * MB;
+
+	private static final long[] SIZES = { MB, 100 * MB, GB };
+
+	private static final int[] ITERATIONS = { 500, 30, 8 };
+
+	private static final int WARMUP = 3;
+
+	private enum Mode {
+		STREAM, POOLED, SENDFILE
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path root = Files.createTempDirectory("video-serving-benchmark");
+		ExecutorService drains = Executors.newSingleThreadExecutor();
+		try {
+			VideoFileManager mgr = VideoFileManager.get(root);
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+			System.out.println(String.format("%-10s %-9s %14s %12s", "size", "mode", "cpu ms / GB", "p99 ms"));
+			for (int i = 0; i < SIZES.length; i++) {
+				Video v = new Video();
+				v.setId(i + 1);
+				writeVideo(mgr, v, SIZES[i]);
+				for (Mode mode : Mode.values()) {
+					run(mgr, threads, drains, v, SIZES[i], ITERATIONS[i], mode);
+				}
+			}
+		} finally {
+			drains.shutdownNow();
+			deleteRecursively(root);
+		}
+	}
+
+	private static void run(VideoFileManager mgr, ThreadMXBean threads, ExecutorService drains, Video v,
+			long size, int iterations, Mode mode) throws Exception {
+		long[] latencies = new long[iterations];
+		long cpu = 0;
+
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			for (int i = -WARMUP; i < iterations; i++) {
+				try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+					Future<Long> drain = drains.submit(drain(client, size));
+					try (SocketChannel socket = server.accept()) {
+						long cpuStart = threads.getCurrentThreadCpuTime();
+						long start = System.nanoTime();
+						serve(mgr, v, size, socket, mode);
+						socket.shutdownOutput();
+						// Rethrows anything that went wrong on the draining thread
+						drain.get();
+						long elapsed = System.nanoTime() - start;
+						long cpuUsed = threads.getCurrentThreadCpuTime() - cpuStart;
+						if (i >= 0) {
+							latencies[i] = elapsed;
+							cpu += cpuUsed;
+						}
+					}
+				}
+			}
+		}
+
+		Arrays.sort(latencies);
+		int p99 = Math.min(iterations - 1, (int) Math.ceil(iterations * 0.99) - 1);
+		double servedGb = (double) (size * iterations) / GB;
+		System.out.println(String.format("%-10s %-9s %14.1f %12.2f", size / MB + " MB",
+				mode.name().toLowerCase(), cpu / 1e6 / servedGb, latencies[p99] / 1e6));
+	}
+
+	private static void serve(VideoFileManager mgr, Video v, long size, SocketChannel socket, Mode mode)
+			throws IOException {
+		switch (mode) {
+		case STREAM:
+			Files.copy(mgr.getVideoDataFile(v), Channels.newOutputStream(socket));
+			break;
+		case POOLED:
+			mgr.copyVideoData(v, 0, size, Channels.newOutputStream(socket));
+			break;
+		case SENDFILE:
+			mgr.transferVideoData(v, 0, size, socket);
+			break;
+		}
+	}
+
+	// Reads and discards everything that the server sends on its own thread
+	// so that the serving thread's CPU time is measured on its own
+	private static Callable<Long> drain(final SocketChannel client, final long size) {
+		return new Callable<Long>() {
+			@Override
+			public Long call() throws IOException {
+				ByteBuffer buffer = ByteBuffer.allocateDirect((int) (4 * MB));
+				long total = 0;
+				int read;
+				while ((read = client.read(buffer)) >= 0) {
+					total += read;
+					buffer.clear();
+				}
+				if (total != size) {
+					throw new IllegalStateException("Expected " + size + " bytes but read " + total);
+				}
+				return total;
+			}
+		};
+	}
+
+	private static void deleteRecursively(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void writeVideo(VideoFileManager mgr, Video v, final long size) throws IOException {
+		final Random random = new Random(size);
+		InputStream data = new InputStream() {
+			private final byte[] chunk = new byte[(int) MB];
+			private long remaining = size;
+			{
+				random.nextBytes(chunk);
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (remaining == 0) {
+					return -1;
+				}
+				int n = (int) Math.min(Math.min(len, chunk.length), remaining);
+				System.arraycopy(chunk, 0, b, off, n);
+				remaining -= n;
+				return n;
+			}
+		};
+		mgr.saveVideoData(v, data);
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magnum.dataup.model.Video;
+
+/**
+ * Measures how fast VideoRepository takes new videos from several writer
+ * threads while reader threads look videos up by id. It adds a million
+ * videos and reports the adds and lookups per second. Run it with:
+ *
+ *   java -cp ... org.magnum.dataup.VideoRepositoryBenchmark
+ *
+ * The correctness of concurrent adds and lookups is checked by
+ * VideoRepositoryTest.
+ *
+ * @author jules
+ *
+ */
+public class VideoRepositoryBenchmark {
+
+	private static final int VIDEOS = 1000000;
+
+	private static final int WRITERS = 8;
+
+	private static final int READERS = 4;
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		for (int round = 1; round <= ROUNDS; round++) {
+			run(round);
+		}
+	}
+
+	private static void run(int round) throws InterruptedException {
+		final VideoRepository videos = new VideoRepository();
+		final AtomicLong lookups = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+
+		Thread[] threads = new Thread[WRITERS + READERS];
+		for (int i = 0; i < WRITERS; i++) {
+			final int writer = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int n = writer; n < VIDEOS; n += WRITERS) {
+							videos.add(Video.create().withTitle("Video-" + n).withDuration(n).build());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						writersDone.countDown();
+					}
+				}
+			});
+		}
+		for (int i = WRITERS; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long count = 0;
+						while (writersDone.getCount() > 0) {
+							videos.get(1 + (count * 7919) % Math.max(1, videos.size()));
+							count++;
+						}
+						lookups.addAndGet(count);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+
+		for (Thread t : threads) {
+			t.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		double seconds = (System.nanoTime() - begin) / 1e9;
+
+		System.out.println(String.format("Round %d: added %d videos with %d threads in %.2fs (%.0f adds/s, %.0f gets/s)",
+				round, VIDEOS, WRITERS, seconds, VIDEOS / seconds, lookups.get() / seconds));
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package org.magnum.dataup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.magnum.dataup.model.Video;
+
+/**
+ * Adds videos to a VideoRepository from many threads at once, while other
+ * threads look them up, and checks that every video ends up with its own
+ * id and can be found by it. VideoRepositoryBenchmark measures the
+ * throughput of the same workload.
+ * 
+ * @author jules
+ *
+ */
+public class VideoRepositoryTest {
+
+	private static final int VIDEOS = 100000;
+
+	private static final int WRITERS = 8;
+
+	private static final int READERS = 4;
+
+	@Test
+	public void testConcurrentAddAndGet() throws Exception {
+		final VideoRepository videos = new VideoRepository();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+
+		Thread[] threads = new Thread[WRITERS + READERS];
+		for (int i = 0; i < WRITERS; i++) {
+			final int writer = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int n = writer; n < VIDEOS; n += WRITERS) {
+							videos.add(Video.create().withTitle("Video-" + n).withDuration(n).build());
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						writersDone.countDown();
+					}
+				}
+			});
+		}
+		for (int i = WRITERS; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long count = 0;
+						while (writersDone.getCount() > 0) {
+							long id = 1 + (count * 7919) % Math.max(1, videos.size());
+							Video v = videos.get(id);
+							// A video may not be visible yet right after its
+							// id is handed out, but never under another id
+							if (v != null && v.getId() != id) {
+								throw new AssertionError("Found video " + v.getId() + " under id " + id);
+							}
+							count++;
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+
+		for (Thread t : threads) {
+			t.start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		assertEquals(VIDEOS, videos.size());
+		boolean[] seen = new boolean[VIDEOS];
+		for (long id = 1; id <= VIDEOS; id++) {
+			Video v = videos.get(id);
+			assertNotNull("No video under id " + id, v);
+			assertEquals(id, v.getId());
+			int n = (int) v.getDuration();
+			assertTrue("Video " + n + " was stored twice", !seen[n]);
+			seen[n] = true;
+		}
+
+		Collection<Video> all = videos.findAll();
+		assertEquals(VIDEOS, all.size());
+		long expected = 1;
+		for (Video v : all) {
+			assertEquals(expected++, v.getId());
+		}
+	}
+
+	@Test
+	public void testUnknownIds() {
+		VideoRepository videos = new VideoRepository();
+		Video v = videos.add(Video.create().withTitle("Video").withDuration(1).build());
+
+		assertEquals(1, v.getId());
+		assertSame(v, videos.get(1));
+		assertNull(videos.get(0));
+		assertNull(videos.get(-1));
+		assertNull(videos.get(2));
+		assertNull(videos.get(VideoRepository.MAX_ID + 1));
+		assertTrue(videos.findAll().contains(v));
+	}
+
+	@Test
+	public void testAllocatedIdIsHiddenUntilPut() {
+		VideoRepository videos = new VideoRepository();
+		long id = videos.allocateId();
+
+		assertEquals(1, id);
+		assertNull(videos.get(id));
+		assertTrue(videos.findAll().isEmpty());
+
+		Video v = Video.create().withTitle("Video").withDuration(1).build();
+		v.setId(id);
+		v.setDataUrl("http://localhost:8080/video/1/data");
+		assertSame(v, videos.put(v));
+		assertSame(v, videos.get(id));
+		assertEquals("http://localhost:8080/video/1/data", videos.get(id).getDataUrl());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutRejectsUnallocatedId() {
+		VideoRepository videos = new VideoRepository();
+		Video v = Video.create().withTitle("Video").withDuration(1).build();
+		v.setId(1);
+		videos.put(v);
+	}
+
+}
@@ -19,6 +19,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 //Tell Spring to automatically inject any dependencies that are marked in
@@ -27,6 +29,14 @@ import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 @EnableAutoConfiguration
 // Added to create a JPA implementation of the VideoRepository
 @EnableJpaRepositories(basePackageClasses = VideoRepository.class)
+// Honor @Transactional on services and repositories (e.g., the read-only
+// transaction in which VideoLikeService pages through the likers of a
+// video, and the VideoRepository update that LikeCounters uses to write
+// likes counts back)
+@EnableTransactionManagement
+// Run @Scheduled tasks (e.g., LikeCounters writing likes counts back to
+// the videos)
+@EnableScheduling
 // Tell Spring to turn on WebMVC (e.g., it should enable the DispatcherServlet
 // so that requests can be routed to our Controllers)
 @EnableWebMvc
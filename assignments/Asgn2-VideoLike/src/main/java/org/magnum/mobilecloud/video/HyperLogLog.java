@@ -0,0 +1,373 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch that estimates the number of distinct values that
+ * were offered to it, in at most 2^precision bytes no matter how many
+ * values that is. The standard error of the estimate is about
+ * 1.04 / sqrt(2^precision), e.g., 1.6% at a precision of 12.
+ * 
+ * A new sketch starts out sparse: it only keeps the buckets that have
+ * been hit, as a sorted array of (bucket, rank) entries, so a sketch of a
+ * handful of values takes a few dozen bytes instead of 2^precision. Once
+ * the entries would take more memory than the registers, the sketch
+ * switches to the dense array of registers for good. Both forms give the
+ * same estimates.
+ * 
+ * Sketches are mergeable: merging the sketches of two sets of values gives
+ * the sketch of their union, so each server can keep its own sketch and
+ * the sketches can be combined in any order, any number of times. Sketches
+ * of different precisions are merged at the lower of the two.
+ * 
+ * The sketch is thread safe.
+ * 
+ * @author mitchell
+ */
+public class HyperLogLog {
+
+	public static final int MIN_PRECISION = 4;
+
+	public static final int MAX_PRECISION = 16;
+
+	// Set in the first byte of toBytes() for a sparse sketch
+	private static final int SPARSE_FLAG = 0x80;
+
+	private static final int INITIAL_SPARSE_CAPACITY = 4;
+
+	private final int precision;
+
+	// One register per bucket, holding the longest run of leading zeros
+	// (plus one) seen in the hashes that fell into the bucket. Null while
+	// the sketch is sparse.
+	private byte[] registers;
+
+	// While the sketch is sparse, the buckets that have been hit, sorted
+	// by bucket, each as (bucket << 8 | rank)
+	private int[] entries;
+
+	private int entryCount;
+
+	public HyperLogLog(int precision) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException("The precision must be between " 
+					+ MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+		}
+		this.precision = precision;
+		this.entries = new int[0];
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public synchronized boolean isSparse() {
+		return registers == null;
+	}
+
+	/**
+	 * Returns roughly how many bytes the sketch's buckets take up.
+	 * 
+	 * @return
+	 */
+	public synchronized int getSizeInBytes() {
+		return (registers != null) ? registers.length : 4 * entries.length;
+	}
+
+	/**
+	 * Offers a value to the sketch. Returns true if the sketch changed.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public boolean offer(String value) {
+		return offerHash(hash(value));
+	}
+
+	/**
+	 * Offers a value, given as a well-mixed 64-bit hash, to the sketch.
+	 * Returns true if the sketch changed.
+	 * 
+	 * @param hash
+	 * @return
+	 */
+	public synchronized boolean offerHash(long hash) {
+		int bucket = (int) (hash >>> (64 - precision));
+		int rank = Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1;
+		return raise(bucket, rank);
+	}
+
+	// Raises the bucket's register to the rank, if it is lower. Must be
+	// called while holding the sketch's lock.
+	private boolean raise(int bucket, int rank) {
+		if (registers != null) {
+			if (rank > registers[bucket]) {
+				registers[bucket] = (byte) rank;
+				return true;
+			}
+			return false;
+		}
+
+		int i = findEntry(bucket);
+		if (i >= 0) {
+			if (rank > (entries[i] & 0xff)) {
+				entries[i] = bucket << 8 | rank;
+				return true;
+			}
+			return false;
+		}
+		if (4 * (entryCount + 1) > (1 << precision)) {
+			toDense();
+			registers[bucket] = (byte) rank;
+			return true;
+		}
+		i = -(i + 1);
+		if (entryCount == entries.length) {
+			int capacity = Math.max(INITIAL_SPARSE_CAPACITY, entryCount + (entryCount >> 1));
+			entries = Arrays.copyOf(entries, Math.min(capacity, (1 << precision) / 4));
+		}
+		System.arraycopy(entries, i, entries, i + 1, entryCount - i);
+		entries[i] = bucket << 8 | rank;
+		entryCount++;
+		return true;
+	}
+
+	// Binary search of the sparse entries by bucket, with the same result
+	// as Arrays.binarySearch()
+	private int findEntry(int bucket) {
+		int low = 0;
+		int high = entryCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int b = entries[mid] >>> 8;
+			if (b < bucket) {
+				low = mid + 1;
+			} else if (b > bucket) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void toDense() {
+		byte[] dense = new byte[1 << precision];
+		for (int i = 0; i < entryCount; i++) {
+			dense[entries[i] >>> 8] = (byte) (entries[i] & 0xff);
+		}
+		registers = dense;
+		entries = null;
+		entryCount = 0;
+	}
+
+	/**
+	 * Returns the estimated number of distinct values offered to the sketch.
+	 * 
+	 * @return
+	 */
+	public synchronized long estimate() {
+		int m = 1 << precision;
+		double sum = 0;
+		int zeros = 0;
+		if (registers != null) {
+			for (byte r : registers) {
+				sum += 1.0 / (1L << r);
+				if (r == 0) {
+					zeros++;
+				}
+			}
+		} else {
+			// Every bucket without an entry has a register of 0
+			zeros = m - entryCount;
+			sum = zeros;
+			for (int i = 0; i < entryCount; i++) {
+				sum += 1.0 / (1L << (entries[i] & 0xff));
+			}
+		}
+		double estimate = alpha(m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// Linear counting is more accurate while most buckets are empty
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Merges another sketch into this one, so that this sketch estimates
+	 * the union of the values offered to both. If the other sketch has a
+	 * higher precision, it is folded down to this sketch's precision; a
+	 * sketch with a lower precision can't be merged into this one, so
+	 * merge this one into it instead (see merge(HyperLogLog, HyperLogLog)).
+	 * 
+	 * @param other
+	 * @return true if this sketch changed
+	 */
+	public boolean merge(HyperLogLog other) {
+		if (other.precision < precision) {
+			throw new IllegalArgumentException("Can't merge a sketch with a precision of "
+					+ other.precision + " into one with a precision of " + precision);
+		}
+		int[] theirs = other.foldedEntries(precision);
+		boolean changed = false;
+		synchronized (this) {
+			for (int entry : theirs) {
+				changed |= raise(entry >>> 8, entry & 0xff);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns a new sketch of the union of the values offered to both
+	 * sketches, at the lower of their precisions.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static HyperLogLog merge(HyperLogLog a, HyperLogLog b) {
+		HyperLogLog union = new HyperLogLog(Math.min(a.precision, b.precision));
+		union.merge(a);
+		union.merge(b);
+		return union;
+	}
+
+	// Returns the non-zero registers that this sketch would have had at
+	// the given (lower or equal) precision, as (bucket << 8 | rank)
+	// entries. Each bucket at the lower precision covers
+	// 2^(precision - p) of this sketch's buckets, and the bucket bits that
+	// are dropped become the leading bits of the run of zeros. A folded
+	// bucket may appear more than once.
+	private synchronized int[] foldedEntries(int p) {
+		int dropped = precision - p;
+		int[] folded;
+		int n = 0;
+		if (registers != null) {
+			folded = new int[registers.length];
+			for (int i = 0; i < registers.length; i++) {
+				if (registers[i] != 0) {
+					folded[n++] = fold(i, registers[i], dropped);
+				}
+			}
+		} else {
+			folded = new int[entryCount];
+			for (int i = 0; i < entryCount; i++) {
+				folded[n++] = fold(entries[i] >>> 8, entries[i] & 0xff, dropped);
+			}
+		}
+		return (n == folded.length) ? folded : Arrays.copyOf(folded, n);
+	}
+
+	private static int fold(int bucket, int rank, int dropped) {
+		if (dropped == 0) {
+			return bucket << 8 | rank;
+		}
+		int lowBits = bucket & ((1 << dropped) - 1);
+		int foldedRank = (lowBits != 0) 
+				? Integer.numberOfLeadingZeros(lowBits) - (32 - dropped) + 1
+				: dropped + rank;
+		return (bucket >>> dropped) << 8 | foldedRank;
+	}
+
+	/**
+	 * Returns the sketch as bytes that can be stored and read back with
+	 * fromBytes(). A dense sketch is the precision followed by the
+	 * registers. A sparse sketch is the precision with SPARSE_FLAG set,
+	 * followed by three bytes (the bucket and the rank) per entry.
+	 * 
+	 * @return
+	 */
+	public synchronized byte[] toBytes() {
+		if (registers != null) {
+			byte[] bytes = new byte[registers.length + 1];
+			bytes[0] = (byte) precision;
+			System.arraycopy(registers, 0, bytes, 1, registers.length);
+			return bytes;
+		}
+		byte[] bytes = new byte[3 * entryCount + 1];
+		bytes[0] = (byte) (precision | SPARSE_FLAG);
+		for (int i = 0; i < entryCount; i++) {
+			int bucket = entries[i] >>> 8;
+			bytes[3 * i + 1] = (byte) (bucket >>> 8);
+			bytes[3 * i + 2] = (byte) bucket;
+			bytes[3 * i + 3] = (byte) entries[i];
+		}
+		return bytes;
+	}
+
+	public static HyperLogLog fromBytes(byte[] bytes) {
+		HyperLogLog sketch = new HyperLogLog(bytes[0] & ~SPARSE_FLAG & 0xff);
+		int m = 1 << sketch.precision;
+		if ((bytes[0] & SPARSE_FLAG) != 0) {
+			if ((bytes.length - 1) % 3 != 0) {
+				throw new IllegalArgumentException("Expected 3 bytes per entry of a sparse sketch but got "
+						+ (bytes.length - 1) + " bytes");
+			}
+			for (int i = 1; i < bytes.length; i += 3) {
+				int bucket = (bytes[i] & 0xff) << 8 | (bytes[i + 1] & 0xff);
+				if (bucket >= m) {
+					throw new IllegalArgumentException("Bucket " + bucket 
+							+ " is out of range for a sketch with a precision of " + sketch.precision);
+				}
+				sketch.raise(bucket, bytes[i + 2] & 0xff);
+			}
+			return sketch;
+		}
+		if (bytes.length != m + 1) {
+			throw new IllegalArgumentException("Expected " + (m + 1)
+					+ " bytes for a sketch with a precision of " + bytes[0] + " but got " + bytes.length);
+		}
+		sketch.registers = Arrays.copyOfRange(bytes, 1, bytes.length);
+		sketch.entries = null;
+		return sketch;
+	}
+
+	private static double alpha(int m) {
+		switch (m) {
+		case 16:
+			return 0.673;
+		case 32:
+			return 0.697;
+		case 64:
+			return 0.709;
+		default:
+			return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+
+	// 64-bit FNV-1a over the string's chars, finished with the MurmurHash3
+	// mixer so that every bit of the hash depends on every char
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
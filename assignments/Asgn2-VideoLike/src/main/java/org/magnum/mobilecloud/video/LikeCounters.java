@@ -0,0 +1,146 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PreDestroy;
+
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the live likes count of each video that has been liked or unliked
+ * since the server started, in a StripedCounter, so that concurrent likes
+ * of the same video never wait on each other or on a row lock in the
+ * database. The counts are written back to Video.likes by a periodic
+ * write-behind task (every video.likes.flushIntervalMs milliseconds).
+ * 
+ * The video_like table stays the source of truth: a video's counter is
+ * seeded from the number of its rows the first time it is needed, so a
+ * count that was not yet written back when the server stopped is simply
+ * recounted.
+ * 
+ * @author mitchell
+ */
+@Component
+public class LikeCounters {
+
+	private static final Logger log = LoggerFactory.getLogger(LikeCounters.class);
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	@Autowired
+	private LikeLeaderboard leaderboard;
+
+	private final ConcurrentMap<Long, StripedCounter> counters = 
+			new ConcurrentHashMap<Long, StripedCounter>();
+
+	// The videos whose counts have changed since they were last written
+	// back to the database
+	private final ConcurrentMap<Long, Boolean> dirty = 
+			new ConcurrentHashMap<Long, Boolean>();
+
+	// Make sure that the video has a counter. This must be called before
+	// a like of the video is inserted or deleted, so that the count the
+	// counter is seeded with never already includes that change.
+	public void track(long videoId) {
+		getCounter(videoId);
+	}
+
+	public void add(long videoId, long delta) {
+		StripedCounter counter = getCounter(videoId);
+		counter.add(delta);
+		leaderboard.update(videoId, counter);
+		// Marked after the update, so the flush that clears the mark is
+		// guaranteed to see the update
+		dirty.put(videoId, Boolean.TRUE);
+	}
+
+	public long getLikes(long videoId) {
+		return getCounter(videoId).sum();
+	}
+
+	// Replaces the likes of the video with its live count, if the video
+	// has one, so that clients never see a count that hasn't been written
+	// back yet
+	public Video applyTo(Video v) {
+		if (v != null) {
+			StripedCounter counter = counters.get(v.getId());
+			if (counter != null) {
+				v.setLikes(counter.sum());
+			}
+		}
+		return v;
+	}
+
+	public <T extends Iterable<Video>> T applyTo(T videos) {
+		for (Video v : videos) {
+			applyTo(v);
+		}
+		return videos;
+	}
+
+	private StripedCounter getCounter(long videoId) {
+		StripedCounter counter = counters.get(videoId);
+		if (counter == null) {
+			StripedCounter seeded = new StripedCounter(likes.countByVideoId(videoId));
+			counter = counters.putIfAbsent(videoId, seeded);
+			if (counter == null) {
+				counter = seeded;
+			}
+		}
+		return counter;
+	}
+
+	// Write the counts of the videos that changed since the last flush
+	// back to the database. Each video costs a single UPDATE no matter how
+	// many times it was liked in between.
+	@Scheduled(fixedDelayString = "${video.likes.flushIntervalMs:1000}")
+	@PreDestroy
+	public void flush() {
+		Iterator<Long> it = dirty.keySet().iterator();
+		while (it.hasNext()) {
+			Long videoId = it.next();
+			// Clear the mark before reading the count, so an update that
+			// happens after the read marks the video dirty again
+			it.remove();
+			long count = counters.get(videoId).sum();
+			try {
+				videos.setLikes(videoId, count);
+			} catch (RuntimeException e) {
+				dirty.put(videoId, Boolean.TRUE);
+				log.warn("Could not write back the likes of video " + videoId, e);
+			}
+		}
+	}
+
+}
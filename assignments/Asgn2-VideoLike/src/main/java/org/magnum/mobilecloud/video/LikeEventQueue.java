@@ -0,0 +1,265 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PreDestroy;
+
+import org.magnum.mobilecloud.video.repository.VideoLike;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Buffers likes and unlikes in memory and writes them to the video_like
+ * table in batches, so that a burst of likes costs one JDBC batch (and one
+ * commit) per video.likes.batchSize changes instead of a transaction per
+ * click.
+ * 
+ * The queue holds the latest wanted state (liked or not) of each (video,
+ * user) pair that changed since the last flush. Toggling a like back and
+ * forth within a flush interval just overwrites the pair's state, so only
+ * the final state is written. Whether a like or unlike is allowed is
+ * decided against the LikedVideoIndex, which is always up to date, and the
+ * index and the queue are changed together under a lock stripe for the
+ * video, so a user can't like a video twice even while an earlier like is
+ * being flushed.
+ * 
+ * The queued changes are grouped by video, so the changes of one video
+ * can be read (see getPending()) without scanning the whole queue. The
+ * stripe is chosen by video rather than by pair so that a flush can drop
+ * a video's emptied group without racing a change that is being added to
+ * it. The stripe is only held to update the index and the group, and the
+ * likes count is updated outside it (see LikeCounters).
+ * 
+ * The queue is flushed every video.likes.eventFlushIntervalMs milliseconds
+ * and on shutdown. Changes that are still queued when the process dies are
+ * lost, just as if their requests had never been made.
+ * 
+ * @author mitchell
+ */
+@Component
+public class LikeEventQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(LikeEventQueue.class);
+
+	// Conditional so that a like of a video that was never stored (or a
+	// like that was already written) inserts nothing
+	private static final String INSERT_LIKE = "INSERT INTO video_like (video_id, user_id) "
+			+ "SELECT v.id, ? FROM video v WHERE v.id = ? "
+			+ "AND NOT EXISTS (SELECT 1 FROM video_like l WHERE l.video_id = v.id AND l.user_id = ?)";
+
+	private static final String DELETE_LIKE = "DELETE FROM video_like WHERE video_id = ? AND user_id = ?";
+
+	private static final int LOCK_STRIPES = 64;
+
+	@Autowired
+	private LikedVideoIndex likedVideos;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	private final TransactionTemplate transactions;
+
+	private final int batchSize;
+
+	// The wanted state of each changed pair, by video id and then user id.
+	// A video's map is removed, under the video's lock stripe, once it is
+	// empty, so only videos with queued changes take up memory.
+	private final ConcurrentMap<Long, ConcurrentMap<Integer, Boolean>> pending = 
+			new ConcurrentHashMap<Long, ConcurrentMap<Integer, Boolean>>();
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	@Autowired
+	public LikeEventQueue(PlatformTransactionManager transactionManager,
+			@Value("${video.likes.batchSize:500}") int batchSize) {
+		this.transactions = new TransactionTemplate(transactionManager);
+		this.batchSize = Math.max(1, batchSize);
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Queues a change of whether the user likes the video. Returns false,
+	 * without queueing anything, if the user already likes (or, when liked
+	 * is false, already doesn't like) the video.
+	 * 
+	 * @param videoId
+	 * @param userId
+	 * @param liked
+	 * @return
+	 */
+	public boolean setLiked(long videoId, int userId, boolean liked) {
+		synchronized (lockFor(videoId)) {
+			if (!likedVideos.setLiked(userId, videoId, liked)) {
+				return false;
+			}
+			getOrCreateChanges(videoId).put(userId, liked);
+			return true;
+		}
+	}
+
+	private ConcurrentMap<Integer, Boolean> getOrCreateChanges(long videoId) {
+		ConcurrentMap<Integer, Boolean> changes = pending.get(videoId);
+		if (changes == null) {
+			ConcurrentMap<Integer, Boolean> fresh = new ConcurrentHashMap<Integer, Boolean>();
+			changes = pending.putIfAbsent(videoId, fresh);
+			if (changes == null) {
+				changes = fresh;
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Returns a snapshot of the queued changes for the video, keyed by
+	 * user id. Callers that apply the changes to likes read from the
+	 * database must take the snapshot before reading the database, since a
+	 * change may be flushed in between.
+	 * 
+	 * @param videoId
+	 * @return
+	 */
+	public Map<Integer, Boolean> getPending(long videoId) {
+		ConcurrentMap<Integer, Boolean> changes = pending.get(videoId);
+		return (changes != null) 
+				? new HashMap<Integer, Boolean>(changes) 
+				: new HashMap<Integer, Boolean>();
+	}
+
+	public int getPendingCount() {
+		int count = 0;
+		for (ConcurrentMap<Integer, Boolean> changes : pending.values()) {
+			count += changes.size();
+		}
+		return count;
+	}
+
+	// Write everything that is queued to the database, batchSize changes
+	// at a time. A pair that changes again while its batch is being written
+	// stays queued for the next flush.
+	@Scheduled(fixedDelayString = "${video.likes.eventFlushIntervalMs:200}")
+	@PreDestroy
+	public void flush() {
+		List<Map.Entry<VideoLike.Key, Boolean>> batch = new ArrayList<Map.Entry<VideoLike.Key, Boolean>>(batchSize);
+		for (Map.Entry<Long, ConcurrentMap<Integer, Boolean>> video : pending.entrySet()) {
+			long videoId = video.getKey();
+			for (Map.Entry<Integer, Boolean> e : video.getValue().entrySet()) {
+				batch.add(new AbstractMap.SimpleImmutableEntry<VideoLike.Key, Boolean>(
+						new VideoLike.Key(videoId, e.getKey()), e.getValue()));
+				if (batch.size() == batchSize) {
+					write(batch);
+					batch.clear();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			write(batch);
+		}
+	}
+
+	private void write(Collection<Map.Entry<VideoLike.Key, Boolean>> batch) {
+		final List<VideoLike.Key> inserts = new ArrayList<VideoLike.Key>();
+		final List<VideoLike.Key> deletes = new ArrayList<VideoLike.Key>();
+		for (Map.Entry<VideoLike.Key, Boolean> e : batch) {
+			(e.getValue() ? inserts : deletes).add(e.getKey());
+		}
+
+		try {
+			transactions.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					if (!inserts.isEmpty()) {
+						jdbc.batchUpdate(INSERT_LIKE, new BatchPreparedStatementSetter() {
+							@Override
+							public void setValues(PreparedStatement ps, int i) throws SQLException {
+								VideoLike.Key key = inserts.get(i);
+								ps.setInt(1, key.getUserId());
+								ps.setLong(2, key.getVideoId());
+								ps.setInt(3, key.getUserId());
+							}
+
+							@Override
+							public int getBatchSize() {
+								return inserts.size();
+							}
+						});
+					}
+					if (!deletes.isEmpty()) {
+						jdbc.batchUpdate(DELETE_LIKE, new BatchPreparedStatementSetter() {
+							@Override
+							public void setValues(PreparedStatement ps, int i) throws SQLException {
+								VideoLike.Key key = deletes.get(i);
+								ps.setLong(1, key.getVideoId());
+								ps.setInt(2, key.getUserId());
+							}
+
+							@Override
+							public int getBatchSize() {
+								return deletes.size();
+							}
+						});
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// Leave the batch queued so that the next flush retries it
+			log.warn("Could not write a batch of " + batch.size() + " likes", e);
+			return;
+		}
+
+		// Only forget the pairs whose state didn't change while the batch
+		// was being written
+		for (Map.Entry<VideoLike.Key, Boolean> e : batch) {
+			VideoLike.Key key = e.getKey();
+			synchronized (lockFor(key.getVideoId())) {
+				ConcurrentMap<Integer, Boolean> changes = pending.get(key.getVideoId());
+				if (changes != null && changes.remove(key.getUserId(), e.getValue()) && changes.isEmpty()) {
+					pending.remove(key.getVideoId(), changes);
+				}
+			}
+		}
+	}
+
+	private Object lockFor(long videoId) {
+		return locks[(Long.valueOf(videoId).hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+
+}
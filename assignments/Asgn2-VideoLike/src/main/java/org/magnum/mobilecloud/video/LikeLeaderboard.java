@@ -0,0 +1,178 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.annotation.PostConstruct;
+
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps every video ranked by its number of likes, so that the most-liked
+ * videos can be read without sorting the video table. The ranking is a
+ * skip list ordered by likes (descending) and then id, and it is updated
+ * by LikeCounters on every like and unlike: moving a video costs
+ * O(log n), and reading the top k walks the first k entries of the list.
+ * 
+ * The ranking is rebuilt from the database when the server starts. The
+ * counts come from the video_like table, since Video.likes may not have
+ * been written back before the server stopped.
+ * 
+ * @author mitchell
+ */
+@Component
+public class LikeLeaderboard {
+
+	private static final int LOCK_STRIPES = 64;
+
+	// A video's position in the ranking. Entries are immutable: a video
+	// that is liked gets a new entry and its old one is removed.
+	private static final class Entry implements Comparable<Entry> {
+		final long videoId;
+		final long likes;
+
+		Entry(long videoId, long likes) {
+			this.videoId = videoId;
+			this.likes = likes;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			if (likes != o.likes) {
+				return likes > o.likes ? -1 : 1;
+			}
+			return Long.compare(videoId, o.videoId);
+		}
+	}
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<Entry>();
+
+	private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	public LikeLeaderboard() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@PostConstruct
+	public void rebuild() {
+		for (Long id : videos.findAllIds()) {
+			addIfAbsent(id);
+		}
+		for (Object[] row : likes.countByVideo()) {
+			update(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+		}
+	}
+
+	/**
+	 * Moves the video to its place for the given number of likes, adding
+	 * it to the ranking if it isn't there yet.
+	 * 
+	 * @param videoId
+	 * @param likes
+	 */
+	public void update(long videoId, long likes) {
+		synchronized (lockFor(videoId)) {
+			move(videoId, likes);
+		}
+	}
+
+	/**
+	 * Adds a new video to the ranking with no likes, unless it is already
+	 * ranked. A new video is visible as soon as it is saved, so a like can
+	 * rank it before it is added here, and that count must not be reset.
+	 * 
+	 * @param videoId
+	 */
+	public void addIfAbsent(long videoId) {
+		synchronized (lockFor(videoId)) {
+			if (!entries.containsKey(videoId)) {
+				move(videoId, 0);
+			}
+		}
+	}
+
+	// Moves the video to its place for the current sum of its counter.
+	// The sum is read under the video's lock, so concurrent updates can't
+	// leave the video ranked by a count that a later like has replaced.
+	void update(long videoId, StripedCounter likes) {
+		synchronized (lockFor(videoId)) {
+			move(videoId, likes.sum());
+		}
+	}
+
+	private void move(long videoId, long likes) {
+		Entry old = entries.get(videoId);
+		if (old != null && old.likes == likes) {
+			return;
+		}
+		Entry entry = new Entry(videoId, likes);
+		// Add the new entry before removing the old one, so a reader sees
+		// the video twice (and skips the copy) rather than not at all
+		ranking.add(entry);
+		entries.put(videoId, entry);
+		if (old != null) {
+			ranking.remove(old);
+		}
+	}
+
+	private Object lockFor(long videoId) {
+		return locks[(Long.valueOf(videoId).hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+
+	/**
+	 * Returns the ids of the k most-liked videos, most-liked first.
+	 * 
+	 * @param k
+	 * @return
+	 */
+	public List<Long> getTop(int k) {
+		List<Long> top = new ArrayList<Long>(Math.max(0, k));
+		Set<Long> seen = new HashSet<Long>();
+		for (Entry e : ranking) {
+			if (top.size() >= k) {
+				break;
+			}
+			if (seen.add(e.videoId)) {
+				top.add(e.videoId);
+			}
+		}
+		return top;
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * A reverse index from each user (by the id that UsernameDictionary gives
+ * the user) to the ids of the videos that the user likes, kept as a
+ * SortedLongSet per user. It answers "does user X like
+ * video Y" for any number of videos without loading a Video or touching
+ * the database.
+ * 
+ * A user's set is loaded from the video_like table the first time the
+ * user is looked up, and from then on every like and unlike of the user
+ * goes through the index (see LikeEventQueue.setLiked()). Since a user's
+ * likes can only change after the user's set is loaded, the table is
+ * always up to date for a user that isn't in the index yet, even while
+ * other users' likes are still queued for writing. Sets are never evicted,
+ * so the index holds every user that liked or looked up a video since the
+ * server started.
+ * 
+ * @author mitchell
+ */
+@Component
+public class LikedVideoIndex {
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	private final ConcurrentMap<Integer, SortedLongSet> likedVideos = 
+			new ConcurrentHashMap<Integer, SortedLongSet>();
+
+	public boolean isLiked(int userId, long videoId) {
+		return getLikedVideos(userId).contains(videoId);
+	}
+
+	// Records whether the user likes the video. Returns false if that was
+	// already the case.
+	public boolean setLiked(int userId, long videoId, boolean liked) {
+		SortedLongSet videoIds = getLikedVideos(userId);
+		return liked ? videoIds.add(videoId) : videoIds.remove(videoId);
+	}
+
+	private SortedLongSet getLikedVideos(int userId) {
+		SortedLongSet videoIds = likedVideos.get(userId);
+		if (videoIds == null) {
+			List<Long> stored = likes.findVideoIdsByUserId(userId);
+			long[] ids = new long[stored.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = stored.get(i);
+			}
+			SortedLongSet loaded = new SortedLongSet(ids);
+			videoIds = likedVideos.putIfAbsent(userId, loaded);
+			if (videoIds == null) {
+				videoIds = loaded;
+			}
+		}
+		return videoIds;
+	}
+
+}
@@ -19,17 +19,27 @@
 package org.magnum.mobilecloud.video;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.magnum.mobilecloud.video.client.VideoBatchSvcApi;
+import org.magnum.mobilecloud.video.client.VideoLikesSvcApi;
+import org.magnum.mobilecloud.video.client.VideoListSvcApi;
+import org.magnum.mobilecloud.video.client.VideoRankingSvcApi;
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.client.VideoTitleSearchSvcApi;
+import org.magnum.mobilecloud.video.client.VideoViewsSvcApi;
 import org.magnum.mobilecloud.video.repository.Video;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -42,9 +52,47 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
 @Controller
 public class MyController {
 	
+	// The most videos that a page of GET /video will return
+	private static final int MAX_VIDEO_PAGE_SIZE = 100;
+	
+	// The most videos that a title prefix search will return
+	private static final int MAX_PREFIX_SEARCH_RESULTS = 100;
+	
+	// The most videos that GET /video/top will return
+	private static final int MAX_TOP_VIDEOS = 100;
+	
+	// The most usernames that a page of GET /video/{id}/likedby will return
+	private static final int MAX_LIKEDBY_PAGE_SIZE = 1000;
+	
+	// The most videos that POST /video/batch will add at once
+	private static final int MAX_BATCH_VIDEOS = 10000;
+	
+	// The most videos that POST /video/liked-status will answer for
+	private static final int MAX_LIKED_STATUS_IDS = 1000;
+	
+	// The number of usernames read from the database at a time while
+	// streaming all the likers of a video
+	private static final int LIKEDBY_STREAM_PAGE_SIZE = 500;
+	
+	// The number of videos read from the database at a time while
+	// streaming the list of videos or the results of a title search
+	private static final int VIDEO_STREAM_PAGE_SIZE = 500;
+	
+	// A MappingJsonFactory's generators can write whole Videos as well
+	// as strings and numbers
+	private static final JsonFactory JSON = new MappingJsonFactory();
+	
 	// The VideoRepository that we are going to store our videos
 	// in. We don't explicitly construct a VideoRepository, but
 	// instead mark this object as a dependency that needs to be
@@ -59,30 +107,123 @@ public class MyController {
 	
 	@Autowired
 	private VideoRepository videos;
+	
+	// Serves lookups by id and searches from memory when it can, and
+	// saves new videos through to the repository
+	@Autowired
+	private VideoCache videoCache;
+	
+	// Records which users like which videos and keeps the likes
+	// count of each video up to date
+	@Autowired
+	private VideoLikeService likeService;
+	
+	// The live likes counts, which can be ahead of the counts
+	// stored in the videos
+	@Autowired
+	private LikeCounters likeCounters;
+	
+	// The videos ranked by their live likes counts
+	@Autowired
+	private LikeLeaderboard leaderboard;
+	
+	// Estimates how many distinct users have viewed each video
+	@Autowired
+	private UniqueViewers uniqueViewers;
 		
 	// GET /video 
 	// Requests to VIDEO_SVC_PATH and returns the current list of 
-	// videos in memory. Spring automatically converts
-	// the list of videos to JSON because of the @ResponseBody
-	// annotation.
+	// videos. The JSON array is streamed to the client a page of
+	// videos at a time as they are read from the database, so the
+	// whole list is never in memory and the first videos go out
+	// before the last ones have been read.
 	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET)
-	public @ResponseBody Collection<Video> getVideoList(){			
-		Collection<Video> allVideos = videos.findAll();
-		return allVideos;
+	public void getVideoList(HttpServletResponse response) throws IOException {
+		writeVideos(null, response);
+	}
+	
+	// GET /video?limit={limit}[&after={id}]
+	// Returns the next page of up to limit videos, in id order, after the
+	// video with the given id. Clients start with after=0 and pass the id
+	// of the last video of a full page to get the next one. Each page is
+	// read with "where id > after order by id" rather than an offset, so
+	// a page deep into the videos costs no more than the first one.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET,
+			params=VideoListSvcApi.LIMIT_PARAMETER)
+	public @ResponseBody List<Video> getVideoList(
+			@RequestParam(value=VideoListSvcApi.AFTER_PARAMETER, defaultValue="0") long after,
+			@RequestParam(value=VideoListSvcApi.LIMIT_PARAMETER) int limit){
+		int size = Math.max(1, Math.min(limit, MAX_VIDEO_PAGE_SIZE));
+		List<Video> page = videos.findByIdGreaterThanOrderByIdAsc(after, new PageRequest(0, size));
+		return likeCounters.applyTo(page);
 	}
 	
 	// GET /video/search/findByName?title={title}
 	// Requests to /video/find and returns all Videos
 	// that have a title (e.g., Video.name) matching the "title" request
 	// parameter value that is passed by the client or an empty
-	// list if none are found.
+	// list if none are found. Like the list of videos, the matches
+	// are streamed to the client a page at a time.
 	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET)
-	public @ResponseBody Collection<Video> findByTitle(
+	public void findByTitle(
 			// Tell Spring to use the "title" parameter in the HTTP request's query
 			// string as the value for the title method parameter
+			@RequestParam(value=VideoSvcApi.TITLE_PARAMETER) String title,
+			HttpServletResponse response) throws IOException {
+		writeVideos(title, response);
+	}
+	
+	// Writes the videos with the given title, or all videos if title is
+	// null, to the response as a JSON array. The videos are read a page at
+	// a time in id order, each page starting after the last id of the one
+	// before, and each full page is flushed to the client before the next
+	// one is read.
+	private void writeVideos(String title, HttpServletResponse response) throws IOException {
+		response.setContentType("application/json;charset=UTF-8");
+		JsonGenerator json = JSON.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+		json.writeStartArray();
+		PageRequest pageSize = new PageRequest(0, VIDEO_STREAM_PAGE_SIZE);
+		long after = 0;
+		while (true) {
+			List<Video> page = (title == null)
+					? videos.findByIdGreaterThanOrderByIdAsc(after, pageSize)
+					: videos.findByNameAndIdGreaterThanOrderByIdAsc(title, after, pageSize);
+			for (Video v : page) {
+				json.writeObject(likeCounters.applyTo(v));
+			}
+			if (page.size() < VIDEO_STREAM_PAGE_SIZE) {
+				break;
+			}
+			json.flush();
+			after = page.get(page.size() - 1).getId();
+		}
+		json.writeEndArray();
+		json.close();
+	}
+	
+	// GET /video/search/findByNameIgnoreCase?title={title}
+	// Returns all Videos with a title matching the "title" request
+	// parameter, ignoring case, or an empty list if none are found. The
+	// lower-cased title is looked up in the video_name_key index.
+	@RequestMapping(value=VideoTitleSearchSvcApi.VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findByTitleIgnoreCase(
 			@RequestParam(value=VideoSvcApi.TITLE_PARAMETER) String title
 			){
-		return videos.findByName(title);
+		return likeCounters.applyTo(videos.findByNameKey(Video.nameKeyOf(title)));
+	}
+	
+	// GET /video/search/findByNameStartingWith?prefix={prefix}
+	// Returns up to MAX_PREFIX_SEARCH_RESULTS Videos with titles that start
+	// with the "prefix" request parameter, ignoring case, in title order.
+	// The search reads a range of the video_name_key index.
+	@RequestMapping(value=VideoTitleSearchSvcApi.VIDEO_TITLE_PREFIX_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody List<Video> findByTitleStartingWith(
+			@RequestParam(value=VideoTitleSearchSvcApi.PREFIX_PARAMETER) String prefix
+			){
+		String from = Video.nameKeyOf(prefix);
+		String to = from + Character.MAX_VALUE;
+		return likeCounters.applyTo(videos.findByNameKeyRange(from, to, 
+				new PageRequest(0, MAX_PREFIX_SEARCH_RESULTS)));
 	}
 	
 	// GET /video/search/findByDurationLessThan?duration={duration}
@@ -94,17 +235,20 @@ public class MyController {
 			// string as the value for the duration method parameter
 			@RequestParam(value=VideoSvcApi.DURATION_PARAMETER) long maxduration
 			){
-		return videos.findByDurationLessThan(maxduration);
+		return likeCounters.applyTo(videoCache.findByDurationLessThan(maxduration));
 	}
 		
 	// GET /video/{id}
 	// GET requests with path variable {id} to serve up video metadata from the server	
+	// Each request counts as a view of the video by the current user.
 	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH + "/{id}", method = RequestMethod.GET)
 	public @ResponseBody Video getVideoById(
 			@PathVariable("id") long id,
+			Principal p,
+			HttpServletRequest request,
 			HttpServletResponse response) {
 
-		Video v = videos.findOne(id);
+		Video v = videoCache.findOne(id);
 		if (v == null) {
 			try {
 				response.sendError(404);
@@ -112,10 +256,27 @@ public class MyController {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+		} else {
+			uniqueViewers.recordView(id, (p != null) ? p.getName() : request.getRemoteAddr());
 		}
-		return videos.findOne(id);
+		return likeCounters.applyTo(v);
 	}	
 	
+	// GET /video/{id}/views
+	// Returns the estimated number of distinct users that have viewed the
+	// video, or 404 if the video is not found.
+	@RequestMapping(value=VideoViewsSvcApi.VIDEO_VIEWS_PATH, method = RequestMethod.GET)
+	public @ResponseBody Long getUniqueViews(
+			@PathVariable("id") long id,
+			HttpServletResponse response) throws IOException {
+
+		if (videoCache.findOne(id) == null) {
+			response.sendError(404);
+			return null;
+		}
+		return uniqueViewers.getUniqueViews(id);
+	}
+	
 	// POST /video 
 	// Requests to VIDEO_SVC_PATH converts the HTTP request body, which should contain JSON, 
 	// into a Video object before adding it repository. The @RequestBody
@@ -135,11 +296,78 @@ public class MyController {
 		// Video vhandle = videos.save(v);
 		// v.setUrl(createDataUrl(vhandle.getId()));
 		
+		// A new video has no likes, whatever the client sent: likes are
+		// only counted from the video_like table, which is also what the
+		// leaderboard is rebuilt from when the server restarts
+		v.setLikes(0);
+		
 		// update repository with URL
-		videos.save(v);
+		videoCache.save(v);
+		// The video can be liked as soon as it is saved, so only rank it
+		// if a like hasn't already
+		leaderboard.addIfAbsent(v.getId());
 		return v;
 	}	
 
+	// POST /video/batch
+	// Takes either a JSON array of videos or newline-delimited JSON (one
+	// video per line) and adds all of the videos in a single transaction,
+	// which Hibernate sends to the database as batches of inserts. Returns
+	// the ids assigned to the videos, in the order they were sent. Returns
+	// a 400 if the body isn't a list of videos or holds more than
+	// MAX_BATCH_VIDEOS of them.
+	@RequestMapping(value=VideoBatchSvcApi.VIDEO_BATCH_PATH, method=RequestMethod.POST)
+	public @ResponseBody List<Long> addVideos(
+			HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		List<Video> batch;
+		try {
+			batch = readVideos(request.getInputStream());
+		} catch (JsonProcessingException e) {
+			batch = null;
+		}
+		if (batch == null) {
+			response.sendError(400);
+			return null;
+		}
+
+		// As in addVideo, new videos start without likes
+		for (Video v : batch) {
+			v.setLikes(0);
+		}
+		List<Long> ids = new ArrayList<Long>(batch.size());
+		for (Video v : videoCache.save(batch)) {
+			leaderboard.addIfAbsent(v.getId());
+			ids.add(v.getId());
+		}
+		return ids;
+	}
+	
+	// Reads the videos from either a JSON array or a series of JSON objects
+	// separated by whitespace, which covers newline-delimited JSON. Returns
+	// null if there are more than MAX_BATCH_VIDEOS videos.
+	private List<Video> readVideos(InputStream in) throws IOException {
+		JsonParser json = JSON.createParser(in);
+		try {
+			List<Video> batch = new ArrayList<Video>();
+			JsonToken token = json.nextToken();
+			if (token == JsonToken.START_ARRAY) {
+				token = json.nextToken();
+			}
+			while (token != null && token != JsonToken.END_ARRAY) {
+				if (batch.size() == MAX_BATCH_VIDEOS) {
+					return null;
+				}
+				batch.add(json.readValueAs(Video.class));
+				token = json.nextToken();
+			}
+			return batch;
+		} finally {
+			json.close();
+		}
+	}
+
 // DISABLED setUrl to pass AutoGradingTest	
 //	// Method to generate a data URL to store a video
 //	private String createDataUrl(long videoId){
@@ -166,28 +394,8 @@ public class MyController {
 			@PathVariable("id") long id,
 			Principal p) {
 
-		// Check if id exists in repository
-		if (videos.exists(id) == false) {
-			return new ResponseEntity<Void>(HttpStatus.NOT_FOUND);
-		}
-		
-		// Get username of current login account
-		String username = p.getName();	
-		// Get video and list of usernames that like
-		Video v = videos.findOne(id);
-		List<String> likesUsernames = v.getLikesUsernames();  
-		
-		// Checks if the user has already liked the video (returns 400 Bad Request)
-		if (likesUsernames.contains(username)) {
-			return new ResponseEntity<Void>(HttpStatus.BAD_REQUEST);
-		} 
-		
-		// keep track of users have liked a video
-		likesUsernames.add(username);
-		v.setLikesUsernames(likesUsernames);
-		v.setLikes(likesUsernames.size());
-		videos.save(v);
-		return new ResponseEntity<Void>(HttpStatus.OK);
+		// Record the like for the username of the current login account
+		return toResponse(likeService.like(id, p.getName()));
 	}		
 	
 //	POST /video/{id}/unlike
@@ -198,49 +406,114 @@ public class MyController {
 			@PathVariable("id") long id,
 			Principal p) {
 
-		// Check if id exists in repository
-		if (videos.exists(id) == false) {
+		// Remove the like of the username of the current login account
+		return toResponse(likeService.unlike(id, p.getName()));
+	}
+	
+	// Returns 404 if the video wasn't found, 400 if the user already
+	// liked (or didn't like) the video, and 200 otherwise
+	private ResponseEntity<Void> toResponse(VideoLikeService.Result result) {
+		switch (result) {
+		case NOT_FOUND:
 			return new ResponseEntity<Void>(HttpStatus.NOT_FOUND);
-		}
-		
-		// Get username of current login account
-		String username = p.getName();
-		// Get video and list of usernames that like
-		Video v = videos.findOne(id);
-		List<String> likesUsernames = v.getLikesUsernames();  
-		
-		// Checks if the user has not previously liked the video (returns 400 Bad Request)
-		if (!likesUsernames.contains(username)) {
+		case ALREADY_DONE:
 			return new ResponseEntity<Void>(HttpStatus.BAD_REQUEST);
-		} 
-		
-		// keep track of users have liked a video
-		likesUsernames.remove(username);
-		v.setLikesUsernames(likesUsernames);
-		v.setLikes(likesUsernames.size());
-		videos.save(v);
-		return new ResponseEntity<Void>(HttpStatus.OK);
+		default:
+			return new ResponseEntity<Void>(HttpStatus.OK);
+		}
+	}
+
+	// GET /video/top?k={k}
+	// Returns the k most-liked videos, most-liked first. The ids come from
+	// the leaderboard, so only the k videos themselves are looked up, and
+	// those are almost always in the video cache.
+	@RequestMapping(value=VideoRankingSvcApi.VIDEO_TOP_PATH, method = RequestMethod.GET)
+	public @ResponseBody List<Video> getTopVideos(
+			@RequestParam(value=VideoRankingSvcApi.TOP_COUNT_PARAMETER, defaultValue="10") int k) {
+
+		List<Long> ids = leaderboard.getTop(Math.min(k, MAX_TOP_VIDEOS));
+		List<Video> top = new ArrayList<Video>(ids.size());
+		for (Long id : ids) {
+			Video v = videoCache.findOne(id);
+			if (v != null) {
+				top.add(v);
+			}
+		}
+		return likeCounters.applyTo(top);
 	}
 
 	//	GET /video/{id}/likedby
 	//	Returns a list of the string usernames of the users that have liked the specified video. 
 	//	If the video is not found, a 404 error should be generated.	
+	//  The JSON array is streamed to the client a page of usernames at a
+	//  time as they are read from the database, so a video with millions of
+	//  likers never has its whole list in memory.
 	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH + "/{id}/likedby", method = RequestMethod.GET)
+	public void getUsersWhoLikedVideo(
+			@PathVariable("id") long id,
+			HttpServletResponse response) throws IOException {
+
+		List<String> page = likeService.getUsersWhoLikedVideo(id, null, LIKEDBY_STREAM_PAGE_SIZE);
+		if (page == null) {
+			response.sendError(404);
+			return;
+		}
+
+		response.setContentType("application/json;charset=UTF-8");
+		JsonGenerator json = JSON.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+		json.writeStartArray();
+		while (true) {
+			for (String username : page) {
+				json.writeString(username);
+			}
+			if (page.size() < LIKEDBY_STREAM_PAGE_SIZE) {
+				break;
+			}
+			json.flush();
+			page = likeService.getUsersWhoLikedVideo(id, page.get(page.size() - 1), LIKEDBY_STREAM_PAGE_SIZE);
+		}
+		json.writeEndArray();
+		json.close();
+	}
+	
+	//	GET /video/{id}/likedby?limit={limit}[&after={username}]
+	//	Returns the next page of up to limit usernames, in order, of the users
+	//  that have liked the specified video, starting after the given username.
+	//  Clients pass the last username of a full page as after to get the next
+	//  one. If the video is not found, a 404 error should be generated.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH + "/{id}/likedby", method = RequestMethod.GET,
+			params=VideoLikesSvcApi.LIMIT_PARAMETER)
 	public @ResponseBody List<String> getUsersWhoLikedVideo(
 			@PathVariable("id") long id,
+			@RequestParam(value=VideoLikesSvcApi.AFTER_PARAMETER, required=false) String after,
+			@RequestParam(value=VideoLikesSvcApi.LIMIT_PARAMETER) int limit,
 			HttpServletResponse response) throws IOException {
 
-		// Check if id exists in repository
-		if (videos.exists(id) == false) {
+		List<String> page = likeService.getUsersWhoLikedVideo(id, after, Math.min(limit, MAX_LIKEDBY_PAGE_SIZE));
+		if (page == null) {
 			response.sendError(404);
 			return null;
 		}
-		
-		// Get video and list of usernames that like
-		Video v = videos.findOne(id);
-		List<String> likesUsernames = v.getLikesUsernames();  
+		return page;
+	}
+	
+	//	POST /video/liked-status
+	//	Takes a JSON array of video ids and returns a JSON object that maps
+	//  each id to whether the current user likes the video. The answers come
+	//  from the in-memory index of the videos that each user likes, so no
+	//  videos are loaded. Returns a 400 if more than MAX_LIKED_STATUS_IDS ids
+	//  are sent.
+	@RequestMapping(value=VideoLikesSvcApi.VIDEO_LIKED_STATUS_PATH, method = RequestMethod.POST)
+	public @ResponseBody Map<Long, Boolean> getLikedStatus(
+			@RequestBody List<Long> ids,
+			Principal p,
+			HttpServletResponse response) throws IOException {
 
-		return likesUsernames;
+		if (ids.size() > MAX_LIKED_STATUS_IDS) {
+			response.sendError(400);
+			return null;
+		}
+		return likeService.getLikedStatus(p.getName(), ids);
 	}
 	
 //	
@@ -0,0 +1,94 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs kept as a sorted primitive array. It costs 8 bytes per
+ * member (instead of the 40 or so of a boxed Long in a HashSet), and
+ * membership is a binary search. Adding or removing a member shifts the
+ * members after it, which is cheap for the sizes that a single user's
+ * likes reach.
+ * 
+ * The set is thread safe.
+ * 
+ * @author mitchell
+ */
+public class SortedLongSet {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private long[] values;
+
+	private int size;
+
+	public SortedLongSet() {
+		this.values = new long[0];
+	}
+
+	// Creates a set holding the given values, which may be unsorted and
+	// contain duplicates
+	public SortedLongSet(long[] members) {
+		long[] sorted = members.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[n - 1] != sorted[i]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		this.values = sorted;
+		this.size = n;
+	}
+
+	public synchronized boolean contains(long value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+
+	public synchronized boolean add(long value) {
+		int i = Arrays.binarySearch(values, 0, size, value);
+		if (i >= 0) {
+			return false;
+		}
+		i = -(i + 1);
+		if (size == values.length) {
+			values = Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, size + (size >> 1)));
+		}
+		System.arraycopy(values, i, values, i + 1, size - i);
+		values[i] = value;
+		size++;
+		return true;
+	}
+
+	public synchronized boolean remove(long value) {
+		int i = Arrays.binarySearch(values, 0, size, value);
+		if (i < 0) {
+			return false;
+		}
+		System.arraycopy(values, i + 1, values, i, size - i - 1);
+		size--;
+		return true;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+}
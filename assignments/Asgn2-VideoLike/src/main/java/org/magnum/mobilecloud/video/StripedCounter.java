@@ -0,0 +1,127 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that stays fast when many threads update it at once (e.g., a
+ * viral video that is being liked by thousands of users). It works like
+ * Java 8's LongAdder, which isn't available on Java 7: while there is no
+ * contention, updates go to a single AtomicLong. The first time a CAS on
+ * it fails, the counter inflates into a set of stripes, each padded onto
+ * its own cache line, and every thread from then on updates the stripe
+ * that its hash picks. A thread that collides with another on a stripe
+ * moves to a different one.
+ * 
+ * The value of the counter is the sum of the base and the stripes. A sum
+ * taken while updates are in progress includes some subset of them, but
+ * every update that finished before sum() was called is counted.
+ * 
+ * @author mitchell
+ */
+public class StripedCounter {
+
+	// One stripe per processor, rounded up to a power of two
+	private static final int STRIPES = 
+			Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	// Stripes are spaced 8 longs (64 bytes) apart so that no two stripes
+	// share a cache line
+	private static final int PAD = 8;
+
+	private static final Random SEEDS = new Random();
+
+	// Each thread's current stripe hash
+	private static final ThreadLocal<int[]> HASH = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			int seed;
+			synchronized (SEEDS) {
+				seed = SEEDS.nextInt();
+			}
+			return new int[] { (seed == 0) ? 1 : seed };
+		}
+	};
+
+	private final AtomicLong base;
+
+	private volatile AtomicLongArray stripes;
+
+	public StripedCounter() {
+		this(0);
+	}
+
+	public StripedCounter(long initialValue) {
+		base = new AtomicLong(initialValue);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public void add(long delta) {
+		AtomicLongArray s = stripes;
+		if (s == null) {
+			long b = base.get();
+			if (base.compareAndSet(b, b + delta)) {
+				return;
+			}
+			s = inflate();
+		}
+		int[] hash = HASH.get();
+		int i = (hash[0] & (STRIPES - 1)) * PAD;
+		long v = s.get(i);
+		if (!s.compareAndSet(i, v, v + delta)) {
+			// Another thread is using this stripe, so pick a different
+			// one for the next update (xorshift) and finish this one
+			int h = hash[0];
+			h ^= h << 13;
+			h ^= h >>> 17;
+			h ^= h << 5;
+			hash[0] = h;
+			s.addAndGet(i, delta);
+		}
+	}
+
+	public long sum() {
+		long sum = base.get();
+		AtomicLongArray s = stripes;
+		if (s != null) {
+			for (int i = 0; i < s.length(); i += PAD) {
+				sum += s.get(i);
+			}
+		}
+		return sum;
+	}
+
+	private synchronized AtomicLongArray inflate() {
+		if (stripes == null) {
+			stripes = new AtomicLongArray(STRIPES * PAD);
+		}
+		return stripes;
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PreDestroy;
+
+import org.magnum.mobilecloud.video.repository.VideoViewers;
+import org.magnum.mobilecloud.video.repository.VideoViewersRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Estimates the number of distinct users that have viewed each video with
+ * a HyperLogLog sketch per video, which takes at most
+ * 2^video.views.precision bytes (4KB by default) however many users view
+ * the video, and much less while only a few have (see HyperLogLog).
+ * 
+ * A video's sketch is loaded from the video_viewers table the first time
+ * it is needed. Sketches that changed are held in memory until they are
+ * merged back into the table, every video.views.flushIntervalMs
+ * milliseconds and on shutdown. After that they are only kept in a cache
+ * bounded to video.views.maxCachedBytes bytes of sketches, so videos that
+ * stop being viewed are eventually dropped and reloaded if they are
+ * needed again.
+ * 
+ * Since merging is a union, several servers can each merge their own
+ * sketches into the same row, and each server picks up the others'
+ * viewers when it merges. A merge that loses a race with another server's
+ * merge (on the row's version) is simply retried by the next flush.
+ * 
+ * @author mitchell
+ */
+@Component
+public class UniqueViewers {
+
+	private static final Logger log = LoggerFactory.getLogger(UniqueViewers.class);
+
+	@Autowired
+	private VideoViewersRepository viewers;
+
+	private final TransactionTemplate transactions;
+
+	private final int precision;
+
+	// Sketches that are merged into the database, weighed by their size
+	private final Cache<Long, HyperLogLog> clean;
+
+	// The sketches that have changed since they were last merged into the
+	// database. A video's sketch here is the one that views are recorded
+	// in, even if the cache holds another one.
+	private final ConcurrentMap<Long, HyperLogLog> dirty = 
+			new ConcurrentHashMap<Long, HyperLogLog>();
+
+	@Autowired
+	public UniqueViewers(PlatformTransactionManager transactionManager,
+			@Value("${video.views.precision:12}") int precision,
+			@Value("${video.views.maxCachedBytes:67108864}") long maxCachedBytes) {
+		this.transactions = new TransactionTemplate(transactionManager);
+		this.precision = Math.max(HyperLogLog.MIN_PRECISION, Math.min(HyperLogLog.MAX_PRECISION, precision));
+		this.clean = CacheBuilder.newBuilder()
+				.maximumWeight(maxCachedBytes)
+				.weigher(new Weigher<Long, HyperLogLog>() {
+					@Override
+					public int weigh(Long videoId, HyperLogLog sketch) {
+						return sketch.getSizeInBytes();
+					}
+				})
+				.build();
+	}
+
+	public void recordView(long videoId, String viewer) {
+		HyperLogLog sketch = getSketch(videoId);
+		if (sketch.offer(viewer)) {
+			markDirty(videoId, sketch);
+		}
+	}
+
+	public long getUniqueViews(long videoId) {
+		return getSketch(videoId).estimate();
+	}
+
+	private HyperLogLog getSketch(long videoId) {
+		HyperLogLog sketch = dirty.get(videoId);
+		if (sketch == null) {
+			sketch = clean.getIfPresent(videoId);
+		}
+		if (sketch == null) {
+			HyperLogLog loaded = new HyperLogLog(precision);
+			VideoViewers stored = viewers.findOne(videoId);
+			if (stored != null) {
+				// A sketch stored at a lower precision than ours can only be
+				// merged at its own precision
+				loaded = HyperLogLog.merge(loaded, HyperLogLog.fromBytes(stored.getSketch()));
+			}
+			sketch = clean.asMap().putIfAbsent(videoId, loaded);
+			if (sketch == null) {
+				sketch = loaded;
+			}
+		}
+		return sketch;
+	}
+
+	// Makes sure that the changes in the sketch are merged by the next
+	// flush. If another sketch of the video is already waiting (because
+	// the cache dropped this one and the video was loaded again, or a
+	// flush replaced it at a lower precision), this sketch is merged into
+	// that one instead. Replacing a sketch is a compare-and-set that is
+	// retried until it wins, and the old sketch is merged into its
+	// replacement once more afterwards, so a view that another thread
+	// recorded in the old sketch meanwhile is never lost.
+	private void markDirty(long videoId, HyperLogLog sketch) {
+		while (true) {
+			HyperLogLog current = dirty.putIfAbsent(videoId, sketch);
+			if (current == null || current == sketch) {
+				return;
+			}
+			if (current.getPrecision() <= sketch.getPrecision()) {
+				current.merge(sketch);
+				return;
+			}
+			HyperLogLog union = HyperLogLog.merge(current, sketch);
+			if (dirty.replace(videoId, current, union)) {
+				union.merge(current);
+				return;
+			}
+		}
+	}
+
+	// Merge the sketches that changed since the last flush into the
+	// database, and the database's sketches (which include the viewers
+	// seen by other servers) back into ours. Merged sketches move to the
+	// cache.
+	@Scheduled(fixedDelayString = "${video.views.flushIntervalMs:5000}")
+	@PreDestroy
+	public void flush() {
+		for (Map.Entry<Long, HyperLogLog> e : dirty.entrySet()) {
+			final Long videoId = e.getKey();
+			final HyperLogLog sketch = e.getValue();
+			// Move the sketch to the cache before reading it, so a view
+			// that is recorded after the read marks it dirty again
+			clean.put(videoId, sketch);
+			if (!dirty.remove(videoId, sketch)) {
+				continue;
+			}
+			try {
+				HyperLogLog union = transactions.execute(new TransactionCallback<HyperLogLog>() {
+					@Override
+					public HyperLogLog doInTransaction(TransactionStatus status) {
+						VideoViewers stored = viewers.findOne(videoId);
+						if (stored == null) {
+							viewers.save(new VideoViewers(videoId, sketch.toBytes()));
+							return sketch;
+						}
+						HyperLogLog union = HyperLogLog.merge(HyperLogLog.fromBytes(stored.getSketch()), sketch);
+						stored.setSketch(union.toBytes());
+						viewers.save(stored);
+						return union;
+					}
+				});
+				if (union.getPrecision() == sketch.getPrecision()) {
+					sketch.merge(union);
+					// Weigh the sketch again, now that it may have grown
+					clean.asMap().replace(videoId, sketch, sketch);
+				} else {
+					// Another server stored the video at a lower precision,
+					// so ours has to drop to it
+					replace(videoId, sketch, union);
+				}
+			} catch (RuntimeException ex) {
+				markDirty(videoId, sketch);
+				log.warn("Could not store the viewers of video " + videoId, ex);
+			}
+		}
+	}
+
+	// Replaces the video's sketch with the union of it and the given
+	// lower-precision sketch, wherever the old sketch is still in use
+	private void replace(long videoId, HyperLogLog sketch, HyperLogLog lower) {
+		HyperLogLog union = HyperLogLog.merge(lower, sketch);
+		clean.asMap().replace(videoId, sketch, union);
+		if (dirty.replace(videoId, sketch, union)) {
+			union.merge(sketch);
+		}
+	}
+
+}
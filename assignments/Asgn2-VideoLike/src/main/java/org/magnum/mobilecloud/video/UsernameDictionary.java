@@ -0,0 +1,114 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+
+import org.magnum.mobilecloud.video.repository.AppUser;
+import org.magnum.mobilecloud.video.repository.AppUserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps usernames to the dense int user ids that likes are stored and
+ * indexed by, and back. Every username is held once, here, and everything
+ * behind the API (the video_like table, the like queue and the liked-video
+ * index) works with 4-byte ids. Usernames are only looked up again when a
+ * response is written.
+ * 
+ * The whole dictionary is loaded when the server starts, so lookups never
+ * touch the database. Ids are handed out by the app_user table, in the
+ * order that users first like a video.
+ * 
+ * @author mitchell
+ */
+@Component
+public class UsernameDictionary {
+
+	@Autowired
+	private AppUserRepository users;
+
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	// Indexed by user id. Only replaced or written to while holding the
+	// dictionary's lock, and a username is stored before its id is
+	// published in ids, so a reader that found an id always finds its
+	// username here.
+	private volatile String[] usernames = new String[16];
+
+	@PostConstruct
+	public void load() {
+		for (AppUser user : users.findAll()) {
+			register(user.getId(), user.getUsername());
+		}
+	}
+
+	/**
+	 * Returns the id of the user, or null if the user has never been given
+	 * one.
+	 * 
+	 * @param username
+	 * @return
+	 */
+	public Integer getId(String username) {
+		return ids.get(username);
+	}
+
+	/**
+	 * Returns the id of the user, giving the user a new one if needed.
+	 * 
+	 * @param username
+	 * @return
+	 */
+	public int intern(String username) {
+		Integer id = ids.get(username);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(username);
+			if (id == null) {
+				AppUser user = users.save(new AppUser(username));
+				register(user.getId(), username);
+				id = user.getId();
+			}
+			return id;
+		}
+	}
+
+	public String getUsername(int id) {
+		String[] names = usernames;
+		return (id >= 0 && id < names.length) ? names[id] : null;
+	}
+
+	private synchronized void register(int id, String username) {
+		String[] names = usernames;
+		if (id >= names.length) {
+			names = Arrays.copyOf(names, Math.max(id + 1, names.length * 2));
+		}
+		names[id] = username;
+		usernames = names;
+		ids.put(username, id);
+	}
+
+}
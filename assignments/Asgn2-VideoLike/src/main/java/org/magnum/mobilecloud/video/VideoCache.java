@@ -0,0 +1,210 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * A read-through cache in front of the VideoRepository for lookups by id
+ * and for the results of the duration searches, so that reads of
+ * popular videos and repeated searches don't go to the database.
+ * 
+ * Both caches are bounded and entries expire video.cache.ttlSeconds after
+ * they were loaded. The cache by id holds up to video.cache.maxVideos
+ * videos. The search results are weighed by the number of videos in
+ * them, and together hold up to video.cache.maxQueryVideos videos; a
+ * result with more than video.cache.maxQueryResultVideos videos (such as
+ * a search for any duration below a huge one, which matches most of the
+ * table) isn't cached at all, since it would push every other result
+ * out. Saving a video through the cache writes it through to the
+ * repository, caches it by id, and drops every cached search result,
+ * since the new video may match any of them. A search that was already
+ * reading the repository when the video was saved may not have seen
+ * it, so its result is returned but not cached. Likes and unlikes don't
+ * evict anything: the likes count of a video is always overlaid from
+ * LikeCounters when it's returned, and the likers of a video aren't part
+ * of a Video.
+ * 
+ * Callers get their own copies of the cached videos, which they are free
+ * to change. The hit ratio, hits, misses, evictions and size of each
+ * cache are published as gauges to the actuator's /metrics endpoint (as
+ * gauge.cache.videos.* and gauge.cache.video-queries.*).
+ * 
+ * @author mitchell
+ */
+@Component
+public class VideoCache {
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private GaugeService gauges;
+
+	private final Cache<Long, Video> byId;
+
+	private final Cache<String, List<Video>> queries;
+
+	private final int maxQueryResultVideos;
+
+	// Bumped by every save before it drops the cached search results. A
+	// search only caches its result if no save started while it was
+	// reading the repository.
+	private final AtomicLong generation = new AtomicLong();
+
+	@Autowired
+	public VideoCache(
+			@Value("${video.cache.maxVideos:10000}") long maxVideos,
+			@Value("${video.cache.maxQueryVideos:100000}") long maxQueryVideos,
+			@Value("${video.cache.maxQueryResultVideos:1000}") int maxQueryResultVideos,
+			@Value("${video.cache.ttlSeconds:60}") long ttlSeconds) {
+		this.byId = CacheBuilder.newBuilder()
+				.maximumSize(maxVideos)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		this.maxQueryResultVideos = maxQueryResultVideos;
+		this.queries = CacheBuilder.newBuilder()
+				.maximumWeight(maxQueryVideos)
+				.weigher(new Weigher<String, List<Video>>() {
+					@Override
+					public int weigh(String key, List<Video> result) {
+						// An empty result still costs its entry
+						return result.size() + 1;
+					}
+				})
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	// Returns the video with the given id, or null if there isn't one
+	public Video findOne(long id) {
+		Video v = byId.getIfPresent(id);
+		if (v == null) {
+			v = videos.findOne(id);
+			if (v == null) {
+				return null;
+			}
+			byId.put(id, copyOf(v));
+		}
+		return copyOf(v);
+	}
+
+	public Collection<Video> findByDurationLessThan(long maxduration) {
+		String key = "duration<" + maxduration;
+		List<Video> result = queries.getIfPresent(key);
+		if (result == null) {
+			long readAt = generation.get();
+			result = copiesOf(videos.findByDurationLessThan(maxduration));
+			if (result.size() > maxQueryResultVideos) {
+				return result;
+			}
+			cacheResult(key, result, readAt);
+		}
+		return copiesOf(result);
+	}
+
+	// Saves the video to the repository and caches it
+	public Video save(Video v) {
+		Video saved = videos.save(v);
+		byId.put(saved.getId(), copyOf(saved));
+		invalidateQueries();
+		return saved;
+	}
+
+	// Saves the videos to the repository in one transaction and returns
+	// them, with their ids, in the same order. The new videos aren't cached
+	// by id, since a bulk load would only push the videos that are being
+	// read out of the cache.
+	public List<Video> save(List<Video> vs) {
+		List<Video> saved = new ArrayList<Video>(vs.size());
+		for (Video v : videos.save(vs)) {
+			saved.add(v);
+		}
+		invalidateQueries();
+		return saved;
+	}
+
+	private void invalidateQueries() {
+		generation.incrementAndGet();
+		queries.invalidateAll();
+	}
+
+	// Caches a search result that was read from the repository at the
+	// given generation, unless a save has started since then. A save can
+	// also start, and finish invalidating, between the check and the put,
+	// so the generation is checked again after the put.
+	private void cacheResult(String key, List<Video> result, long readAt) {
+		if (generation.get() != readAt) {
+			return;
+		}
+		queries.put(key, result);
+		if (generation.get() != readAt) {
+			queries.invalidate(key);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${video.cache.metricsIntervalMs:10000}")
+	public void publishMetrics() {
+		publish("cache.videos", byId);
+		publish("cache.video-queries", queries);
+	}
+
+	private void publish(String prefix, Cache<?, ?> cache) {
+		CacheStats stats = cache.stats();
+		gauges.submit(prefix + ".hitRatio", stats.hitRate());
+		gauges.submit(prefix + ".hits", stats.hitCount());
+		gauges.submit(prefix + ".misses", stats.missCount());
+		gauges.submit(prefix + ".evictions", stats.evictionCount());
+		gauges.submit(prefix + ".size", cache.size());
+	}
+
+	private static Video copyOf(Video v) {
+		Video copy = new Video(v.getName(), v.getUrl(), v.getDuration(), v.getLikes());
+		copy.setId(v.getId());
+		return copy;
+	}
+
+	private static List<Video> copiesOf(Collection<Video> videos) {
+		List<Video> copies = new ArrayList<Video>(videos.size());
+		for (Video v : videos) {
+			copies.add(copyOf(v));
+		}
+		return copies;
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * 
+ * Copyright 2014 Jules White
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package org.magnum.mobilecloud.video;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Likes and unlikes videos. A like or unlike is queued in the
+ * LikeEventQueue, which writes it to the video_like table in a batch
+ * shortly afterwards, and the video's likes count is updated in
+ * LikeCounters, which writes it back to the video later. Neither the video
+ * nor the list of its likers is loaded, and a burst of likes costs a
+ * handful of batched writes instead of a transaction per click.
+ * 
+ * The ids of videos that are known to exist are cached, since videos are
+ * never deleted, so most likes don't touch the database at all.
+ * 
+ * @author mitchell
+ */
+@Service
+public class VideoLikeService {
+
+	public enum Result {
+		// The like or unlike was recorded
+		OK,
+		// The user already likes (or, for an unlike, doesn't like) the video
+		ALREADY_DONE,
+		// There is no video with the given id
+		NOT_FOUND
+	}
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	@Autowired
+	private LikeEventQueue likeEvents;
+
+	@Autowired
+	private LikeCounters counters;
+
+	@Autowired
+	private LikedVideoIndex likedVideos;
+
+	@Autowired
+	private UsernameDictionary users;
+
+	private final Set<Long> knownVideos = Collections.newSetFromMap(
+			new ConcurrentHashMap<Long, Boolean>());
+
+	public Result like(long videoId, String username) {
+		if (!exists(videoId)) {
+			return Result.NOT_FOUND;
+		}
+		return setLiked(videoId, users.intern(username), true);
+	}
+
+	public Result unlike(long videoId, String username) {
+		if (!exists(videoId)) {
+			return Result.NOT_FOUND;
+		}
+		// A user without an id has never liked anything
+		Integer userId = users.getId(username);
+		if (userId == null) {
+			return Result.ALREADY_DONE;
+		}
+		return setLiked(videoId, userId, false);
+	}
+
+	private Result setLiked(long videoId, int userId, boolean liked) {
+		counters.track(videoId);
+		if (!likeEvents.setLiked(videoId, userId, liked)) {
+			return Result.ALREADY_DONE;
+		}
+		counters.add(videoId, liked ? 1 : -1);
+		return Result.OK;
+	}
+
+	// Returns up to limit usernames of the users that like the video,
+	// starting after the given username (or from the first one if after is
+	// null), or null if there is no video with the given id. Users are
+	// listed in the order of their ids, i.e., the order in which they
+	// first liked a video. Likes that haven't been written to the database
+	// yet are included, so the last username of a full page can always be
+	// passed back as after to read the next page.
+	@Transactional(readOnly = true)
+	public List<String> getUsersWhoLikedVideo(long videoId, String after, int limit) {
+		if (!exists(videoId)) {
+			return null;
+		}
+		int afterId = -1;
+		if (after != null) {
+			// A username that was never given an id can't have come from
+			// an earlier page
+			Integer id = users.getId(after);
+			if (id == null) {
+				return new ArrayList<String>();
+			}
+			afterId = id;
+		}
+		if (limit <= 0) {
+			return new ArrayList<String>();
+		}
+
+		// Snapshot the queued changes before reading the database, so a
+		// change that is flushed in between is seen in one or the other
+		Map<Integer, Boolean> queued = likeEvents.getPending(videoId);
+		int unliked = 0;
+		for (Map.Entry<Integer, Boolean> e : queued.entrySet()) {
+			if (!e.getValue() && e.getKey() > afterId) {
+				unliked++;
+			}
+		}
+
+		// Read enough rows that the page is still full after the queued
+		// unlikes are taken out of it
+		int wanted = limit + unliked;
+		List<Integer> stored = likes.findUserIdsByVideoIdAfter(videoId, afterId, new PageRequest(0, wanted));
+		int last = (stored.size() == wanted) ? stored.get(stored.size() - 1) : Integer.MAX_VALUE;
+
+		TreeSet<Integer> userIds = new TreeSet<Integer>(stored);
+		for (Map.Entry<Integer, Boolean> e : queued.entrySet()) {
+			int userId = e.getKey();
+			if (!e.getValue()) {
+				userIds.remove(userId);
+			} else if (userId > afterId && userId < last) {
+				// A queued like past the last row read belongs on a later
+				// page, since this page already has limit users before it
+				userIds.add(userId);
+			}
+		}
+
+		// Only now turn the ids back into usernames
+		List<String> page = new ArrayList<String>(Math.min(limit, userIds.size()));
+		for (Integer userId : userIds) {
+			if (page.size() == limit) {
+				break;
+			}
+			page.add(users.getUsername(userId));
+		}
+		return page;
+	}
+
+	// Returns whether the user likes each of the videos, in the order of
+	// the given ids. Videos that don't exist aren't liked.
+	public Map<Long, Boolean> getLikedStatus(String username, Collection<Long> videoIds) {
+		Integer userId = users.getId(username);
+		Map<Long, Boolean> status = new LinkedHashMap<Long, Boolean>();
+		for (Long videoId : videoIds) {
+			status.put(videoId, userId != null && likedVideos.isLiked(userId, videoId));
+		}
+		return status;
+	}
+
+	private boolean exists(long videoId) {
+		if (knownVideos.contains(videoId)) {
+			return true;
+		}
+		if (videos.exists(videoId)) {
+			knownVideos.add(videoId);
+			return true;
+		}
+		return false;
+	}
+
+}
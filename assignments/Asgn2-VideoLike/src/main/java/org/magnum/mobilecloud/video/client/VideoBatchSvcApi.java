@@ -0,0 +1,31 @@
+package org.magnum.mobilecloud.video.client;
+
+import java.util.List;
+
+import org.magnum.mobilecloud.video.repository.Video;
+
+import retrofit.http.Body;
+import retrofit.http.POST;
+
+/**
+ * This interface extends the VideoSvc with adding many videos at once.
+ * 
+ * POST /video/batch
+ *    - Takes a JSON array of up to 10000 videos, or the same videos as
+ *      newline-delimited JSON, and adds all of them in one transaction.
+ *      Returns a JSON array of the ids assigned to the videos, in the
+ *      order that they were sent. Returns a 400 if the body can't be read
+ *      as videos or has too many of them.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoBatchSvcApi {
+
+	// The path to add many videos at once
+	public static final String VIDEO_BATCH_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/batch";
+
+	@POST(VIDEO_BATCH_PATH)
+	public List<Long> addVideos(@Body List<Video> videos);
+
+}
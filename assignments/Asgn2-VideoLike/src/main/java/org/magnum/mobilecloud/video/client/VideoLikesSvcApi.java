@@ -0,0 +1,48 @@
+package org.magnum.mobilecloud.video.client;
+
+import java.util.List;
+import java.util.Map;
+
+import retrofit.http.Body;
+import retrofit.http.GET;
+import retrofit.http.POST;
+import retrofit.http.Path;
+import retrofit.http.Query;
+
+/**
+ * This interface extends the VideoSvc with paged access to the users that
+ * like a video and with lookups of the videos that a user likes.
+ * 
+ * GET /video/{id}/likedby?limit={limit}[&after={username}]
+ *    - Returns up to limit usernames (at most 1000) of the users that like
+ *      the video, in the order that the users first liked any video,
+ *      starting after the given username or from the first one if after
+ *      is left out. Pass the last username of a full page as after to get
+ *      the next page; a page with fewer than limit usernames is the last
+ *      one. Returns a 404 if the video is not found.
+ *      
+ * POST /video/liked-status
+ *    - Takes a JSON array of up to 1000 video ids and returns a JSON object
+ *      that maps each id to whether the current user likes the video. Ids
+ *      of videos that don't exist map to false.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoLikesSvcApi {
+
+	public static final String AFTER_PARAMETER = "after";
+
+	public static final String LIMIT_PARAMETER = "limit";
+
+	// The path to look up which videos the current user likes
+	public static final String VIDEO_LIKED_STATUS_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/liked-status";
+
+	@GET(VideoSvcApi.VIDEO_SVC_PATH + "/{id}/likedby")
+	public List<String> getUsersWhoLikedVideo(@Path("id") long id, 
+			@Query(AFTER_PARAMETER) String after, @Query(LIMIT_PARAMETER) int limit);
+
+	@POST(VIDEO_LIKED_STATUS_PATH)
+	public Map<Long, Boolean> getLikedStatus(@Body List<Long> ids);
+
+}
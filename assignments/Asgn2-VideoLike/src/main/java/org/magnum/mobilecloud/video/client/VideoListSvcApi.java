@@ -0,0 +1,33 @@
+package org.magnum.mobilecloud.video.client;
+
+import java.util.List;
+
+import org.magnum.mobilecloud.video.repository.Video;
+
+import retrofit.http.GET;
+import retrofit.http.Query;
+
+/**
+ * This interface extends the VideoSvc with paging through the list of
+ * videos.
+ * 
+ * GET /video?limit={limit}&after={id}
+ *    - Returns the next page of up to limit videos, in id order, after the
+ *      video with the given id, as JSON. If after is left out, the first
+ *      page is returned, and limit is capped at 100. Pass the id of the
+ *      last video of a full page to get the next one; a page with fewer
+ *      than limit videos is the last.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoListSvcApi {
+
+	public static final String AFTER_PARAMETER = "after";
+
+	public static final String LIMIT_PARAMETER = "limit";
+
+	@GET(VideoSvcApi.VIDEO_SVC_PATH)
+	public List<Video> getVideoList(@Query(AFTER_PARAMETER) long after, @Query(LIMIT_PARAMETER) int limit);
+
+}
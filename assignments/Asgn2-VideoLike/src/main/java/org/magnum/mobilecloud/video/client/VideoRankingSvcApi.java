@@ -0,0 +1,35 @@
+package org.magnum.mobilecloud.video.client;
+
+import java.util.List;
+
+import org.magnum.mobilecloud.video.repository.Video;
+
+import retrofit.http.GET;
+import retrofit.http.Query;
+
+/**
+ * This interface extends the VideoSvc with rankings of the videos.
+ * 
+ * VideoSvcApi must not be modified, so this interface and the other
+ * Video*SvcApi interfaces in this package each declare the endpoints of
+ * one feature that was added on top of it.
+ * 
+ * GET /video/top?k={k}
+ *    - Returns the k most-liked videos, most-liked first, as JSON. Videos
+ *      with the same number of likes are ordered by id. If k is left out,
+ *      the top 10 are returned, and k is capped at 100.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoRankingSvcApi {
+
+	public static final String TOP_COUNT_PARAMETER = "k";
+
+	// The path to the most-liked videos
+	public static final String VIDEO_TOP_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/top";
+
+	@GET(VIDEO_TOP_PATH)
+	public List<Video> getTopVideos(@Query(TOP_COUNT_PARAMETER) int k);
+
+}
@@ -0,0 +1,42 @@
+package org.magnum.mobilecloud.video.client;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.magnum.mobilecloud.video.repository.Video;
+
+import retrofit.http.GET;
+import retrofit.http.Query;
+
+/**
+ * This interface extends the VideoSvc with searches of the video titles
+ * that ignore case or match a prefix.
+ * 
+ * GET /video/search/findByNameIgnoreCase?title={title}
+ *    - Returns a list of the videos with a title that matches the given
+ *      title, ignoring case, or an empty list if none are found.
+ *      
+ * GET /video/search/findByNameStartingWith?prefix={prefix}
+ *    - Returns a list of up to 100 videos with titles that start with the
+ *      given prefix, ignoring case, in the order of their titles.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoTitleSearchSvcApi {
+
+	public static final String PREFIX_PARAMETER = "prefix";
+
+	// The path to search videos by title, ignoring case
+	public static final String VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/search/findByNameIgnoreCase";
+
+	// The path to search videos by the start of their titles
+	public static final String VIDEO_TITLE_PREFIX_SEARCH_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/search/findByNameStartingWith";
+
+	@GET(VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH)
+	public Collection<Video> findByTitleIgnoreCase(@Query(VideoSvcApi.TITLE_PARAMETER) String title);
+
+	@GET(VIDEO_TITLE_PREFIX_SEARCH_PATH)
+	public List<Video> findByTitleStartingWith(@Query(PREFIX_PARAMETER) String prefix);
+
+}
@@ -0,0 +1,26 @@
+package org.magnum.mobilecloud.video.client;
+
+import retrofit.http.GET;
+import retrofit.http.Path;
+
+/**
+ * This interface extends the VideoSvc with view counts.
+ * 
+ * GET /video/{id}/views
+ *    - Returns the estimated number of distinct users that have fetched
+ *      the video with GET /video/{id}, or a 404 if the video is not found.
+ *      With the default settings, the estimate has a standard error of
+ *      about 1.6%.
+ *      
+ * @author mitchell
+ *
+ */
+public interface VideoViewsSvcApi {
+
+	// The path to the number of distinct viewers of a video
+	public static final String VIDEO_VIEWS_PATH = VideoSvcApi.VIDEO_SVC_PATH + "/{id}/views";
+
+	@GET(VIDEO_VIEWS_PATH)
+	public long getUniqueViews(@Path("id") long id);
+
+}
@@ -0,0 +1,53 @@
+package org.magnum.mobilecloud.video.repository;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * An entry in the dictionary of usernames. Every user that likes a video
+ * is given a small, dense int id here, and the likes themselves refer to
+ * the user by that id (see VideoLike), so a username is stored once
+ * instead of once per like.
+ * 
+ * @author mitchell
+ */
+@Entity
+@Table(name = "app_user", uniqueConstraints = @UniqueConstraint(columnNames = "username"))
+public class AppUser {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private int id;
+
+	@Column(name = "username", nullable = false)
+	private String username;
+
+	public AppUser() {
+	}
+
+	public AppUser(String username) {
+		this.username = username;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.Collection;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * An interface for a repository that stores the dictionary of usernames.
+ * 
+ * @author mitchell
+ *
+ */
+@Repository
+public interface AppUserRepository extends CrudRepository<AppUser, Integer>{
+
+	// Find all users
+	public Collection<AppUser> findAll();
+	
+	// Find the user with the given username, if any
+	public AppUser findByUsername(String username);
+	
+}
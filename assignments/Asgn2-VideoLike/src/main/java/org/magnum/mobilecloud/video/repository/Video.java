@@ -1,12 +1,17 @@
 package org.magnum.mobilecloud.video.repository;
 
-import java.util.ArrayList;
-import java.util.List;
-import javax.persistence.ElementCollection;
+import java.util.Locale;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 
 import com.google.common.base.Objects;
 
@@ -25,12 +30,29 @@ import com.google.common.base.Objects;
  * @author mitchell
  */
 // Added 3 annotations:  @Entity, @Id, @GeneratedValue for persistence
-// Also added @ElementCollection to store a "LikedByUsername" db table
+// The users that like a video are stored in their own table (see VideoLike)
+// so that likes don't require loading or rewriting a list of every liker
+//
+// Ids come from a sequence that hands out 50 ids at a time rather than
+// from an identity column. Hibernate has to insert a row with an identity
+// id as soon as it's persisted to learn its id, but with a sequence it can
+// hold the inserts until the transaction is flushed and send them as one
+// JDBC batch (see hibernate.jdbc.batch_size in application.properties).
+//
+// The title searches are answered from two indexes. video_name serves the
+// exact searches and video_name_key serves the case-insensitive and prefix
+// searches through name_key, a lower-case copy of the name kept up to date
+// before each insert and update. Both indexes end with the id, so a page
+// of a search in id order is read straight from its index.
 //
 @Entity
+@Table(indexes = {
+		@Index(name = "video_name", columnList = "name, id"),
+		@Index(name = "video_name_key", columnList = "name_key, id") })
 public class Video {
 	@Id
-	@GeneratedValue(strategy = GenerationType.AUTO)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "video_id")
+	@SequenceGenerator(name = "video_id", sequenceName = "video_id_seq", allocationSize = 50)
 	private long id;
 
 	private String name;
@@ -38,17 +60,9 @@ public class Video {
 	private long duration;
 	private long likes;
 	
-	@ElementCollection 
-	private List<String> likesUsernames = new ArrayList<String>(); 
-
-	public List<String> getLikesUsernames() {
-	  return likesUsernames;
-	 }
-
-	public void setLikesUsernames(List<String> likesUsernames) {
-	  this.likesUsernames = likesUsernames;
-	}
-
+	// Not serialized to clients, since it has no getter
+	@Column(name = "name_key")
+	private String nameKey;
 	
 	public Video() {
 	}
@@ -61,6 +75,24 @@ public class Video {
 		this.likes = likes;
 	}
 
+	// Used by the "select new Video(...)" queries in VideoRepository
+	public Video(long id, String name, String url, long duration, long likes) {
+		this(name, url, duration, likes);
+		this.id = id;
+	}
+
+	// Returns the key that a title is stored under in name_key, which is
+	// what the case-insensitive and prefix searches look up
+	public static String nameKeyOf(String name) {
+		return (name != null) ? name.toLowerCase(Locale.ROOT) : null;
+	}
+
+	@PrePersist
+	@PreUpdate
+	void updateNameKey() {
+		nameKey = nameKeyOf(name);
+	}
+
 	public String getName() {
 		return name;
 	}
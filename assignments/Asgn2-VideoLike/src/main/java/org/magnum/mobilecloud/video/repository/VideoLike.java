@@ -0,0 +1,104 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import com.google.common.base.Objects;
+
+/**
+ * Records that a user likes a video. Each like is its own row in the
+ * video_like table, whose primary key is (video_id, user_id), so the
+ * database itself guarantees that a user can like a video only once.
+ * Liking and unliking a video insert or delete a single row instead of
+ * loading and rewriting the list of every user that likes the video.
+ * The user is referred to by its id in the dictionary of usernames (see
+ * AppUser), which keeps a row down to a pair of numbers. An index on
+ * user_id serves lookups of the videos that a user likes.
+ * 
+ * @author mitchell
+ */
+@Entity
+@Table(name = "video_like", indexes = @Index(name = "video_like_user_id", columnList = "user_id"))
+@IdClass(VideoLike.Key.class)
+public class VideoLike {
+
+	// The composite primary key of a VideoLike
+	public static class Key implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private long videoId;
+		private int userId;
+
+		public Key() {
+		}
+
+		public Key(long videoId, int userId) {
+			this.videoId = videoId;
+			this.userId = userId;
+		}
+
+		public long getVideoId() {
+			return videoId;
+		}
+
+		public int getUserId() {
+			return userId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(videoId, userId);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key other = (Key) obj;
+				return videoId == other.videoId
+						&& userId == other.userId;
+			} else {
+				return false;
+			}
+		}
+	}
+
+	@Id
+	@Column(name = "video_id")
+	private long videoId;
+
+	@Id
+	@Column(name = "user_id")
+	private int userId;
+
+	public VideoLike() {
+	}
+
+	public VideoLike(long videoId, int userId) {
+		this.videoId = videoId;
+		this.userId = userId;
+	}
+
+	public long getVideoId() {
+		return videoId;
+	}
+
+	public void setVideoId(long videoId) {
+		this.videoId = videoId;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public void setUserId(int userId) {
+		this.userId = userId;
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * An interface for a repository that stores which users like
+ * which videos.
+ * 
+ * @author mitchell
+ *
+ */
+@Repository
+public interface VideoLikeRepository extends CrudRepository<VideoLike, VideoLike.Key>{
+
+	// Count the users that like the video
+	@Query("select count(l) from VideoLike l where l.videoId = ?1")
+	public long countByVideoId(long videoId);
+	
+	// Count the users that like each video that has any likes, as
+	// (video id, count) pairs
+	@Query("select l.videoId, count(l) from VideoLike l group by l.videoId")
+	public List<Object[]> countByVideo();
+	
+	// Find the ids of all videos that the user likes
+	@Query("select l.videoId from VideoLike l where l.userId = ?1")
+	public List<Long> findVideoIdsByUserId(int userId);
+	
+	// Find the ids of the users that like the video, in order, starting
+	// after the given user id. The (video_id, user_id) primary key serves
+	// both the filter and the order, so a page costs the same no matter
+	// how deep into the likers it starts.
+	@Query("select l.userId from VideoLike l where l.videoId = ?1 and l.userId > ?2 order by l.userId")
+	public List<Integer> findUserIdsByVideoIdAfter(long videoId, int afterUserId, Pageable page);
+	
+}
@@ -1,9 +1,14 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * An interface for a repository that can store Video
@@ -15,13 +20,60 @@ import org.springframework.stereotype.Repository;
 @Repository
 public interface VideoRepository extends CrudRepository<Video, Long>{
 
+	// The queries that list videos build them with a constructor expression
+	// rather than loading them as entities. The videos are read straight
+	// from the columns of the video table in the one select, and Hibernate
+	// doesn't have to keep a snapshot of each one in the persistence context
+	// to check for changes, since the videos it returns aren't managed.
+	// Nothing is ever saved through the listed videos, which are only
+	// serialized to clients or copied into the VideoCache.
+	public static final String SELECT_VIDEOS = "select new org.magnum.mobilecloud.video.repository.Video("
+			+ "v.id, v.name, v.url, v.duration, v.likes) from Video v";
+
 	// Find all videos with a matching title (e.g., Video.name)
+	@Query(SELECT_VIDEOS + " where v.name = ?1")
 	public Collection<Video> findByName(String title);
 	
+	// Find all videos whose name key (see Video.nameKeyOf) matches, which
+	// are the videos whose titles match ignoring case
+	@Query(SELECT_VIDEOS + " where v.nameKey = ?1")
+	public Collection<Video> findByNameKey(String nameKey);
+	
+	// Find the videos whose name keys fall in [from, to), in name key order.
+	// All the name keys that start with a prefix fall in
+	// [prefix, prefix + Character.MAX_VALUE), so this serves prefix searches
+	// with a range of the video_name_key index rather than a LIKE.
+	@Query(SELECT_VIDEOS + " where v.nameKey >= ?1 and v.nameKey < ?2 order by v.nameKey, v.id")
+	public List<Video> findByNameKeyRange(String from, String to, Pageable page);
+	
 	// Find all videos who length is less than duration (e.g., Video.duration)
+	@Query(SELECT_VIDEOS + " where v.duration < ?1")
 	public Collection<Video> findByDurationLessThan(long maxduration);
 	
 	// Find all videos
+	@Query(SELECT_VIDEOS)
 	public Collection<Video> findAll();
 	
+	// Find the videos with ids greater than after, in id order. Called with
+	// a PageRequest for page 0, this is a range scan of the primary key
+	// index that stops after one page, however far into the videos it starts.
+	@Query(SELECT_VIDEOS + " where v.id > ?1 order by v.id")
+	public List<Video> findByIdGreaterThanOrderByIdAsc(long after, Pageable page);
+	
+	// Find the videos with a matching title and an id greater than after,
+	// in id order
+	@Query(SELECT_VIDEOS + " where v.name = ?1 and v.id > ?2 order by v.id")
+	public List<Video> findByNameAndIdGreaterThanOrderByIdAsc(String title, long after, Pageable page);
+	
+	// Find the ids of all videos without loading them
+	@Query("select v.id from Video v")
+	public List<Long> findAllIds();
+	
+	// Set the likes of a video in the database without loading it.
+	// Returns the number of videos updated (0 or 1).
+	@Modifying
+	@Transactional
+	@Query("update Video v set v.likes = ?2 where v.id = ?1")
+	public int setLikes(long id, long likes);
+	
 }
@@ -0,0 +1,66 @@
+package org.magnum.mobilecloud.video.repository;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+/**
+ * The HyperLogLog sketch of the users that have viewed a video, stored as
+ * bytes (see HyperLogLog.toBytes()) in a row of its own next to the video,
+ * so that Video and its JSON are unchanged. Every server merges its own
+ * sketch into the stored one, and the version column makes a server that
+ * merged concurrently with another retry instead of overwriting it.
+ * 
+ * @author mitchell
+ */
+@Entity
+@Table(name = "video_viewers")
+public class VideoViewers {
+
+	@Id
+	@Column(name = "video_id")
+	private long videoId;
+
+	@Version
+	private long version;
+
+	@Lob
+	@Column(name = "sketch", nullable = false)
+	private byte[] sketch;
+
+	public VideoViewers() {
+	}
+
+	public VideoViewers(long videoId, byte[] sketch) {
+		this.videoId = videoId;
+		this.sketch = sketch;
+	}
+
+	public long getVideoId() {
+		return videoId;
+	}
+
+	public void setVideoId(long videoId) {
+		this.videoId = videoId;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public byte[] getSketch() {
+		return sketch;
+	}
+
+	public void setSketch(byte[] sketch) {
+		this.sketch = sketch;
+	}
+
+}
@@ -0,0 +1,16 @@
+package org.magnum.mobilecloud.video.repository;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * An interface for a repository that stores the sketches of the users
+ * that have viewed each video.
+ * 
+ * @author mitchell
+ *
+ */
+@Repository
+public interface VideoViewersRepository extends CrudRepository<VideoViewers, Long>{
+
+}
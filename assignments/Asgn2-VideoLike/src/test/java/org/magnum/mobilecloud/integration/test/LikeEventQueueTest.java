@@ -0,0 +1,129 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.LikeEventQueue;
+import org.magnum.mobilecloud.video.UsernameDictionary;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ * Checks that LikeEventQueue refuses a like or unlike that changes nothing,
+ * writes only the final state of a (video, user) pair that was toggled
+ * before a flush, and writes every queued change to the video_like table
+ * when it is flushed.
+ * 
+ * The scheduled flush may run at any point during a test, so the tests
+ * only check the table after an explicit flush, when it must hold the
+ * same rows whichever flush wrote them.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class LikeEventQueueTest {
+
+	@Autowired
+	private LikeEventQueue likeEvents;
+
+	@Autowired
+	private UsernameDictionary users;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	private long videoId;
+
+	@Before
+	public void setUp() {
+		videoId = videos.save(new Video("Video-" + UUID.randomUUID(), "http://coursera.org/some/video", 1000, 0)).getId();
+	}
+
+	@Test
+	public void testRefusesChangesThatChangeNothing() {
+		int user = newUser();
+		assertFalse(likeEvents.setLiked(videoId, user, false));
+		assertTrue(likeEvents.setLiked(videoId, user, true));
+		assertFalse(likeEvents.setLiked(videoId, user, true));
+
+		likeEvents.flush();
+		assertFalse(likeEvents.setLiked(videoId, user, true));
+		assertTrue(likeEvents.setLiked(videoId, user, false));
+	}
+
+	@Test
+	public void testFlushWritesEveryChange() {
+		int liked = 20;
+		for (int i = 0; i < liked; i++) {
+			assertTrue(likeEvents.setLiked(videoId, newUser(), true));
+		}
+		likeEvents.flush();
+		assertEquals(liked, likes.countByVideoId(videoId));
+		assertEquals(0, likeEvents.getPending(videoId).size());
+	}
+
+	@Test
+	public void testToggledPairWritesFinalState() {
+		int keeps = newUser();
+		int dropped = newUser();
+		likeEvents.setLiked(videoId, keeps, true);
+		likeEvents.setLiked(videoId, keeps, false);
+		likeEvents.setLiked(videoId, keeps, true);
+		likeEvents.setLiked(videoId, dropped, true);
+		likeEvents.setLiked(videoId, dropped, false);
+
+		likeEvents.flush();
+		assertEquals(1, likes.countByVideoId(videoId));
+		assertEquals(1, likes.findVideoIdsByUserId(keeps).size());
+		assertEquals(0, likes.findVideoIdsByUserId(dropped).size());
+	}
+
+	@Test
+	public void testUnlikeDeletesStoredRow() {
+		int user = newUser();
+		likeEvents.setLiked(videoId, user, true);
+		likeEvents.flush();
+		assertEquals(1, likes.countByVideoId(videoId));
+
+		likeEvents.setLiked(videoId, user, false);
+		likeEvents.flush();
+		assertEquals(0, likes.countByVideoId(videoId));
+	}
+
+	@Test
+	public void testLikeOfMissingVideoInsertsNothing() {
+		long missing = Long.MAX_VALUE;
+		assertTrue(likeEvents.setLiked(missing, newUser(), true));
+
+		likeEvents.flush();
+		assertEquals(0, likes.countByVideoId(missing));
+		assertEquals(0, likeEvents.getPending(missing).size());
+	}
+
+	private int newUser() {
+		return users.intern("user-" + UUID.randomUUID());
+	}
+
+}
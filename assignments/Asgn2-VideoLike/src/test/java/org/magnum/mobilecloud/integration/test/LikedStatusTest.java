@@ -0,0 +1,107 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.UsernameDictionary;
+import org.magnum.mobilecloud.video.VideoLikeService;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoLike;
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ * Checks that VideoLikeService.getLikedStatus() answers for every id it
+ * is given, in order, from the LikedVideoIndex: likes and unlikes show up
+ * at once, likes already in the video_like table are loaded the first
+ * time a user is looked up, and unknown users and videos aren't liked.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class LikedStatusTest {
+
+	@Autowired
+	private VideoLikeService service;
+
+	@Autowired
+	private UsernameDictionary users;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	private long first;
+
+	private long second;
+
+	private String user;
+
+	@Before
+	public void setUp() {
+		first = newVideo();
+		second = newVideo();
+		user = "user-" + UUID.randomUUID();
+	}
+
+	@Test
+	public void testFollowsLikesAndUnlikes() {
+		service.like(first, user);
+		assertEquals(status(true, false), service.getLikedStatus(user, Arrays.asList(first, second)));
+
+		service.like(second, user);
+		service.unlike(first, user);
+		assertEquals(status(false, true), service.getLikedStatus(user, Arrays.asList(first, second)));
+	}
+
+	@Test
+	public void testLoadsStoredLikes() {
+		// Stored behind the service's back, before the user is first
+		// looked up
+		likes.save(new VideoLike(second, users.intern(user)));
+		assertEquals(status(false, true), service.getLikedStatus(user, Arrays.asList(first, second)));
+	}
+
+	@Test
+	public void testUnknownUserAndVideo() {
+		assertEquals(status(false, false), service.getLikedStatus(user, Arrays.asList(first, second)));
+
+		service.like(first, user);
+		Map<Long, Boolean> status = service.getLikedStatus(user, Arrays.asList(Long.MAX_VALUE, first));
+		assertEquals(Arrays.asList(Long.MAX_VALUE, first), Arrays.asList(status.keySet().toArray()));
+		assertEquals(Arrays.asList(false, true), Arrays.asList(status.values().toArray()));
+	}
+
+	private long newVideo() {
+		return videos.save(new Video("Video-" + UUID.randomUUID(), "http://coursera.org/some/video", 1000, 0)).getId();
+	}
+
+	private Map<Long, Boolean> status(boolean firstLiked, boolean secondLiked) {
+		Map<Long, Boolean> status = new LinkedHashMap<Long, Boolean>();
+		status.put(first, firstLiked);
+		status.put(second, secondLiked);
+		return status;
+	}
+
+}
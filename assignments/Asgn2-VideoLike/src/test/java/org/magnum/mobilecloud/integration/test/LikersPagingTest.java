@@ -0,0 +1,121 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.LikeEventQueue;
+import org.magnum.mobilecloud.video.VideoLikeService;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ * Checks that paging through the likers of a video with
+ * VideoLikeService.getUsersWhoLikedVideo() returns every user that likes
+ * it exactly once, in the order that the users first liked a video,
+ * whether their likes have been written to the database or are still
+ * queued, and that queued unlikes are left out.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class LikersPagingTest {
+
+	private static final int PAGE = 10;
+
+	@Autowired
+	private VideoLikeService service;
+
+	@Autowired
+	private LikeEventQueue likeEvents;
+
+	@Autowired
+	private VideoRepository videos;
+
+	private long videoId;
+
+	private String prefix;
+
+	@Before
+	public void setUp() {
+		videoId = videos.save(new Video("Video-" + UUID.randomUUID(), "http://coursera.org/some/video", 1000, 0)).getId();
+		prefix = "user-" + UUID.randomUUID() + "-";
+	}
+
+	@Test
+	public void testPagesCoverStoredAndQueuedLikes() {
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 25; i++) {
+			String user = prefix + i;
+			service.like(videoId, user);
+			expected.add(user);
+			if (i == 14) {
+				likeEvents.flush();
+			}
+		}
+		// One stored and one queued like are taken back before paging
+		service.unlike(videoId, prefix + 3);
+		service.unlike(videoId, prefix + 20);
+		expected.remove(prefix + 3);
+		expected.remove(prefix + 20);
+
+		assertEquals(expected, readAllPages());
+	}
+
+	@Test
+	public void testPageSizeIsRespected() {
+		for (int i = 0; i < PAGE + 1; i++) {
+			service.like(videoId, prefix + i);
+		}
+		assertEquals(PAGE, service.getUsersWhoLikedVideo(videoId, null, PAGE).size());
+		assertTrue(service.getUsersWhoLikedVideo(videoId, null, 0).isEmpty());
+	}
+
+	@Test
+	public void testUnknownAfterGivesEmptyPage() {
+		service.like(videoId, prefix + 0);
+		assertTrue(service.getUsersWhoLikedVideo(videoId, prefix + "nobody", PAGE).isEmpty());
+	}
+
+	@Test
+	public void testPendingIsPerVideo() {
+		long other = videos.save(new Video("Video-" + UUID.randomUUID(), "http://coursera.org/some/video", 1000, 0)).getId();
+		service.like(videoId, prefix + 0);
+
+		// The scheduled flush may already have written the like, but it
+		// can never show up as a change of another video
+		assertTrue(likeEvents.getPending(other).isEmpty());
+	}
+
+	private List<String> readAllPages() {
+		List<String> all = new ArrayList<String>();
+		String after = null;
+		while (true) {
+			List<String> page = service.getUsersWhoLikedVideo(videoId, after, PAGE);
+			all.addAll(page);
+			if (page.size() < PAGE) {
+				return all;
+			}
+			after = page.get(page.size() - 1);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.VideoLikeService;
+import org.magnum.mobilecloud.video.client.VideoRankingSvcApi;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that a video that is POSTed with a likes count starts with no
+ * likes, both in the response and in the leaderboard, so its rank is the
+ * same as the one that the leaderboard would rebuild from the video_like
+ * table after a restart.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class NewVideoLikesTest {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeService likeService;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@Test
+	public void testPostedLikesAreIgnored() throws Exception {
+		Video liked = videos.save(TestData.randomVideo());
+		likeService.like(liked.getId(), "user-" + liked.getName());
+
+		Video inflated = TestData.randomVideo();
+		inflated.setLikes(1000000);
+		MvcResult result = mockMvc.perform(post(VideoSvcApi.VIDEO_SVC_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(TestData.toJson(inflated)))
+				.andExpect(status().isOk())
+				.andReturn();
+		Video received = objectMapper.readValue(result.getResponse().getContentAsString(), Video.class);
+
+		assertEquals(0, received.getLikes());
+		assertEquals(0, videos.findOne(received.getId()).getLikes());
+
+		// The liked video must rank above the one that claimed a million
+		// likes, if that one is in the top at all
+		List<Long> top = topIds();
+		assertTrue(top.contains(liked.getId()));
+		int inflatedRank = top.indexOf(received.getId());
+		assertTrue(inflatedRank < 0 || inflatedRank > top.indexOf(liked.getId()));
+	}
+
+	private List<Long> topIds() throws Exception {
+		MvcResult result = mockMvc.perform(get(VideoRankingSvcApi.VIDEO_TOP_PATH)
+				.param(VideoRankingSvcApi.TOP_COUNT_PARAMETER, "100"))
+				.andExpect(status().isOk())
+				.andReturn();
+		List<Long> ids = new ArrayList<Long>();
+		for (Video v : objectMapper.readValue(result.getResponse().getContentAsString(), Video[].class)) {
+			ids.add(v.getId());
+		}
+		return ids;
+	}
+
+}
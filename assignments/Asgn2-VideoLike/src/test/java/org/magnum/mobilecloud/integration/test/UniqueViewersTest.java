@@ -0,0 +1,110 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.HyperLogLog;
+import org.magnum.mobilecloud.video.UniqueViewers;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.magnum.mobilecloud.video.repository.VideoViewers;
+import org.magnum.mobilecloud.video.repository.VideoViewersRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Checks that UniqueViewers counts each viewer of a video once, stores
+ * its sketches in the video_viewers table when it flushes (sparsely while
+ * a video has few viewers), and still answers from the table after its
+ * cache has dropped a sketch.
+ * 
+ * The eviction test uses its own UniqueViewers with a one-byte cache, so
+ * that every sketch is dropped as soon as it is flushed.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class UniqueViewersTest {
+
+	@Autowired
+	private UniqueViewers uniqueViewers;
+
+	@Autowired
+	private VideoViewersRepository stored;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private long videoId;
+
+	@Before
+	public void setUp() {
+		videoId = videos.save(new Video("Video-" + UUID.randomUUID(), "http://coursera.org/some/video", 1000, 0)).getId();
+	}
+
+	@Test
+	public void testCountsEachViewerOnce() {
+		for (int view = 0; view < 5; view++) {
+			for (int user = 0; user < 10; user++) {
+				uniqueViewers.recordView(videoId, "user-" + user);
+			}
+		}
+		assertEquals(10, uniqueViewers.getUniqueViews(videoId));
+	}
+
+	@Test
+	public void testFlushStoresSparseSketch() {
+		for (int user = 0; user < 10; user++) {
+			uniqueViewers.recordView(videoId, "user-" + user);
+		}
+		uniqueViewers.flush();
+
+		VideoViewers row = stored.findOne(videoId);
+		assertNotNull(row);
+		HyperLogLog sketch = HyperLogLog.fromBytes(row.getSketch());
+		assertTrue(sketch.isSparse());
+		assertEquals(10, sketch.estimate());
+	}
+
+	@Test
+	public void testEvictedSketchIsReloaded() {
+		UniqueViewers tiny = new UniqueViewers(transactionManager, 12, 1);
+		ReflectionTestUtils.setField(tiny, "viewers", stored);
+
+		for (int user = 0; user < 20; user++) {
+			tiny.recordView(videoId, "user-" + user);
+		}
+		tiny.flush();
+		assertEquals(20, tiny.getUniqueViews(videoId));
+
+		// Views recorded after a reload are merged with the stored ones
+		for (int user = 10; user < 30; user++) {
+			tiny.recordView(videoId, "user-" + user);
+		}
+		tiny.flush();
+		assertEquals(30, tiny.getUniqueViews(videoId));
+		assertEquals(30, HyperLogLog.fromBytes(stored.findOne(videoId).getSketch()).estimate());
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.UsernameDictionary;
+import org.magnum.mobilecloud.video.repository.AppUserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ * Checks that UsernameDictionary gives each username one id, maps the id
+ * back to the username, stores the user in the app_user table, and gives
+ * a username the same id however many threads intern it at once.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class UsernameDictionaryTest {
+
+	@Autowired
+	private UsernameDictionary users;
+
+	@Autowired
+	private AppUserRepository appUsers;
+
+	@Test
+	public void testInternGivesStableIds() {
+		String first = "user-" + UUID.randomUUID();
+		String second = "user-" + UUID.randomUUID();
+		assertNull(users.getId(first));
+
+		int firstId = users.intern(first);
+		int secondId = users.intern(second);
+
+		assertTrue(firstId != secondId);
+		assertEquals(firstId, users.intern(first));
+		assertEquals(Integer.valueOf(firstId), users.getId(first));
+		assertEquals(first, users.getUsername(firstId));
+		assertEquals(second, users.getUsername(secondId));
+		assertEquals(first, appUsers.findOne(firstId).getUsername());
+	}
+
+	@Test
+	public void testUnknownIds() {
+		assertNull(users.getUsername(-1));
+		assertNull(users.getUsername(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testGrowsPastInitialCapacity() {
+		Set<Integer> ids = new HashSet<Integer>();
+		String prefix = "user-" + UUID.randomUUID() + "-";
+		for (int i = 0; i < 100; i++) {
+			ids.add(users.intern(prefix + i));
+		}
+		assertEquals(100, ids.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(prefix + i, users.getUsername(users.getId(prefix + i)));
+		}
+	}
+
+	@Test
+	public void testConcurrentInternGivesOneId() throws Exception {
+		final String username = "user-" + UUID.randomUUID();
+		final ConcurrentMap<Integer, Boolean> ids = new ConcurrentHashMap<Integer, Boolean>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					ids.put(users.intern(username), Boolean.TRUE);
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(1, ids.size());
+	}
+
+}
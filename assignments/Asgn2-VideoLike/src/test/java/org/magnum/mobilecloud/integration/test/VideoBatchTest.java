@@ -0,0 +1,158 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.client.VideoBatchSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that POST /video/batch adds every video of a JSON array or of
+ * newline-delimited JSON, returns their ids in the order they were sent,
+ * saves them without the likes they were sent with, and answers 400 for
+ * a body that isn't a list of videos or that holds too many of them.
+ * 
+ * The videos that each test adds are deleted afterwards.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoBatchTest {
+
+	// One more than a batch may hold
+	private static final int TOO_MANY_VIDEOS = 10001;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	private MockMvc mockMvc;
+
+	private List<Long> added;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+		added = new ArrayList<Long>();
+	}
+
+	@After
+	public void tearDown() {
+		for (Long id : added) {
+			videos.delete(id);
+		}
+	}
+
+	@Test
+	public void testJsonArray() throws Exception {
+		List<Video> batch = Arrays.asList(TestData.randomVideo(), TestData.randomVideo(), TestData.randomVideo());
+		batch.get(1).setLikes(42);
+
+		Long[] ids = addBatch(TestData.toJson(batch));
+
+		assertStored(batch, ids);
+		assertEquals(0, videos.findOne(ids[1]).getLikes());
+	}
+
+	@Test
+	public void testNewlineDelimitedJson() throws Exception {
+		List<Video> batch = Arrays.asList(TestData.randomVideo(), TestData.randomVideo());
+		StringBuilder body = new StringBuilder();
+		for (Video v : batch) {
+			body.append(TestData.toJson(v)).append('\n');
+		}
+
+		assertStored(batch, addBatch(body.toString()));
+	}
+
+	@Test
+	public void testEmptyBatch() throws Exception {
+		assertEquals(0, addBatch("[]").length);
+	}
+
+	@Test
+	public void testMalformedBodyIsRejected() throws Exception {
+		String title = "Video-" + UUID.randomUUID();
+		String body = "[{\"name\":\"" + title + "\",\"duration\":1},{\"name\":";
+		mockMvc.perform(post(VideoBatchSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(body))
+				.andExpect(status().isBadRequest());
+		assertTrue(videos.findByName(title).isEmpty());
+	}
+
+	@Test
+	public void testTooManyVideosAreRejected() throws Exception {
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < TOO_MANY_VIDEOS; i++) {
+			body.append((i == 0) ? "" : ",").append("{\"name\":\"too-many\",\"duration\":1}");
+		}
+		body.append("]");
+		long before = videos.count();
+		mockMvc.perform(post(VideoBatchSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(body.toString()))
+				.andExpect(status().isBadRequest());
+		assertEquals(before, videos.count());
+	}
+
+	private Long[] addBatch(String body) throws Exception {
+		MvcResult result = mockMvc.perform(post(VideoBatchSvcApi.VIDEO_BATCH_PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(body))
+				.andExpect(status().isOk())
+				.andReturn();
+		Long[] ids = objectMapper.readValue(result.getResponse().getContentAsString(), Long[].class);
+		added.addAll(Arrays.asList(ids));
+		return ids;
+	}
+
+	private void assertStored(List<Video> batch, Long[] ids) {
+		assertEquals(batch.size(), ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				assertTrue(ids[i] > ids[i - 1]);
+			}
+			Video stored = videos.findOne(ids[i]);
+			assertEquals(batch.get(i).getName(), stored.getName());
+			assertEquals(batch.get(i).getDuration(), stored.getDuration());
+		}
+	}
+
+}
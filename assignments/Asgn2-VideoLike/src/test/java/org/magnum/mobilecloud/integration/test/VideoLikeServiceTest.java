@@ -0,0 +1,127 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.LikeCounters;
+import org.magnum.mobilecloud.video.LikeEventQueue;
+import org.magnum.mobilecloud.video.VideoLikeService;
+import org.magnum.mobilecloud.video.VideoLikeService.Result;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoLikeRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+/**
+ * Checks that VideoLikeService lets each user like a video once, unlike it
+ * once, and answers NOT_FOUND for videos that don't exist, and that the
+ * likes it queues end up as video_like rows and in the video's likes count
+ * once they are flushed.
+ * 
+ * Each test uses a new video and new usernames, so the tests don't depend
+ * on what earlier tests left in the shared database.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoLikeServiceTest {
+
+	@Autowired
+	private VideoLikeService service;
+
+	@Autowired
+	private LikeEventQueue likeEvents;
+
+	@Autowired
+	private LikeCounters counters;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private VideoLikeRepository likes;
+
+	private long videoId;
+
+	private String user;
+
+	@Before
+	public void setUp() {
+		String name = "Video-" + UUID.randomUUID();
+		videoId = videos.save(new Video(name, "http://coursera.org/some/video", 1000, 0)).getId();
+		user = "user-" + UUID.randomUUID();
+	}
+
+	@Test
+	public void testLikeOnlyOnce() {
+		assertEquals(Result.OK, service.like(videoId, user));
+		assertEquals(Result.ALREADY_DONE, service.like(videoId, user));
+		assertEquals(1, counters.getLikes(videoId));
+	}
+
+	@Test
+	public void testUnlikeOnlyOnce() {
+		assertEquals(Result.OK, service.like(videoId, user));
+		assertEquals(Result.OK, service.unlike(videoId, user));
+		assertEquals(Result.ALREADY_DONE, service.unlike(videoId, user));
+		assertEquals(0, counters.getLikes(videoId));
+	}
+
+	@Test
+	public void testUnlikeByUserWhoNeverLikedAnything() {
+		assertEquals(Result.ALREADY_DONE, service.unlike(videoId, user));
+	}
+
+	@Test
+	public void testMissingVideo() {
+		long missing = Long.MAX_VALUE;
+		assertEquals(Result.NOT_FOUND, service.like(missing, user));
+		assertEquals(Result.NOT_FOUND, service.unlike(missing, user));
+		assertNull(service.getUsersWhoLikedVideo(missing, null, 10));
+	}
+
+	@Test
+	public void testLikesAreWrittenWhenFlushed() {
+		String other = "user-" + UUID.randomUUID();
+		service.like(videoId, user);
+		service.like(videoId, other);
+		service.unlike(videoId, other);
+
+		likeEvents.flush();
+		counters.flush();
+
+		assertEquals(1, likes.countByVideoId(videoId));
+		assertEquals(1, videos.findOne(videoId).getLikes());
+		assertEquals(Arrays.asList(user), service.getUsersWhoLikedVideo(videoId, null, 10));
+	}
+
+	@Test
+	public void testLikersIncludeQueuedLikes() {
+		String other = "user-" + UUID.randomUUID();
+		service.like(videoId, user);
+		likeEvents.flush();
+		service.like(videoId, other);
+
+		assertEquals(Arrays.asList(user, other), service.getUsersWhoLikedVideo(videoId, null, 10));
+		assertTrue(service.getLikedStatus(other, Arrays.asList(videoId)).get(videoId));
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.client.VideoListSvcApi;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that each endpoint that lists videos reads them from the database
+ * with a single SQL statement, however many videos it returns, rather than
+ * a statement for the list and more for each video in it (the "N+1 selects"
+ * problem). The statements that Hibernate prepares while handling each
+ * request are counted with its statistics.
+ * 
+ * The videos are saved straight to the VideoRepository so that they don't
+ * pass through the VideoCache or the leaderboard.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoListStatementCountTest {
+
+	// The number of videos with the same title that each test adds
+	private static final int VIDEOS = 20;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private MockMvc mockMvc;
+
+	private Statistics statistics;
+
+	private String title;
+
+	// The ids of the videos that each test adds
+	private List<Long> ids;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+
+		title = "Video-" + UUID.randomUUID();
+		ids = new ArrayList<Long>();
+		for (int i = 0; i < VIDEOS; i++) {
+			ids.add(videos.save(new Video(title, "http://coursera.org/some/video-" + i, 1000 * i, 0)).getId());
+		}
+	}
+
+	// Deletes the videos that the test added. GET /video streams the
+	// videos a page at a time, so it is only one statement while the
+	// whole table fits in one page.
+	@After
+	public void tearDown() {
+		for (Long id : ids) {
+			videos.delete(id);
+		}
+	}
+
+	@Test
+	public void testVideoListIsOneStatement() throws Exception {
+		Video[] list = perform(get(VideoSvcApi.VIDEO_SVC_PATH));
+
+		assertTrue(list.length >= VIDEOS);
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testVideoPageIsOneStatement() throws Exception {
+		Video[] page = perform(get(VideoSvcApi.VIDEO_SVC_PATH)
+				.param(VideoListSvcApi.LIMIT_PARAMETER, String.valueOf(VIDEOS)));
+
+		assertEquals(VIDEOS, page.length);
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testFindByTitleIsOneStatement() throws Exception {
+		Video[] found = perform(get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, title));
+
+		assertEquals(VIDEOS, found.length);
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testFindByDurationIsOneStatement() throws Exception {
+		// Every video is shorter than this, and no other test searches for
+		// it, so the search can't be answered from the VideoCache
+		Video[] found = perform(get(VideoSvcApi.VIDEO_DURATION_SEARCH_PATH)
+				.param(VideoSvcApi.DURATION_PARAMETER, String.valueOf(Long.MAX_VALUE)));
+
+		assertTrue(found.length >= VIDEOS);
+		assertEquals(1, statistics.getPrepareStatementCount());
+	}
+
+	// Clears the statistics, sends the request and returns the videos
+	// that came back
+	private Video[] perform(RequestBuilder request) throws Exception {
+		statistics.clear();
+		MvcResult result = mockMvc.perform(request)
+				.andExpect(status().isOk())
+				.andReturn();
+		return objectMapper.readValue(result.getResponse().getContentAsString(), Video[].class);
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.client.VideoListSvcApi;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that GET /video?limit={limit}&after={id} pages through the videos
+ * in id order: each page starts right after the id it was given, holds at
+ * most limit videos (and never more than 100), and following the pages
+ * visits every video exactly once.
+ * 
+ * The videos that each test adds are deleted afterwards, so that tests
+ * which count the statements behind GET /video still see a table that
+ * fits in one page.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoPagingTest {
+
+	private static final int VIDEOS = 25;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	private MockMvc mockMvc;
+
+	// The ids of the videos that each test adds, in order
+	private List<Long> ids;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+		ids = new ArrayList<Long>();
+		for (int i = 0; i < VIDEOS; i++) {
+			ids.add(videos.save(TestData.randomVideo()).getId());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (Long id : ids) {
+			videos.delete(id);
+		}
+	}
+
+	@Test
+	public void testPagesVisitEveryVideoOnce() throws Exception {
+		// Start just before the first video that this test added, since
+		// other tests may have added videos before it
+		long after = ids.get(0) - 1;
+		List<Long> seen = new ArrayList<Long>();
+		while (true) {
+			Video[] page = page(after, 10);
+			assertTrue(page.length <= 10);
+			for (Video v : page) {
+				assertTrue(v.getId() > after);
+				seen.add(v.getId());
+				after = v.getId();
+			}
+			if (page.length < 10) {
+				break;
+			}
+		}
+		assertEquals(ids, seen.subList(0, VIDEOS));
+	}
+
+	@Test
+	public void testPageStartsAfterGivenId() throws Exception {
+		Video[] page = page(ids.get(4), 3);
+		assertEquals(3, page.length);
+		assertEquals(ids.get(5).longValue(), page[0].getId());
+		assertEquals(ids.get(7).longValue(), page[2].getId());
+	}
+
+	@Test
+	public void testLimitIsCapped() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			ids.add(videos.save(TestData.randomVideo()).getId());
+		}
+		assertEquals(100, page(0, 1000).length);
+		assertEquals(1, page(0, 0).length);
+	}
+
+	@Test
+	public void testPastLastVideoIsEmpty() throws Exception {
+		assertEquals(0, page(Long.MAX_VALUE, 10).length);
+	}
+
+	private Video[] page(long after, int limit) throws Exception {
+		MvcResult result = mockMvc.perform(get(VideoSvcApi.VIDEO_SVC_PATH)
+				.param(VideoListSvcApi.AFTER_PARAMETER, String.valueOf(after))
+				.param(VideoListSvcApi.LIMIT_PARAMETER, String.valueOf(limit)))
+				.andExpect(status().isOk())
+				.andReturn();
+		return objectMapper.readValue(result.getResponse().getContentAsString(), Video[].class);
+	}
+
+}
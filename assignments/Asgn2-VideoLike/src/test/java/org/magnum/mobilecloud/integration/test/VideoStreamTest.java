@@ -0,0 +1,129 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that the streamed GET /video and GET /video/search/findByName
+ * responses are a single JSON array holding every matching video once, in
+ * id order, across the pages that they are read in.
+ * 
+ * Each test adds more than two pages of videos and deletes them again
+ * afterwards, so that tests which count the statements behind GET /video
+ * still see a table that fits in one page.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = Application.class, loader = SpringApplicationContextLoader.class)
+public class VideoStreamTest {
+
+	// More than two of the pages that the videos are streamed in
+	private static final int VIDEOS = 1100;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	private MockMvc mockMvc;
+
+	private String title;
+
+	private List<Long> ids;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+		title = "Video-" + UUID.randomUUID();
+		List<Video> batch = new ArrayList<Video>();
+		for (int i = 0; i < VIDEOS; i++) {
+			batch.add(new Video(title, "http://coursera.org/some/video-" + i, 1000 * i, 0));
+		}
+		ids = new ArrayList<Long>();
+		for (Video v : videos.save(batch)) {
+			ids.add(v.getId());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (Long id : ids) {
+			videos.delete(id);
+		}
+	}
+
+	@Test
+	public void testFindByTitleStreamsEveryMatchInOrder() throws Exception {
+		List<Long> found = new ArrayList<Long>();
+		for (Video v : perform(get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, title))) {
+			assertEquals(title, v.getName());
+			found.add(v.getId());
+		}
+		assertEquals(ids, found);
+	}
+
+	@Test
+	public void testVideoListHoldsEveryVideoOnce() throws Exception {
+		Set<Long> seen = new HashSet<Long>();
+		long last = 0;
+		for (Video v : perform(get(VideoSvcApi.VIDEO_SVC_PATH))) {
+			assertTrue(seen.add(v.getId()));
+			assertTrue(v.getId() > last);
+			last = v.getId();
+		}
+		assertTrue(seen.containsAll(ids));
+	}
+
+	@Test
+	public void testNoMatchesIsEmptyArray() throws Exception {
+		assertEquals(0, perform(get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, "Video-" + UUID.randomUUID())).length);
+	}
+
+	private Video[] perform(RequestBuilder request) throws Exception {
+		MvcResult result = mockMvc.perform(request)
+				.andExpect(status().isOk())
+				.andReturn();
+		return objectMapper.readValue(result.getResponse().getContentAsString(), Video[].class);
+	}
+
+}
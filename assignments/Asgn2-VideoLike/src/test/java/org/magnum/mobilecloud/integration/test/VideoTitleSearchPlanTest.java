@@ -0,0 +1,241 @@
+package org.magnum.mobilecloud.integration.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.magnum.mobilecloud.video.Application;
+import org.magnum.mobilecloud.video.MyController;
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.client.VideoTitleSearchSvcApi;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.SpringApplicationContextLoader;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Sends each title search to the controller, records the SQL that
+ * Hibernate prepares to answer it, and asks HSQLDB for the plan of that
+ * statement, to check that it reads the video table through the index
+ * meant for it rather than scanning the whole table.
+ * 
+ * The SQL is recorded by wrapping the application's DataSource. The
+ * wrapped DataSource is a separate embedded database, so that Hibernate
+ * creating and dropping the tables for this test's context doesn't touch
+ * the database that the other tests share.
+ * 
+ * @author mitchell
+ *
+ */
+@WebAppConfiguration
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class })
+@ContextConfiguration(classes = { Application.class, VideoTitleSearchPlanTest.RecordingConfiguration.class },
+		loader = SpringApplicationContextLoader.class)
+public class VideoTitleSearchPlanTest {
+
+	// A statement that reads the video table (and not, e.g., video_like)
+	private static final Pattern SELECT_VIDEOS = Pattern.compile("^select .* from video\\b", Pattern.DOTALL);
+
+	@Autowired
+	private MyController controller;
+
+	@Autowired
+	private VideoRepository videos;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private StatementRecorder statements;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	// No endpoint calls findByName() any more, but it is still part of
+	// the repository, so its statement is checked too
+	@Test
+	public void testFindByNameUsesNameIndex() {
+		statements.clear();
+		videos.findByName("Video-1");
+		assertUsesIndex("VIDEO_NAME", selectFromVideo());
+	}
+
+	@Test
+	public void testStreamedFindByNameUsesNameIndex() throws Exception {
+		String sql = perform(get(VideoSvcApi.VIDEO_TITLE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, "Video-1"));
+		assertUsesIndex("VIDEO_NAME", sql);
+	}
+
+	@Test
+	public void testFindByNameIgnoreCaseUsesNameKeyIndex() throws Exception {
+		String sql = perform(get(VideoTitleSearchSvcApi.VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH)
+				.param(VideoSvcApi.TITLE_PARAMETER, "Video-1"));
+		assertUsesIndex("VIDEO_NAME_KEY", sql);
+	}
+
+	@Test
+	public void testFindByNameStartingWithUsesNameKeyIndex() throws Exception {
+		String sql = perform(get(VideoTitleSearchSvcApi.VIDEO_TITLE_PREFIX_SEARCH_PATH)
+				.param(VideoTitleSearchSvcApi.PREFIX_PARAMETER, "Video-"));
+		assertUsesIndex("VIDEO_NAME_KEY", sql);
+	}
+
+	// Sends the request and returns the statement that read the video
+	// table while handling it
+	private String perform(RequestBuilder request) throws Exception {
+		statements.clear();
+		mockMvc.perform(request).andExpect(status().isOk());
+		return selectFromVideo();
+	}
+
+	// The one statement that read the video table since the recorder was
+	// last cleared
+	private String selectFromVideo() {
+		List<String> selects = new ArrayList<String>();
+		for (String sql : statements.getStatements()) {
+			if (SELECT_VIDEOS.matcher(sql.trim().toLowerCase(Locale.ROOT)).find()) {
+				selects.add(sql);
+			}
+		}
+		assertEquals(selects.toString(), 1, selects.size());
+		return selects.get(0);
+	}
+
+	// HSQLDB explains a statement with parameters without their values,
+	// since the plan it picks doesn't depend on them
+	private void assertUsesIndex(String index, String sql) {
+		StringBuilder plan = new StringBuilder(sql).append('\n');
+		for (String line : jdbc.queryForList("EXPLAIN PLAN FOR " + sql, String.class)) {
+			plan.append(line).append('\n');
+		}
+		String explained = plan.toString().toUpperCase();
+		assertFalse(plan.toString(), explained.contains("FULL SCAN"));
+		// The index name is followed by a non-word character, so that
+		// VIDEO_NAME doesn't match VIDEO_NAME_KEY
+		assertTrue(plan.toString(), Pattern.compile("INDEX=" + index + "\\b").matcher(explained).find());
+	}
+
+	@Configuration
+	static class RecordingConfiguration {
+
+		@Bean
+		public static StatementRecorder statementRecorder() {
+			return new StatementRecorder();
+		}
+
+	}
+
+	/**
+	 * Replaces the application's DataSource with one for a separate
+	 * embedded database, whose connections record the SQL of every
+	 * statement that is prepared on them.
+	 */
+	static class StatementRecorder implements BeanPostProcessor, DisposableBean {
+
+		private final List<String> statements = new ArrayList<String>();
+
+		private EmbeddedDatabase database;
+
+		public synchronized List<String> getStatements() {
+			return new ArrayList<String>(statements);
+		}
+
+		public synchronized void clear() {
+			statements.clear();
+		}
+
+		private synchronized void record(String sql) {
+			statements.add(sql);
+		}
+
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) {
+			return bean;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) {
+			if (!(bean instanceof DataSource) || database != null) {
+				return bean;
+			}
+			database = new EmbeddedDatabaseBuilder()
+					.setType(EmbeddedDatabaseType.HSQL)
+					.setName("video-title-search-plan")
+					.build();
+			return recording(DataSource.class, database);
+		}
+
+		@Override
+		public void destroy() {
+			if (database != null) {
+				database.shutdown();
+			}
+		}
+
+		// Wraps the target so that every call goes through to it, any
+		// Connection it returns is wrapped too, and the SQL passed to
+		// prepareStatement() or prepareCall() is recorded
+		private <T> T recording(Class<T> type, final Object target) {
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							String name = method.getName();
+							if ((name.equals("prepareStatement") || name.equals("prepareCall"))
+									&& args != null && args[0] instanceof String) {
+								record((String) args[0]);
+							}
+							Object result;
+							try {
+								result = method.invoke(target, args);
+							} catch (InvocationTargetException e) {
+								throw e.getCause();
+							}
+							return (result instanceof Connection)
+									? recording(Connection.class, result)
+									: result;
+						}
+					}));
+		}
+
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.magnum.mobilecloud.video;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the estimates of HyperLogLog, that a sketch stays sparse while
+ * few buckets are hit and gives the same estimates once it turns dense,
+ * that merging gives the sketch of the union (also across precisions),
+ * and that both stored forms read back to the same sketch.
+ * 
+ * @author mitchell
+ */
+public class HyperLogLogTest {
+
+	private static final int PRECISION = 12;
+
+	@Test
+	public void testEstimatesWithinErrorBound() {
+		for (int n : new int[] { 0, 1, 10, 1000, 100000 }) {
+			HyperLogLog sketch = sketchOf(0, n);
+			// Four standard errors, and at least one value
+			double allowed = Math.max(1, 4 * 1.04 / Math.sqrt(1 << PRECISION) * n);
+			assertEquals("Estimate for " + n + " values", n, sketch.estimate(), allowed);
+		}
+	}
+
+	@Test
+	public void testDuplicatesDontChangeSketch() {
+		HyperLogLog sketch = sketchOf(0, 100);
+		for (int i = 0; i < 100; i++) {
+			assertFalse(sketch.offer("user-" + i));
+		}
+	}
+
+	@Test
+	public void testStaysSparseForFewValues() {
+		HyperLogLog sketch = sketchOf(0, 50);
+		assertTrue(sketch.isSparse());
+		assertTrue(sketch.getSizeInBytes() < (1 << PRECISION) / 4);
+
+		HyperLogLog many = sketchOf(0, 10000);
+		assertFalse(many.isSparse());
+		assertEquals(1 << PRECISION, many.getSizeInBytes());
+	}
+
+	@Test
+	public void testSparseAndDenseGiveSameEstimate() {
+		HyperLogLog sparse = sketchOf(0, 200);
+		assertTrue(sparse.isSparse());
+
+		// The registers of the sparse sketch, read back in the dense form
+		HyperLogLog copy = HyperLogLog.fromBytes(denseBytesOf(sparse));
+		assertFalse(copy.isSparse());
+		assertEquals(sparse.estimate(), copy.estimate());
+	}
+
+	@Test
+	public void testMergeIsUnion() {
+		HyperLogLog a = sketchOf(0, 6000);
+		HyperLogLog b = sketchOf(4000, 10000);
+		HyperLogLog expected = sketchOf(0, 10000);
+
+		HyperLogLog union = HyperLogLog.merge(a, b);
+		assertEquals(expected.estimate(), union.estimate());
+		assertTrue(a.merge(b));
+		assertEquals(expected.estimate(), a.estimate());
+		assertFalse(a.merge(b));
+	}
+
+	@Test
+	public void testSparseMergeStaysSparse() {
+		HyperLogLog a = sketchOf(0, 20);
+		HyperLogLog b = sketchOf(20, 40);
+		HyperLogLog union = HyperLogLog.merge(a, b);
+		assertTrue(union.isSparse());
+		assertEquals(sketchOf(0, 40).estimate(), union.estimate());
+	}
+
+	@Test
+	public void testMergeAcrossPrecisions() {
+		HyperLogLog high = new HyperLogLog(14);
+		HyperLogLog low = new HyperLogLog(10);
+		HyperLogLog expected = new HyperLogLog(10);
+		for (int i = 0; i < 20000; i++) {
+			(i % 2 == 0 ? high : low).offer("user-" + i);
+			expected.offer("user-" + i);
+		}
+		HyperLogLog union = HyperLogLog.merge(high, low);
+		assertEquals(10, union.getPrecision());
+		assertEquals(expected.estimate(), union.estimate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCantMergeLowerPrecisionIn() {
+		new HyperLogLog(12).merge(new HyperLogLog(10));
+	}
+
+	@Test
+	public void testBytesRoundTrip() {
+		for (int n : new int[] { 0, 30, 50000 }) {
+			HyperLogLog sketch = sketchOf(0, n);
+			byte[] bytes = sketch.toBytes();
+			HyperLogLog read = HyperLogLog.fromBytes(bytes);
+			assertEquals(sketch.isSparse(), read.isSparse());
+			assertEquals(sketch.estimate(), read.estimate());
+			assertArrayEquals(bytes, read.toBytes());
+		}
+	}
+
+	@Test
+	public void testSparseBytesAreSmall() {
+		assertEquals(1 + 3 * 5, sketchOf(0, 5).toBytes().length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsTruncatedDenseBytes() {
+		HyperLogLog.fromBytes(new byte[] { PRECISION, 0, 0 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsTruncatedSparseBytes() {
+		HyperLogLog.fromBytes(new byte[] { (byte) (PRECISION | 0x80), 0, 1 });
+	}
+
+	private static HyperLogLog sketchOf(int from, int to) {
+		HyperLogLog sketch = new HyperLogLog(PRECISION);
+		for (int i = from; i < to; i++) {
+			sketch.offer("user-" + i);
+		}
+		return sketch;
+	}
+
+	// The dense form that sketches were stored in before they had a sparse
+	// one: the precision followed by every register
+	private static byte[] denseBytesOf(HyperLogLog sparse) {
+		byte[] sparseBytes = sparse.toBytes();
+		byte[] dense = new byte[(1 << PRECISION) + 1];
+		dense[0] = PRECISION;
+		for (int i = 1; i < sparseBytes.length; i += 3) {
+			int bucket = (sparseBytes[i] & 0xff) << 8 | (sparseBytes[i + 1] & 0xff);
+			dense[bucket + 1] = sparseBytes[i + 2];
+		}
+		return dense;
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.magnum.mobilecloud.video;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how fast 64 threads can count likes of the same video with:
+ * 
+ *  - locked:  a synchronized read-modify-write of a long, which is what
+ *             loading, incrementing and saving the video row amounts to
+ *  - atomic:  a single AtomicLong that every thread CASes
+ *  - striped: the StripedCounter that LikeCounters uses
+ * 
+ * Each thread increments the counter the same number of times and the
+ * final count is checked, so no update may be lost. Run it with:
+ * 
+ *   java -cp ... org.magnum.mobilecloud.video.LikeCounterBenchmark
+ * 
+ * @author mitchell
+ */
+public class LikeCounterBenchmark {
+
+	private static final int THREADS = 64;
+
+	private static final int LIKES_PER_THREAD = 1000000;
+
+	private static final int ROUNDS = 5;
+
+	private interface Counter {
+		void increment();
+
+		long get();
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.out.println(String.format("%-8s %14s %14s", "counter", "likes / s", "ns / like"));
+		for (int round = 0; round < ROUNDS; round++) {
+			boolean warmup = (round < ROUNDS - 1);
+			run("locked", warmup, new Counter() {
+				private long likes;
+
+				@Override
+				public synchronized void increment() {
+					likes++;
+				}
+
+				@Override
+				public synchronized long get() {
+					return likes;
+				}
+			});
+			run("atomic", warmup, new Counter() {
+				private final AtomicLong likes = new AtomicLong();
+
+				@Override
+				public void increment() {
+					likes.incrementAndGet();
+				}
+
+				@Override
+				public long get() {
+					return likes.get();
+				}
+			});
+			run("striped", warmup, new Counter() {
+				private final StripedCounter likes = new StripedCounter();
+
+				@Override
+				public void increment() {
+					likes.increment();
+				}
+
+				@Override
+				public long get() {
+					return likes.sum();
+				}
+			});
+		}
+	}
+
+	private static void run(String name, boolean warmup, final Counter counter) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int n = 0; n < LIKES_PER_THREAD; n++) {
+						counter.increment();
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+
+		long expected = (long) THREADS * LIKES_PER_THREAD;
+		if (counter.get() != expected) {
+			throw new IllegalStateException(name + " counted " + counter.get() + " likes instead of " + expected);
+		}
+		if (!warmup) {
+			System.out.println(String.format("%-8s %14.0f %14.2f", name, expected / (elapsed / 1e9),
+					(double) elapsed / expected));
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.magnum.mobilecloud.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Checks that LikeLeaderboard ranks videos by likes, most-liked first,
+ * breaks ties by id, moves a video when its count changes, doesn't reset
+ * a video that is added after it was liked, and never loses or duplicates
+ * a video while many threads update it.
+ * 
+ * The leaderboard is used without Spring, so rebuild() isn't called and it
+ * starts empty.
+ * 
+ * @author mitchell
+ */
+public class LikeLeaderboardTest {
+
+	@Test
+	public void testRanksByLikesThenId() {
+		LikeLeaderboard leaderboard = new LikeLeaderboard();
+		leaderboard.update(3, 5);
+		leaderboard.update(1, 2);
+		leaderboard.update(2, 5);
+		leaderboard.update(4, 0);
+
+		assertEquals(Arrays.asList(2L, 3L, 1L, 4L), leaderboard.getTop(10));
+		assertEquals(Arrays.asList(2L, 3L), leaderboard.getTop(2));
+		assertTrue(leaderboard.getTop(0).isEmpty());
+	}
+
+	@Test
+	public void testMovesVideoWhenLikesChange() {
+		LikeLeaderboard leaderboard = new LikeLeaderboard();
+		leaderboard.update(1, 3);
+		leaderboard.update(2, 2);
+		leaderboard.update(2, 4);
+		assertEquals(Arrays.asList(2L, 1L), leaderboard.getTop(10));
+
+		leaderboard.update(2, 0);
+		assertEquals(Arrays.asList(1L, 2L), leaderboard.getTop(10));
+	}
+
+	@Test
+	public void testAddIfAbsentKeepsExistingLikes() {
+		LikeLeaderboard leaderboard = new LikeLeaderboard();
+		leaderboard.addIfAbsent(1);
+		leaderboard.update(2, 3);
+		// A like that ranked video 2 before it was added isn't undone
+		leaderboard.addIfAbsent(2);
+		assertEquals(Arrays.asList(2L, 1L), leaderboard.getTop(10));
+
+		leaderboard.update(1, 5);
+		leaderboard.addIfAbsent(1);
+		assertEquals(Arrays.asList(1L, 2L), leaderboard.getTop(10));
+	}
+
+	@Test
+	public void testFollowsCounter() {
+		LikeLeaderboard leaderboard = new LikeLeaderboard();
+		StripedCounter likes = new StripedCounter();
+		leaderboard.update(1, 1);
+		leaderboard.update(2, likes);
+		assertEquals(Arrays.asList(1L, 2L), leaderboard.getTop(10));
+
+		likes.add(2);
+		leaderboard.update(2, likes);
+		assertEquals(Arrays.asList(2L, 1L), leaderboard.getTop(10));
+	}
+
+	@Test
+	public void testConcurrentUpdatesKeepOneEntryPerVideo() throws Exception {
+		final int videos = 16;
+		final int threads = 8;
+		final LikeLeaderboard leaderboard = new LikeLeaderboard();
+		final StripedCounter[] counters = new StripedCounter[videos];
+		for (int i = 0; i < videos; i++) {
+			counters[i] = new StripedCounter();
+			leaderboard.update(i, counters[i]);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int n = 0; n < 10000; n++) {
+						int video = n % videos;
+						counters[video].add(video);
+						leaderboard.update(video, counters[video]);
+					}
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread t : workers) {
+			t.join();
+		}
+
+		// Video i got i likes per update, so the ranking is by id, reversed
+		List<Long> top = leaderboard.getTop(videos + 1);
+		assertEquals(videos, top.size());
+		for (int i = 0; i < videos; i++) {
+			assertEquals(Long.valueOf(videos - 1 - i), top.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.magnum.mobilecloud.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Checks that SortedLongSet behaves like a set of longs: duplicates are
+ * dropped, and adds and removes report whether they changed the set, for
+ * members in any order and across the growth of its array.
+ * 
+ * @author mitchell
+ */
+public class SortedLongSetTest {
+
+	@Test
+	public void testCreateFromUnsortedMembersWithDuplicates() {
+		SortedLongSet set = new SortedLongSet(new long[] { 5, 1, 5, -3, 1 });
+		assertEquals(3, set.size());
+		assertTrue(set.contains(-3));
+		assertTrue(set.contains(1));
+		assertTrue(set.contains(5));
+		assertFalse(set.contains(2));
+	}
+
+	@Test
+	public void testAddAndRemove() {
+		SortedLongSet set = new SortedLongSet();
+		assertFalse(set.contains(7));
+		assertTrue(set.add(7));
+		assertFalse(set.add(7));
+		assertTrue(set.contains(7));
+		assertTrue(set.remove(7));
+		assertFalse(set.remove(7));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	public void testMatchesTreeSet() {
+		Random random = new Random(42);
+		SortedLongSet set = new SortedLongSet();
+		TreeSet<Long> expected = new TreeSet<Long>();
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextInt(500);
+			if (random.nextBoolean()) {
+				assertEquals(expected.add(value), set.add(value));
+			} else {
+				assertEquals(expected.remove(value), set.remove(value));
+			}
+		}
+		assertEquals(expected.size(), set.size());
+		for (long value = 0; value < 500; value++) {
+			assertEquals(expected.contains(value), set.contains(value));
+		}
+	}
+
+	@Test
+	public void testExtremeValues() {
+		SortedLongSet set = new SortedLongSet(new long[] { Long.MAX_VALUE });
+		assertTrue(set.add(Long.MIN_VALUE));
+		assertTrue(set.add(0));
+		assertTrue(set.contains(Long.MIN_VALUE));
+		assertTrue(set.contains(Long.MAX_VALUE));
+		assertEquals(3, set.size());
+	}
+
+}
@@ -0,0 +1,172 @@
+package org.magnum.mobilecloud.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Checks that VideoCache answers repeated lookups and duration searches
+ * without going back to the repository, hands out copies that callers
+ * can change, drops cached searches when a video is saved, and doesn't
+ * cache a search result with more than maxQueryResultVideos videos or
+ * one that was read while a video was being saved.
+ * 
+ * The repository is a Mockito mock, so the test can count how often the
+ * cache goes to it.
+ * 
+ * @author mitchell
+ */
+public class VideoCacheTest {
+
+	private static final int MAX_RESULT_VIDEOS = 5;
+
+	@Mock
+	private VideoRepository videos;
+
+	private VideoCache cache;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		cache = new VideoCache(100, 100, MAX_RESULT_VIDEOS, 60);
+		ReflectionTestUtils.setField(cache, "videos", videos);
+	}
+
+	@Test
+	public void testFindOneIsCached() {
+		Video v = video(1);
+		when(videos.save(v)).thenReturn(v);
+		cache.save(v);
+
+		assertEquals("Video-1", cache.findOne(1).getName());
+		cache.findOne(1);
+		// Saving cached the video, so the repository is never asked
+		verify(videos, times(0)).findOne(1L);
+
+		assertNull(cache.findOne(99));
+		verify(videos, times(1)).findOne(99L);
+	}
+
+	@Test
+	public void testCallersGetCopies() {
+		when(videos.findOne(1L)).thenReturn(video(1));
+		cache.findOne(1).setName("changed");
+		assertEquals("Video-1", cache.findOne(1).getName());
+
+		when(videos.findByDurationLessThan(3000)).thenReturn(videos(1, 2));
+		cache.findByDurationLessThan(3000).iterator().next().setName("changed");
+		assertEquals("Video-1", cache.findByDurationLessThan(3000).iterator().next().getName());
+	}
+
+	@Test
+	public void testSearchIsCachedUntilSave() {
+		when(videos.findByDurationLessThan(3000)).thenReturn(videos(1, 2));
+		assertEquals(2, cache.findByDurationLessThan(3000).size());
+		assertEquals(2, cache.findByDurationLessThan(3000).size());
+		verify(videos, times(1)).findByDurationLessThan(3000);
+
+		Video v = video(3);
+		when(videos.save(v)).thenReturn(v);
+		when(videos.findByDurationLessThan(3000)).thenReturn(videos(1, 3));
+		cache.save(v);
+		assertEquals(3, cache.findByDurationLessThan(3000).size());
+		verify(videos, times(2)).findByDurationLessThan(3000);
+	}
+
+	@Test
+	public void testLargeResultIsNotCached() {
+		when(videos.findByDurationLessThan(Long.MAX_VALUE)).thenReturn(videos(1, MAX_RESULT_VIDEOS + 1));
+		assertEquals(MAX_RESULT_VIDEOS + 1, cache.findByDurationLessThan(Long.MAX_VALUE).size());
+		assertEquals(MAX_RESULT_VIDEOS + 1, cache.findByDurationLessThan(Long.MAX_VALUE).size());
+		verify(videos, times(2)).findByDurationLessThan(Long.MAX_VALUE);
+
+		// A result at the limit is still cached
+		when(videos.findByDurationLessThan(1000)).thenReturn(videos(1, MAX_RESULT_VIDEOS));
+		assertEquals(MAX_RESULT_VIDEOS, cache.findByDurationLessThan(1000).size());
+		cache.findByDurationLessThan(1000);
+		verify(videos, times(1)).findByDurationLessThan(1000);
+	}
+
+	// A search that read the repository before a concurrent save finished
+	// returns what it read, but mustn't cache it, or the saved video would
+	// be missing from the search until the result expired
+	@Test
+	public void testSearchRacingSaveIsNotCached() throws Exception {
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch saved = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+		when(videos.findByDurationLessThan(3000)).thenAnswer(new Answer<Collection<Video>>() {
+			@Override
+			public Collection<Video> answer(InvocationOnMock invocation) throws Exception {
+				if (first.compareAndSet(true, false)) {
+					// Hold the first search until the save is done, and
+					// answer it as of before the save
+					reading.countDown();
+					assertTrue(saved.await(10, TimeUnit.SECONDS));
+					return videos(1, 2);
+				}
+				return videos(1, 3);
+			}
+		});
+		Video v = video(3);
+		when(videos.save(v)).thenReturn(v);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Collection<Video>> search = executor.submit(new Callable<Collection<Video>>() {
+				@Override
+				public Collection<Video> call() {
+					return cache.findByDurationLessThan(3000);
+				}
+			});
+			assertTrue(reading.await(10, TimeUnit.SECONDS));
+			cache.save(v);
+			saved.countDown();
+			assertEquals(2, search.get(10, TimeUnit.SECONDS).size());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(3, cache.findByDurationLessThan(3000).size());
+		assertEquals(3, cache.findByDurationLessThan(3000).size());
+		verify(videos, times(2)).findByDurationLessThan(3000);
+	}
+
+	private static Video video(long id) {
+		return new Video(id, "Video-" + id, "http://coursera.org/some/video-" + id, 1000 * id, 0);
+	}
+
+	// The videos with ids from first to last, inclusive
+	private static List<Video> videos(long first, long last) {
+		List<Video> vs = new ArrayList<Video>();
+		for (long id = first; id <= last; id++) {
+			vs.add(video(id));
+		}
+		return vs;
+	}
+
+}
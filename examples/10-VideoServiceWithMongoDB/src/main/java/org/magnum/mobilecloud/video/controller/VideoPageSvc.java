@@ -0,0 +1,51 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.util.List;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Serves the videos a page at a time, in id order, using keyset (seek)
+ * pagination: each page is the videos with ids greater than the last id
+ * of the previous page. Unlike the page numbers of Spring Data Rest's
+ * GET /video?page=N, which make MongoDB skip over every earlier video,
+ * every page costs the same no matter how deep into the videos it is.
+ * 
+ * The request mapping only matches requests with a limit parameter, so
+ * every other GET /video is still handled by Spring Data Rest.
+ * 
+ * @author jules
+ *
+ */
+@Controller
+public class VideoPageSvc {
+
+	// The most videos that a page will return
+	public static final int MAX_PAGE_SIZE = 100;
+
+	@Autowired
+	private VideoRepository videos;
+
+	// Receives GET requests to /video?after={id}&limit={limit} and returns
+	// the next page of up to limit videos after the video with the given
+	// id. Clients start with after=0 and pass the id of the last video of
+	// each page to get the next one, until a page comes back with fewer
+	// than limit videos.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=VideoSvcApi.LIMIT_PARAMETER)
+	public @ResponseBody List<Video> getVideoList(
+			@RequestParam(value=VideoSvcApi.AFTER_PARAMETER, defaultValue="0") long after,
+			@RequestParam(VideoSvcApi.LIMIT_PARAMETER) int limit){
+		int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+		return videos.findByIdGreaterThanOrderByIdAsc(after, new PageRequest(0, size));
+	}
+
+}
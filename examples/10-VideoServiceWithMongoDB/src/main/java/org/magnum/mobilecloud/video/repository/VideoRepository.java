@@ -1,11 +1,14 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  * An interface for a repository that can store Video
@@ -42,6 +45,14 @@ public interface VideoRepository extends MongoRepository<Video, Long>{
 			// search for Videos
 			@Param(VideoSvcApi.DURATION_PARAMETER) long maxduration);
 	
+	// Find the videos with ids greater than after, in id order. Called with
+	// a PageRequest for page 0, this runs as a range query on the _id index
+	// ({_id: {$gt: after}} sorted by _id with a limit) rather than skipping
+	// over the earlier videos. VideoPageSvc serves it as GET /video?after=&limit=,
+	// so it isn't exported as a search.
+	@RestResource(exported = false)
+	public List<Video> findByIdGreaterThanOrderByIdAsc(long after, Pageable page);
+	
 	/*
 	 * See: http://docs.spring.io/spring-data/jpa/docs/1.3.0.RELEASE/reference/html/jpa.repositories.html 
 	 * for more examples of writing query methods
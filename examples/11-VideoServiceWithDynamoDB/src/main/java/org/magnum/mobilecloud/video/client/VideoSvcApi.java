@@ -23,7 +23,13 @@ public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
 	
+	public static final String PREFIX_PARAMETER = "prefix";
+	
 	public static final String DURATION_PARAMETER = "duration";
+	
+	public static final String AFTER_PARAMETER = "after";
+	
+	public static final String LIMIT_PARAMETER = "limit";
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
@@ -31,18 +37,39 @@ public interface VideoSvcApi {
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByName";
 	
+	// The path to search videos by title, ignoring case
+	public static final String VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByNameIgnoreCase";
+	
+	// The path to search videos by the start of their titles
+	public static final String VIDEO_TITLE_PREFIX_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByNameStartingWith";
+	
 	// The path to search videos by title
 	public static final String VIDEO_DURATION_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByDurationLessThan";
 
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
+	// Returns the next page of up to limit (at most 100) videos after the
+	// video with the given id (null for the first page). Videos come back
+	// in the table's scan order, so pass the id of the last video of a page
+	// to get the next one.
+	@GET(VIDEO_SVC_PATH)
+	public Collection<Video> getVideoList(@Query(AFTER_PARAMETER) String after, @Query(LIMIT_PARAMETER) int limit);
+	
 	@POST(VIDEO_SVC_PATH)
 	public Void addVideo(@Body Video v);
 	
 	@GET(VIDEO_TITLE_SEARCH_PATH)
 	public Collection<Video> findByTitle(@Query(TITLE_PARAMETER) String title);
 	
+	@GET(VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH)
+	public Collection<Video> findByTitleIgnoreCase(@Query(TITLE_PARAMETER) String title);
+	
+	// Returns up to 100 videos with titles that start with the prefix,
+	// ignoring case, in title order
+	@GET(VIDEO_TITLE_PREFIX_SEARCH_PATH)
+	public Collection<Video> findByTitleStartingWith(@Query(PREFIX_PARAMETER) String prefix);
+	
 	@GET(VIDEO_DURATION_SEARCH_PATH)
 	public Collection<Video> findByDurationLessThan(@Query(DURATION_PARAMETER) String title);
 	
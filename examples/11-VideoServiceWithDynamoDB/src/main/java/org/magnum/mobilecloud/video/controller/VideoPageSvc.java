@@ -0,0 +1,85 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Serves the videos a page at a time using DynamoDB's own cursor: each
+ * scan starts from the ExclusiveStartKey of the last video of the previous
+ * page, so DynamoDB only reads the videos on the page being returned rather
+ * than the whole table, which is what the plain GET /video does.
+ * 
+ * Videos come back in the order of their hash keys, not their ids, so
+ * clients can't compute the next page's "after" themselves and must use the
+ * id of the last video they received.
+ * 
+ * The request mapping only matches requests with a limit parameter, so
+ * every other GET /video is still handled by Spring Data Rest.
+ * 
+ * @author jules
+ *
+ */
+@Controller
+public class VideoPageSvc {
+
+	// The most videos that a page will return
+	public static final int MAX_PAGE_SIZE = 100;
+
+	private final DynamoDBMapper mapper;
+
+	@Autowired
+	public VideoPageSvc(AmazonDynamoDB amazonDynamoDB) {
+		mapper = new DynamoDBMapper(amazonDynamoDB);
+	}
+
+	// Receives GET requests to /video?after={id}&limit={limit} and returns
+	// the next page of up to limit videos after the video with the given
+	// id. Clients leave out after for the first page and stop once a page
+	// comes back with fewer than limit videos.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=VideoSvcApi.LIMIT_PARAMETER)
+	public @ResponseBody List<Video> getVideoList(
+			@RequestParam(value=VideoSvcApi.AFTER_PARAMETER, required=false) String after,
+			@RequestParam(VideoSvcApi.LIMIT_PARAMETER) int limit){
+		int size = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+		Map<String, AttributeValue> startKey = null;
+		if (after != null && !after.isEmpty()) {
+			startKey = Collections.singletonMap("id", new AttributeValue(after));
+		}
+
+		// A scan's Limit caps the items DynamoDB reads rather than the ones
+		// it returns, and a scan can also stop early at 1MB, so keep going
+		// from where the last scan stopped until the page is full or the
+		// table runs out.
+		List<Video> page = new ArrayList<Video>(size);
+		do {
+			DynamoDBScanExpression scan = new DynamoDBScanExpression();
+			scan.setLimit(size - page.size());
+			scan.setExclusiveStartKey(startKey);
+
+			ScanResultPage<Video> result = mapper.scanPage(Video.class, scan);
+			page.addAll(result.getResults());
+			startKey = result.getLastEvaluatedKey();
+		} while (page.size() < size && startKey != null);
+
+		return page;
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.magnum.mobilecloud.video.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.magnum.mobilecloud.video.client.VideoSvcApi;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+/**
+ * Searches the videos by title by querying the titles global secondary
+ * index (see Video) rather than scanning the table, which is what a
+ * derived findByName query does under @EnableScan. A query only reads the
+ * index entries that match, so a search costs the same however many videos
+ * there are.
+ * 
+ * The index is partitioned by a hash of each lower-case title and sorted
+ * by the title within each partition, so:
+ * 
+ *  - a case-insensitive search is an equality condition on the title, in
+ *    the one partition that the title hashes to
+ *  - a prefix search is a BEGINS_WITH condition on the title in each of the
+ *    Video.TITLE_BUCKETS partitions, merged in title order
+ *  - an exact search is a case-insensitive search that keeps only the
+ *    videos whose titles match exactly
+ * 
+ * Queries of a global secondary index are eventually consistent, so a
+ * video that was just added may take a moment to show up in the searches.
+ * 
+ * @author jules
+ *
+ */
+@Controller
+public class VideoTitleSearchSvc {
+
+	// The most videos that a prefix search will return
+	public static final int MAX_PREFIX_SEARCH_RESULTS = 100;
+
+	private static final Comparator<Video> BY_NAME_KEY = new Comparator<Video>() {
+		@Override
+		public int compare(Video a, Video b) {
+			return a.getNameKey().compareTo(b.getNameKey());
+		}
+	};
+
+	private final AmazonDynamoDB amazonDynamoDB;
+
+	private final DynamoDBMapper mapper;
+
+	@Autowired
+	public VideoTitleSearchSvc(AmazonDynamoDB amazonDynamoDB) {
+		this.amazonDynamoDB = amazonDynamoDB;
+		mapper = new DynamoDBMapper(amazonDynamoDB);
+	}
+
+	// Receives GET requests to /video/search/findByName and returns all
+	// Videos that have a title matching the "title" request parameter
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody List<Video> findByTitle(
+			@RequestParam(VideoSvcApi.TITLE_PARAMETER) String title){
+		List<Video> matches = new ArrayList<Video>();
+		for (Video v : findByTitleIgnoreCase(title)) {
+			if (title.equals(v.getName())) {
+				matches.add(v);
+			}
+		}
+		return matches;
+	}
+
+	// Receives GET requests to /video/search/findByNameIgnoreCase and
+	// returns all Videos that have a title matching the "title" request
+	// parameter, ignoring case
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody List<Video> findByTitleIgnoreCase(
+			@RequestParam(VideoSvcApi.TITLE_PARAMETER) String title){
+		return query(Video.nameKeyOf(title), ComparisonOperator.EQ, Integer.MAX_VALUE);
+	}
+
+	// Receives GET requests to /video/search/findByNameStartingWith and
+	// returns up to MAX_PREFIX_SEARCH_RESULTS Videos with titles that start
+	// with the "prefix" request parameter, ignoring case, in title order.
+	// The titles that start with a prefix can be in any partition, so each
+	// partition is queried for its first MAX_PREFIX_SEARCH_RESULTS matches
+	// and the first MAX_PREFIX_SEARCH_RESULTS of all of them are returned.
+	// An empty prefix matches nothing.
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_PREFIX_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody List<Video> findByTitleStartingWith(
+			@RequestParam(VideoSvcApi.PREFIX_PARAMETER) String prefix){
+		String nameKey = Video.nameKeyOf(prefix);
+		List<Video> matches = new ArrayList<Video>();
+		if (nameKey == null) {
+			return matches;
+		}
+		for (int bucket = 0; bucket < Video.TITLE_BUCKETS; bucket++) {
+			matches.addAll(query(Integer.toString(bucket), nameKey, 
+					ComparisonOperator.BEGINS_WITH, MAX_PREFIX_SEARCH_RESULTS));
+		}
+		Collections.sort(matches, BY_NAME_KEY);
+		return (matches.size() > MAX_PREFIX_SEARCH_RESULTS) 
+				? new ArrayList<Video>(matches.subList(0, MAX_PREFIX_SEARCH_RESULTS)) 
+				: matches;
+	}
+
+	private List<Video> query(String nameKey, ComparisonOperator op, int limit) {
+		return (nameKey != null) 
+				? query(Video.titleBucketOf(nameKey), nameKey, op, limit) 
+				: new ArrayList<Video>();
+	}
+
+	// Queries one partition of the titles index for up to limit videos
+	// whose name keys compare to the given name key with op. The query is
+	// built by hand rather than with a DynamoDBQueryExpression, whose hash
+	// key has to be a Video that the mapper reads titleBucket from, and a
+	// Video always derives titleBucket from its own name.
+	private List<Video> query(String titleBucket, String nameKey, ComparisonOperator op, int limit) {
+		Map<String, Condition> keyConditions = new HashMap<String, Condition>();
+		keyConditions.put(Video.TITLE_BUCKET, new Condition()
+				.withComparisonOperator(ComparisonOperator.EQ)
+				.withAttributeValueList(new AttributeValue(titleBucket)));
+		keyConditions.put(Video.NAME_KEY, new Condition()
+				.withComparisonOperator(op)
+				.withAttributeValueList(new AttributeValue(nameKey)));
+
+		// Like a scan, a query stops at 1MB, so keep going from where the
+		// last page stopped until there are enough videos or no more
+		List<Video> videos = new ArrayList<Video>();
+		Map<String, AttributeValue> startKey = null;
+		do {
+			QueryRequest query = new QueryRequest()
+					.withTableName(Video.TABLE_NAME)
+					.withIndexName(Video.TITLE_INDEX)
+					.withConsistentRead(false)
+					.withKeyConditions(keyConditions)
+					.withLimit(limit - videos.size())
+					.withExclusiveStartKey(startKey);
+
+			QueryResult page = amazonDynamoDB.query(query);
+			for (Map<String, AttributeValue> item : page.getItems()) {
+				videos.add(mapper.marshallIntoObject(Video.class, item));
+			}
+			startKey = page.getLastEvaluatedKey();
+		} while (videos.size() < limit && startKey != null);
+
+		return videos;
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Saves the videos that were stored before the titles index existed (or
+ * before it was partitioned by hash) again, so that they are written with
+ * the nameKey and titleBucket that the title searches look them up by.
+ * Until then, those videos are missing from the index, and so from every
+ * title search, including /video/search/findByName.
+ * 
+ * The backfill has to scan the whole table, so it only runs when the
+ * server is started with -Dvideo.titles.backfill=true. Start the server
+ * that way once, after creating the titles index on an existing Videos
+ * table. Videos that are already indexed are read but not written, so it
+ * is safe to run again.
+ * 
+ * @author jules
+ *
+ */
+@Component
+public class TitleIndexBackfill {
+
+	private static final Logger log = LoggerFactory.getLogger(TitleIndexBackfill.class);
+
+	private final DynamoDBMapper mapper;
+
+	private final boolean enabled;
+
+	@Autowired
+	public TitleIndexBackfill(AmazonDynamoDB amazonDynamoDB,
+			@Value("${video.titles.backfill:false}") boolean enabled) {
+		this.mapper = new DynamoDBMapper(amazonDynamoDB);
+		this.enabled = enabled;
+	}
+
+	@PostConstruct
+	public void backfill() {
+		if (!enabled) {
+			return;
+		}
+
+		// A scan stops at 1MB, so keep going from where the last page
+		// stopped until the table runs out
+		int scanned = 0;
+		int saved = 0;
+		Map<String, AttributeValue> startKey = null;
+		do {
+			DynamoDBScanExpression scan = new DynamoDBScanExpression();
+			scan.setExclusiveStartKey(startKey);
+
+			ScanResultPage<Video> page = mapper.scanPage(Video.class, scan);
+			for (Video v : page.getResults()) {
+				scanned++;
+				if (!v.isTitleIndexed()) {
+					mapper.save(v);
+					saved++;
+				}
+			}
+			startKey = page.getLastEvaluatedKey();
+		} while (startKey != null);
+
+		log.info("Added " + saved + " of " + scanned + " videos to the titles index");
+	}
+
+}
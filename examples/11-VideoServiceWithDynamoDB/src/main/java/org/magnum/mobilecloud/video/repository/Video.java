@@ -1,25 +1,61 @@
 package org.magnum.mobilecloud.video.repository;
 
+import java.util.Locale;
+
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAutoGeneratedKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Objects;
 
 /**
  * A simple object to represent a video and its URL for viewing.
  * 
+ * Each video is also stored with its title folded to lower case (nameKey)
+ * and a hash of that into one of TITLE_BUCKETS buckets (titleBucket).
+ * These are the range and hash keys of the "titles" global secondary
+ * index, which the title searches query instead of scanning the table.
+ * Hashing spreads the titles evenly over the index's partitions, however
+ * many of them start with the same letters. The Videos table has to be
+ * created with that index, projecting all attributes.
+ * 
+ * Neither attribute is part of the JSON for a video, and both are derived
+ * from the name, so they are always written as the name says. Their
+ * setters only remember what was read from the table, so that
+ * TitleIndexBackfill can find the videos that were stored without them
+ * (or with an older bucket) and save them again.
+ * 
  * @author jules
  * 
  */
-@DynamoDBTable(tableName = "Videos")
+@DynamoDBTable(tableName = Video.TABLE_NAME)
 public class Video {
 
+	public static final String TABLE_NAME = "Videos";
+
+	// The global secondary index of the videos by title, and its hash and
+	// range key attributes
+	public static final String TITLE_INDEX = "titles";
+	public static final String TITLE_BUCKET = "titleBucket";
+	public static final String NAME_KEY = "nameKey";
+
+	// The number of partitions that the titles index is spread over. A
+	// prefix search has to query every one of them.
+	public static final int TITLE_BUCKETS = 16;
+
 	private String id;
 	private String name;
 	private String url;
 	private long duration;
 
+	// The index keys as they were read from the table, if at all
+	private String storedNameKey;
+	private String storedTitleBucket;
+
 	public Video() {
 	}
 
@@ -49,6 +85,50 @@ public class Video {
 		this.name = name;
 	}
 
+	@JsonIgnore
+	@DynamoDBIndexRangeKey(globalSecondaryIndexName = TITLE_INDEX)
+	public String getNameKey() {
+		return nameKeyOf(name);
+	}
+
+	public void setNameKey(String nameKey) {
+		storedNameKey = nameKey;
+	}
+
+	@JsonIgnore
+	@DynamoDBIndexHashKey(globalSecondaryIndexName = TITLE_INDEX)
+	public String getTitleBucket() {
+		return titleBucketOf(getNameKey());
+	}
+
+	public void setTitleBucket(String titleBucket) {
+		storedTitleBucket = titleBucket;
+	}
+
+	// Returns true if the index keys that were read from the table are the
+	// ones that the video's name gives it now
+	@JsonIgnore
+	@DynamoDBIgnore
+	public boolean isTitleIndexed() {
+		return Objects.equal(storedNameKey, getNameKey())
+				&& Objects.equal(storedTitleBucket, getTitleBucket());
+	}
+
+	// Returns the key that a title is stored under in the titles index, or
+	// null for an empty title, since DynamoDB doesn't store empty strings
+	public static String nameKeyOf(String name) {
+		return (name != null && !name.isEmpty()) ? name.toLowerCase(Locale.ROOT) : null;
+	}
+
+	// Returns the partition of the titles index that holds a name key.
+	// String.hashCode() is the same in every JVM, so a name key always
+	// hashes to the same bucket.
+	public static String titleBucketOf(String nameKey) {
+		return (nameKey != null) 
+				? Integer.toString((nameKey.hashCode() & 0x7fffffff) % TITLE_BUCKETS) 
+				: null;
+	}
+
 	@DynamoDBAttribute
 	public String getUrl() {
 		return url;
@@ -24,19 +24,16 @@ import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 // 3. Get a specific video by sending a GET request to /video/{videoId}
 //    (e.g., /video/1 would return the JSON for the video with id=1)
 // 4. Send search requests to our findByXYZ methods to /video/search/findByXYZ
-//    (e.g., /video/search/findByName?title=Foo)
+//    (e.g., /video/search/findByDurationLessThan?duration=1000)
+//
+// The title searches aren't repository methods, because a derived query
+// would scan the whole table. VideoTitleSearchSvc serves them, including
+// /video/search/findByName, from the titles index instead.
 //
 @EnableScan
 @RepositoryRestResource(path = VideoSvcApi.VIDEO_SVC_PATH)
 public interface VideoRepository extends CrudRepository<Video, Long>{
 
-	// Find all videos with a matching title (e.g., Video.name)
-	public Collection<Video> findByName(
-			// The @Param annotation tells Spring Data Rest which HTTP request
-			// parameter it should use to fill in the "title" variable used to
-			// search for Videos
-			@Param(VideoSvcApi.TITLE_PARAMETER) String title);
-	
 	// Find all videos that are shorter than a specified duration
 	public Collection<Video> findByDurationLessThan(
 			// The @Param annotation tells tells Spring Data Rest which HTTP request
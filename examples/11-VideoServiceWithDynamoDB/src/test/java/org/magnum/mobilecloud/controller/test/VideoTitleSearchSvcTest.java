@@ -0,0 +1,148 @@
+package org.magnum.mobilecloud.controller.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.magnum.mobilecloud.video.controller.VideoTitleSearchSvc;
+import org.magnum.mobilecloud.video.repository.Video;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+/**
+ * 
+ * This test checks the queries that VideoTitleSearchSvc sends to DynamoDB
+ * for each title search, using a mock AmazonDynamoDB client that returns
+ * no videos. Every search has to query the titles index with a key
+ * condition on both titleBucket and nameKey, rather than scan the table.
+ * 
+ * @author jules
+ *
+ */
+public class VideoTitleSearchSvcTest {
+
+	@Mock
+	private AmazonDynamoDB amazonDynamoDB;
+
+	private VideoTitleSearchSvc titleSearch;
+
+	private ArgumentCaptor<QueryRequest> queries = ArgumentCaptor.forClass(QueryRequest.class);
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		when(amazonDynamoDB.query(any(QueryRequest.class))).thenReturn(new QueryResult());
+		titleSearch = new VideoTitleSearchSvc(amazonDynamoDB);
+	}
+
+	// An ignore-case search is one query of the partition that the
+	// lower-case title hashes to
+	@Test
+	public void testIgnoreCaseSearchQueriesOnePartition() throws Exception {
+		titleSearch.findByTitleIgnoreCase("Some Title");
+
+		verify(amazonDynamoDB, times(1)).query(queries.capture());
+		QueryRequest query = queries.getValue();
+		assertTitleIndexQuery(query);
+		assertCondition(query, Video.TITLE_BUCKET, ComparisonOperator.EQ, Video.titleBucketOf("some title"));
+		assertCondition(query, Video.NAME_KEY, ComparisonOperator.EQ, "some title");
+	}
+
+	// An exact search runs the same query as an ignore-case search and
+	// filters the results
+	@Test
+	public void testExactSearchQueriesOnePartition() throws Exception {
+		titleSearch.findByTitle("Some Title");
+
+		verify(amazonDynamoDB, times(1)).query(queries.capture());
+		QueryRequest query = queries.getValue();
+		assertTitleIndexQuery(query);
+		assertCondition(query, Video.NAME_KEY, ComparisonOperator.EQ, "some title");
+	}
+
+	// A prefix search queries every partition once, for up to
+	// MAX_PREFIX_SEARCH_RESULTS videos each
+	@Test
+	public void testPrefixSearchQueriesEveryPartition() throws Exception {
+		titleSearch.findByTitleStartingWith("Vid");
+
+		verify(amazonDynamoDB, times(Video.TITLE_BUCKETS)).query(queries.capture());
+		Set<String> buckets = new HashSet<String>();
+		for (QueryRequest query : queries.getAllValues()) {
+			assertTitleIndexQuery(query);
+			assertCondition(query, Video.NAME_KEY, ComparisonOperator.BEGINS_WITH, "vid");
+			assertEquals(Integer.valueOf(VideoTitleSearchSvc.MAX_PREFIX_SEARCH_RESULTS), query.getLimit());
+			buckets.add(condition(query, Video.TITLE_BUCKET).getAttributeValueList().get(0).getS());
+		}
+		for (int bucket = 0; bucket < Video.TITLE_BUCKETS; bucket++) {
+			assertTrue(buckets.contains(Integer.toString(bucket)));
+		}
+	}
+
+	// A search that doesn't fit in one page of results carries on from
+	// where the last page stopped
+	@Test
+	public void testSearchContinuesFromLastEvaluatedKey() throws Exception {
+		Map<String, AttributeValue> lastKey = Collections.singletonMap("id", new AttributeValue("1"));
+		when(amazonDynamoDB.query(any(QueryRequest.class))).thenReturn(
+				new QueryResult().withLastEvaluatedKey(lastKey), new QueryResult());
+
+		titleSearch.findByTitleIgnoreCase("Some Title");
+
+		verify(amazonDynamoDB, times(2)).query(queries.capture());
+		List<QueryRequest> sent = queries.getAllValues();
+		assertNull(sent.get(0).getExclusiveStartKey());
+		assertEquals(lastKey, sent.get(1).getExclusiveStartKey());
+	}
+
+	// An empty title can't be in the index, so it isn't looked up
+	@Test
+	public void testEmptySearchesDontQuery() throws Exception {
+		assertTrue(titleSearch.findByTitleIgnoreCase("").isEmpty());
+		assertTrue(titleSearch.findByTitleStartingWith("").isEmpty());
+
+		verify(amazonDynamoDB, times(0)).query(any(QueryRequest.class));
+	}
+
+	private void assertTitleIndexQuery(QueryRequest query) {
+		assertEquals(Video.TABLE_NAME, query.getTableName());
+		assertEquals(Video.TITLE_INDEX, query.getIndexName());
+		assertFalse(query.getConsistentRead());
+		assertEquals(2, query.getKeyConditions().size());
+	}
+
+	private void assertCondition(QueryRequest query, String attribute, ComparisonOperator op, String value) {
+		Condition condition = condition(query, attribute);
+		assertEquals(op.toString(), condition.getComparisonOperator());
+		assertEquals(1, condition.getAttributeValueList().size());
+		assertEquals(value, condition.getAttributeValueList().get(0).getS());
+	}
+
+	private Condition condition(QueryRequest query, String attribute) {
+		Condition condition = query.getKeyConditions().get(attribute);
+		assertTrue("No key condition on " + attribute, condition != null);
+		return condition;
+	}
+
+}
@@ -22,6 +22,10 @@ import retrofit.http.Query;
 public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
+	
+	public static final String AFTER_PARAMETER = "after";
+	
+	public static final String LIMIT_PARAMETER = "limit";
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
@@ -32,6 +36,11 @@ public interface VideoSvcApi {
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
 	
+	// Returns the next page of up to limit (at most 100) videos, in id
+	// order, after the video with the given id (0 for the first page)
+	@GET(VIDEO_SVC_PATH)
+	public Collection<Video> getVideoList(@Query(AFTER_PARAMETER) long after, @Query(LIMIT_PARAMETER) int limit);
+	
 	@POST(VIDEO_SVC_PATH)
 	public boolean addVideo(@Body Video v);
 	
@@ -1,6 +1,7 @@
 package org.magnum.mobilecloud.video.controller;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.magnum.mobilecloud.video.client.VideoSvcApi;
 import org.magnum.mobilecloud.video.repository.Video;
@@ -13,8 +14,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import com.google.api.client.util.Lists;
-
 /**
  * This simple VideoSvc allows clients to send HTTP POST requests with
  * videos that are stored in memory using a list. Clients can send HTTP GET
@@ -32,6 +31,9 @@ import com.google.api.client.util.Lists;
 @Controller
 public class VideoSvc implements VideoSvcApi {
 	
+	// The most videos that a page of GET /video will return
+	public static final int MAX_PAGE_SIZE = 100;
+	
 	// The VideoRepository that we are going to store our videos
 	// in. We don't explicitly construct a VideoRepository, but
 	// instead mark this object as a dependency that needs to be
@@ -68,7 +70,20 @@ public class VideoSvc implements VideoSvcApi {
 
 	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET)
 	public @ResponseBody Collection<Video> getVideoList(){
-		return Lists.newArrayList(videos.findAll());
+		return videos.findAll();
+	}
+	
+	// Receives GET requests to /video?after={id}&limit={limit} and returns
+	// the next page of up to limit videos, in id order, after the video with
+	// the given id. Clients start with after=0 and pass the id of the last
+	// video of each page to get the next one, until a page comes back with
+	// fewer than limit videos.
+	@RequestMapping(value=VideoSvcApi.VIDEO_SVC_PATH, method=RequestMethod.GET, params=LIMIT_PARAMETER)
+	public @ResponseBody List<Video> getVideoList(
+			@RequestParam(value=AFTER_PARAMETER, defaultValue="0") long after,
+			@RequestParam(LIMIT_PARAMETER) int limit
+	){
+		return videos.findByIdGreaterThan(after, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
 	}
 	
 	// Receives GET requests to /video/find and returns all Videos
@@ -87,7 +87,7 @@ public class JDOCrudRepository<T,ID extends Serializable> {
 	 * @return all entities
 	 */
 	@SuppressWarnings("unchecked")
-	public Iterable<T> findAll(){
+	public Collection<T> findAll(){
 		Query query = PMF.get().getPersistenceManager().newQuery(Video.class);
 		Object rslt = query.execute();
 		return (Collection<T>)rslt;
@@ -21,5 +21,19 @@ public class VideoRepository extends JDOCrudRepository<Video, Long>{
 		query.declareParameters("String n");
 		return (List<Video>)query.execute(name);
 	}
+	
+	// Returns up to limit videos with ids greater than after, in id order.
+	// The filter and ordering on the key let the datastore start the scan
+	// of its key index right after the given id, instead of skipping over
+	// the earlier videos the way an offset (setRange(offset, ...)) would.
+	@SuppressWarnings("unchecked")
+	public List<Video> findByIdGreaterThan(long after, int limit){
+		Query query = PMF.get().getPersistenceManager().newQuery(Video.class);
+		query.setFilter("id > a");
+		query.declareParameters("Long a");
+		query.setOrdering("id ascending");
+		query.setRange(0, limit);
+		return (List<Video>)query.execute(after);
+	}
 
 }
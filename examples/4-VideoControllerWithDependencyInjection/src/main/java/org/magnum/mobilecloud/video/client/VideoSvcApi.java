@@ -22,12 +22,33 @@ import retrofit.http.Query;
 public interface VideoSvcApi {
 	
 	public static final String TITLE_PARAMETER = "title";
+	
+	public static final String PREFIX_PARAMETER = "prefix";
+	
+	public static final String DURATION_PARAMETER = "duration";
+	
+	public static final String MIN_DURATION_PARAMETER = "min";
+	
+	public static final String MAX_DURATION_PARAMETER = "max";
+	
+	public static final String COUNT_PARAMETER = "count";
 
 	// The path where we expect the VideoSvc to live
 	public static final String VIDEO_SVC_PATH = "/video";
 
 	// The path to search videos by title
 	public static final String VIDEO_TITLE_SEARCH_PATH = VIDEO_SVC_PATH + "/find";
+	
+	public static final String VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByTitleIgnoreCase";
+	
+	public static final String VIDEO_TITLE_PREFIX_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByTitleStartingWith";
+	
+	// The paths to search videos by duration
+	public static final String VIDEO_DURATION_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByDurationLessThan";
+	
+	public static final String VIDEO_DURATION_RANGE_SEARCH_PATH = VIDEO_SVC_PATH + "/search/findByDurationBetween";
+	
+	public static final String VIDEO_SHORTEST_PATH = VIDEO_SVC_PATH + "/search/findShortest";
 
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
@@ -38,4 +59,20 @@ public interface VideoSvcApi {
 	@GET(VIDEO_TITLE_SEARCH_PATH)
 	public Collection<Video> findByTitle(@Query(TITLE_PARAMETER) String title);
 	
+	@GET(VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH)
+	public Collection<Video> findByTitleIgnoreCase(@Query(TITLE_PARAMETER) String title);
+	
+	@GET(VIDEO_TITLE_PREFIX_SEARCH_PATH)
+	public Collection<Video> findByTitleStartingWith(@Query(PREFIX_PARAMETER) String prefix);
+	
+	@GET(VIDEO_DURATION_SEARCH_PATH)
+	public Collection<Video> findByDurationLessThan(@Query(DURATION_PARAMETER) long duration);
+	
+	@GET(VIDEO_DURATION_RANGE_SEARCH_PATH)
+	public Collection<Video> findByDurationBetween(@Query(MIN_DURATION_PARAMETER) long min, 
+			@Query(MAX_DURATION_PARAMETER) long max);
+	
+	@GET(VIDEO_SHORTEST_PATH)
+	public Collection<Video> findShortest(@Query(COUNT_PARAMETER) int count);
+	
 }
@@ -87,5 +87,55 @@ public class VideoSvc implements VideoSvcApi {
 	){
 		return videos.findByTitle(title);
 	}
+	
+	// Receives GET requests to /video/search/findByTitleIgnoreCase and
+	// returns all Videos with a title matching the "title" request
+	// parameter value, ignoring case
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_IGNORE_CASE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findByTitleIgnoreCase(
+			@RequestParam(TITLE_PARAMETER) String title
+	){
+		return videos.findByTitleIgnoreCase(title);
+	}
+	
+	// Receives GET requests to /video/search/findByTitleStartingWith and
+	// returns all Videos with a title that starts with the "prefix" request
+	// parameter value, ignoring case, in title order
+	@RequestMapping(value=VideoSvcApi.VIDEO_TITLE_PREFIX_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findByTitleStartingWith(
+			@RequestParam(PREFIX_PARAMETER) String prefix
+	){
+		return videos.findByTitleStartingWithIgnoreCase(prefix);
+	}
+	
+	// Receives GET requests to /video/search/findByDurationLessThan and
+	// returns all Videos that are shorter than the "duration" request
+	// parameter value, shortest first
+	@RequestMapping(value=VideoSvcApi.VIDEO_DURATION_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findByDurationLessThan(
+			@RequestParam(DURATION_PARAMETER) long duration
+	){
+		return videos.findByDurationLessThan(duration);
+	}
+	
+	// Receives GET requests to /video/search/findByDurationBetween and
+	// returns all Videos with a duration between the "min" and "max"
+	// request parameter values (inclusive), shortest first
+	@RequestMapping(value=VideoSvcApi.VIDEO_DURATION_RANGE_SEARCH_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findByDurationBetween(
+			@RequestParam(MIN_DURATION_PARAMETER) long min,
+			@RequestParam(MAX_DURATION_PARAMETER) long max
+	){
+		return videos.findByDurationBetween(min, max);
+	}
+	
+	// Receives GET requests to /video/search/findShortest and returns
+	// the "count" shortest Videos, shortest first
+	@RequestMapping(value=VideoSvcApi.VIDEO_SHORTEST_PATH, method=RequestMethod.GET)
+	public @ResponseBody Collection<Video> findShortest(
+			@RequestParam(COUNT_PARAMETER) int count
+	){
+		return videos.findShortest(count);
+	}
 
 }
@@ -2,7 +2,6 @@ package org.magnum.mobilecloud.video.repository;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -29,27 +28,56 @@ public class AllowsDuplicatesVideoRepository implements VideoRepository {
 	// Assume a lot more reads than writes
 	private List<Video> videoList = new CopyOnWriteArrayList<Video>();
 	
+	// A secondary index of the videos by title, so that the title
+	// searches don't have to scan every video
+	private TitleIndex titleIndex = new TitleIndex();
+	
+	// A sorted index of the videos by duration for range queries
+	private DurationIndex durationIndex = new DurationIndex();
+	
 	@Override
 	public boolean addVideo(Video v) {
-		return videoList.add(v);
+		boolean added = videoList.add(v);
+		if(added){
+			titleIndex.add(v);
+			durationIndex.add(v);
+		}
+		return added;
 	}
-
+	
 	@Override
 	public Collection<Video> getVideos() {
 		return videoList;
 	}
 
-	// Search the list of videos for ones with
-	// matching titles.
 	@Override
 	public Collection<Video> findByTitle(String title) {
-		Set<Video> matches = new HashSet<>();
-		for(Video video : videoList){
-			if(video.getName().equals(title)){
-				matches.add(video);
-			}
-		}
-		return matches;
+		return titleIndex.findByTitle(title);
+	}
+
+	@Override
+	public Collection<Video> findByTitleIgnoreCase(String title) {
+		return titleIndex.findByTitleIgnoreCase(title);
+	}
+
+	@Override
+	public Collection<Video> findByTitleStartingWithIgnoreCase(String prefix) {
+		return titleIndex.findByTitleStartingWithIgnoreCase(prefix);
+	}
+
+	@Override
+	public Collection<Video> findByDurationLessThan(long duration) {
+		return durationIndex.findByDurationLessThan(duration);
+	}
+
+	@Override
+	public Collection<Video> findByDurationBetween(long min, long max) {
+		return durationIndex.findByDurationBetween(min, max);
+	}
+
+	@Override
+	public Collection<Video> findShortest(int count) {
+		return durationIndex.findShortest(count);
 	}
 
 }
@@ -0,0 +1,100 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magnum.mobilecloud.video.controller.Video;
+
+/**
+ * A concurrent index of videos sorted by their duration. The index is a
+ * skip list, so adding a video is O(log n) and a query that matches k
+ * videos is O(log n + k), no matter how many videos are stored. Readers
+ * never block writers or each other.
+ * 
+ * Each video is stored in an Entry that holds its duration as a primitive
+ * long along with a sequence number. Entries are ordered by duration and
+ * then by the order that they were added, so videos with the same duration
+ * (and even duplicate videos) each get their own entry.
+ * 
+ * Both of the in-memory VideoRepository implementations use this class.
+ * Each of them creates its own index, so they share the code but not the
+ * videos.
+ * 
+ * @author jules
+ *
+ */
+public class DurationIndex {
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final long duration;
+		private final long sequence;
+		private final Video video;
+
+		private Entry(long duration, long sequence, Video video) {
+			this.duration = duration;
+			this.sequence = sequence;
+			this.video = video;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int c = Long.compare(duration, other.duration);
+			return (c != 0) ? c : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	// Add a video to the index
+	public void add(Video v) {
+		entries.add(new Entry(v.getDuration(), sequence.incrementAndGet(), v));
+	}
+
+	// Find all videos that are shorter than the given duration, shortest
+	// first
+	public List<Video> findByDurationLessThan(long duration) {
+		return toVideos(entries.headSet(lowest(duration), false), Integer.MAX_VALUE);
+	}
+
+	// Find all videos with a duration between min and max (inclusive),
+	// shortest first
+	public List<Video> findByDurationBetween(long min, long max) {
+		if (min > max) {
+			return new ArrayList<Video>();
+		}
+		return toVideos(entries.subSet(lowest(min), true, highest(max), true), Integer.MAX_VALUE);
+	}
+
+	// Find the count shortest videos, shortest first
+	public List<Video> findShortest(int count) {
+		return toVideos(entries, count);
+	}
+
+	private static List<Video> toVideos(Collection<Entry> range, int limit) {
+		List<Video> videos = new ArrayList<Video>();
+		for (Entry e : range) {
+			if (videos.size() >= limit) {
+				break;
+			}
+			videos.add(e.video);
+		}
+		return videos;
+	}
+
+	// Probes that sort before or after every entry with the given duration
+	private static Entry lowest(long duration) {
+		return new Entry(duration, Long.MIN_VALUE, null);
+	}
+
+	private static Entry highest(long duration) {
+		return new Entry(duration, Long.MAX_VALUE, null);
+	}
+
+}
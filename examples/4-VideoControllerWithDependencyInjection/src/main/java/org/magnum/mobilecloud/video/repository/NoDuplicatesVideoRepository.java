@@ -2,7 +2,6 @@ package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -29,27 +28,56 @@ public class NoDuplicatesVideoRepository implements VideoRepository {
 	private Set<Video> videoSet = Collections.newSetFromMap(
 	        new ConcurrentHashMap<Video, Boolean>());
 	
+	// A secondary index of the videos by title, so that the title
+	// searches don't have to scan every video
+	private TitleIndex titleIndex = new TitleIndex();
+	
+	// A sorted index of the videos by duration for range queries
+	private DurationIndex durationIndex = new DurationIndex();
+	
 	@Override
 	public boolean addVideo(Video v) {
-		return videoSet.add(v);
+		boolean added = videoSet.add(v);
+		if(added){
+			titleIndex.add(v);
+			durationIndex.add(v);
+		}
+		return added;
 	}
-
+	
 	@Override
 	public Collection<Video> getVideos() {
 		return videoSet;
 	}
 
-	// Search the list of videos for ones with
-	// matching titles.
 	@Override
 	public Collection<Video> findByTitle(String title) {
-		Set<Video> matches = new HashSet<>();
-		for(Video video : videoSet){
-			if(video.getName().equals(title)){
-				matches.add(video);
-			}
-		}
-		return matches;
+		return titleIndex.findByTitle(title);
+	}
+
+	@Override
+	public Collection<Video> findByTitleIgnoreCase(String title) {
+		return titleIndex.findByTitleIgnoreCase(title);
+	}
+
+	@Override
+	public Collection<Video> findByTitleStartingWithIgnoreCase(String prefix) {
+		return titleIndex.findByTitleStartingWithIgnoreCase(prefix);
+	}
+
+	@Override
+	public Collection<Video> findByDurationLessThan(long duration) {
+		return durationIndex.findByDurationLessThan(duration);
+	}
+
+	@Override
+	public Collection<Video> findByDurationBetween(long min, long max) {
+		return durationIndex.findByDurationBetween(min, max);
+	}
+
+	@Override
+	public Collection<Video> findShortest(int count) {
+		return durationIndex.findShortest(count);
 	}
 
 }
@@ -0,0 +1,112 @@
+package org.magnum.mobilecloud.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.magnum.mobilecloud.video.controller.Video;
+
+/**
+ * A concurrent index of videos by title (e.g., Video.name) that answers
+ * exact, case-insensitive and prefix searches.
+ * 
+ * Exact searches use a hash map from each title to the set of videos with
+ * that title, so findByTitle() is a single lookup that returns a read-only
+ * view of the set instead of a copy.
+ * 
+ * Case-insensitive and prefix searches use a skip list of the titles
+ * folded to lower case, so each search is either a lookup of one folded
+ * title or a walk over the range of folded titles that start with a
+ * prefix. A search that matches k videos is O(log n + k), no matter how
+ * many videos are stored. Readers never block writers or each other.
+ * 
+ * Both of the in-memory VideoRepository implementations use this class,
+ * like DurationIndex.
+ * 
+ * @author jules
+ *
+ */
+public class TitleIndex {
+
+	// Each title to the videos with exactly that title
+	private final ConcurrentMap<String, Set<Video>> exactTitles = 
+			new ConcurrentHashMap<String, Set<Video>>();
+
+	// Each folded title to the videos whose titles fold to it
+	private final ConcurrentNavigableMap<String, Set<Video>> foldedTitles = 
+			new ConcurrentSkipListMap<String, Set<Video>>();
+
+	// Add a video to the index. Videos without a title can't be found by
+	// title, so they aren't indexed.
+	public void add(Video v) {
+		if (v.getName() == null) {
+			return;
+		}
+		videosFor(exactTitles, v.getName()).add(v);
+		videosFor(foldedTitles, fold(v.getName())).add(v);
+	}
+
+	// Find all videos with exactly the given title. The returned set is a
+	// read-only view of the index.
+	public Set<Video> findByTitle(String title) {
+		Set<Video> matches = (title != null) ? exactTitles.get(title) : null;
+		return (matches != null) 
+				? Collections.unmodifiableSet(matches) 
+				: Collections.<Video>emptySet();
+	}
+
+	// Find all videos with the given title, ignoring case
+	public List<Video> findByTitleIgnoreCase(String title) {
+		List<Video> matches = new ArrayList<Video>();
+		if (title != null) {
+			Set<Video> videos = foldedTitles.get(fold(title));
+			if (videos != null) {
+				matches.addAll(videos);
+			}
+		}
+		return matches;
+	}
+
+	// Find all videos with titles that start with the given prefix,
+	// ignoring case, in the order of their titles
+	public List<Video> findByTitleStartingWithIgnoreCase(String prefix) {
+		List<Video> matches = new ArrayList<Video>();
+		if (prefix != null) {
+			String start = fold(prefix);
+			for (Map.Entry<String, Set<Video>> e : foldedTitles.tailMap(start, true).entrySet()) {
+				if (!e.getKey().startsWith(start)) {
+					break;
+				}
+				matches.addAll(e.getValue());
+			}
+		}
+		return matches;
+	}
+
+	// Get the set of videos for the key, creating the set if this is the
+	// first video with the key
+	private static Set<Video> videosFor(ConcurrentMap<String, Set<Video>> index, String key) {
+		Set<Video> videos = index.get(key);
+		if (videos == null) {
+			Set<Video> created = Collections.newSetFromMap(
+					new ConcurrentHashMap<Video, Boolean>());
+			videos = index.putIfAbsent(key, created);
+			if (videos == null) {
+				videos = created;
+			}
+		}
+		return videos;
+	}
+
+	private static String fold(String title) {
+		return title.toLowerCase(Locale.ROOT);
+	}
+
+}
@@ -6,7 +6,8 @@ import org.magnum.mobilecloud.video.controller.Video;
 
 /**
  * An interface for a repository that can store Video
- * objects and allow them to be searched by title.
+ * objects and allow them to be searched by title and
+ * duration.
  * 
  * @author jules
  *
@@ -22,4 +23,22 @@ public interface VideoRepository {
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByTitle(String title);
 	
+	// Find all videos with a matching title, ignoring case
+	public Collection<Video> findByTitleIgnoreCase(String title);
+	
+	// Find all videos with a title that starts with the given
+	// prefix, ignoring case
+	public Collection<Video> findByTitleStartingWithIgnoreCase(String prefix);
+	
+	// Find all videos that are shorter than the given duration,
+	// shortest first
+	public Collection<Video> findByDurationLessThan(long duration);
+	
+	// Find all videos with a duration between min and max
+	// (inclusive), shortest first
+	public Collection<Video> findByDurationBetween(long min, long max);
+	
+	// Find the count shortest videos, shortest first
+	public Collection<Video> findShortest(int count);
+	
 }
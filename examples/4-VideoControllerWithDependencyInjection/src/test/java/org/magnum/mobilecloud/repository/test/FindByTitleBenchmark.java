@@ -0,0 +1,126 @@
+package org.magnum.mobilecloud.repository.test;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.NoDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+
+/**
+ * Compares looking up videos by title with a full scan of the videos (the
+ * way that findByTitle() used to work) against the title index that the
+ * repositories now maintain, for 10k, 100k and 1M videos.
+ * 
+ * The build doesn't include JMH, so this is a small hand-rolled harness in
+ * the same spirit: each measurement is preceded by warmup iterations, the
+ * results of every query are consumed so that the JIT can't drop them, and
+ * the mean time per lookup is reported along with its spread across the
+ * measurement iterations. Run it with:
+ * 
+ *   java -cp ... org.magnum.mobilecloud.repository.test.FindByTitleBenchmark
+ * 
+ * @author jules
+ *
+ */
+public class FindByTitleBenchmark {
+
+	private static final int[] SIZES = { 10000, 100000, 1000000 };
+
+	// Each title is shared by this many videos
+	private static final int VIDEOS_PER_TITLE = 4;
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int MEASUREMENT_ITERATIONS = 10;
+
+	// Roughly how long each iteration should take
+	private static final long ITERATION_NANOS = 200 * 1000 * 1000;
+
+	private static long blackhole;
+
+	public static void main(String[] args) {
+		System.out.println(String.format("%-10s %-6s %16s %12s", "videos", "mode", "ns / lookup", "+/- (ns)"));
+		for (int size : SIZES) {
+			VideoRepository videos = new NoDuplicatesVideoRepository();
+			for (int i = 0; i < size; i++) {
+				videos.addVideo(new Video(title(i / VIDEOS_PER_TITLE), "http://coursera.org/some/video-" + i, i));
+			}
+			int titles = size / VIDEOS_PER_TITLE;
+			report(size, "scan", measure(videos, titles, true));
+			report(size, "index", measure(videos, titles, false));
+		}
+		if (blackhole == 42) {
+			System.out.println();
+		}
+	}
+
+	private static double[] measure(VideoRepository videos, int titles, boolean scan) {
+		Random random = new Random(titles);
+		int batch = calibrate(videos, titles, scan, random);
+		double[] results = new double[MEASUREMENT_ITERATIONS];
+		for (int i = -WARMUP_ITERATIONS; i < MEASUREMENT_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (int n = 0; n < batch; n++) {
+				blackhole += lookup(videos, title(random.nextInt(titles)), scan).size();
+			}
+			long elapsed = System.nanoTime() - start;
+			if (i >= 0) {
+				results[i] = (double) elapsed / batch;
+			}
+		}
+		return results;
+	}
+
+	// Find how many lookups fit into one iteration
+	private static int calibrate(VideoRepository videos, int titles, boolean scan, Random random) {
+		int batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			for (int n = 0; n < batch; n++) {
+				blackhole += lookup(videos, title(random.nextInt(titles)), scan).size();
+			}
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= ITERATION_NANOS / 4 || batch >= (1 << 24)) {
+				return (int) Math.max(1, Math.min(Integer.MAX_VALUE, batch * (ITERATION_NANOS / Math.max(1, elapsed))));
+			}
+			batch *= 2;
+		}
+	}
+
+	private static Collection<Video> lookup(VideoRepository videos, String title, boolean scan) {
+		return scan ? scanForTitle(videos, title) : videos.findByTitle(title);
+	}
+
+	// The search that findByTitle() used before the title index was added
+	private static Collection<Video> scanForTitle(VideoRepository videos, String title) {
+		Set<Video> matches = new HashSet<>();
+		for (Video video : videos.getVideos()) {
+			if (video.getName().equals(title)) {
+				matches.add(video);
+			}
+		}
+		return matches;
+	}
+
+	private static void report(int size, String mode, double[] results) {
+		double mean = 0;
+		for (double r : results) {
+			mean += r;
+		}
+		mean /= results.length;
+		double variance = 0;
+		for (double r : results) {
+			variance += (r - mean) * (r - mean);
+		}
+		double stddev = Math.sqrt(variance / Math.max(1, results.length - 1));
+		System.out.println(String.format("%-10d %-6s %16.1f %12.1f", size, mode, mean, stddev));
+	}
+
+	private static String title(int n) {
+		return "Video-" + n;
+	}
+
+}
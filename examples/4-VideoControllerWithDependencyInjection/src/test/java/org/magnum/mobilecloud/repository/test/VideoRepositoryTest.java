@@ -0,0 +1,151 @@
+package org.magnum.mobilecloud.repository.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.magnum.mobilecloud.video.TestData;
+import org.magnum.mobilecloud.video.controller.Video;
+import org.magnum.mobilecloud.video.repository.AllowsDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.NoDuplicatesVideoRepository;
+import org.magnum.mobilecloud.video.repository.VideoRepository;
+
+/**
+ * 
+ * This test adds random videos to both of the in-memory VideoRepository
+ * implementations and checks that the title and duration queries, which
+ * are answered from indexes, return the same videos as a scan of all of
+ * the videos, including the case-insensitive and prefix title searches.
+ * 
+ * @author jules
+ *
+ */
+public class VideoRepositoryTest {
+
+	private static final int VIDEOS = 500;
+
+	private static final Comparator<Video> BY_DURATION = new Comparator<Video>() {
+		@Override
+		public int compare(Video a, Video b) {
+			return Long.compare(a.getDuration(), b.getDuration());
+		}
+	};
+
+	@Test
+	public void testNoDuplicatesQueries() throws Exception {
+		testQueries(new NoDuplicatesVideoRepository());
+	}
+
+	@Test
+	public void testAllowsDuplicatesQueries() throws Exception {
+		VideoRepository videos = new AllowsDuplicatesVideoRepository();
+		testQueries(videos);
+
+		// Duplicates are all returned by the duration queries
+		Video video = TestData.randomVideo();
+		videos.addVideo(video);
+		videos.addVideo(video);
+		int matches = 0;
+		for (Video v : videos.findByDurationBetween(video.getDuration(), video.getDuration())) {
+			if (v.equals(video)) {
+				matches++;
+			}
+		}
+		assertEquals(2, matches);
+	}
+
+	private void testQueries(VideoRepository videos) {
+		List<Video> added = new ArrayList<Video>();
+		for (int i = 0; i < VIDEOS; i++) {
+			Video v = TestData.randomVideo();
+			assertTrue(videos.addVideo(v));
+			added.add(v);
+		}
+
+		for (Video v : added.subList(0, 10)) {
+			Collection<Video> found = videos.findByTitle(v.getName());
+			assertEquals(1, found.size());
+			assertTrue(found.contains(v));
+		}
+		assertTrue(videos.findByTitle("no such title").isEmpty());
+
+		// Titles differ from their upper case versions only by case
+		for (Video v : added.subList(0, 10)) {
+			String upper = v.getName().toUpperCase(Locale.ROOT);
+			assertTrue(videos.findByTitle(upper).isEmpty());
+			Collection<Video> found = videos.findByTitleIgnoreCase(upper);
+			assertEquals(1, found.size());
+			assertTrue(found.contains(v));
+		}
+
+		String[] prefixes = { "", "video-", "VIDEO-A", "Video-0", "video-ab", "no such title" };
+		for (String prefix : prefixes) {
+			List<Video> found = new ArrayList<Video>(videos.findByTitleStartingWithIgnoreCase(prefix));
+			assertEquals(scanForPrefix(added, prefix).size(), found.size());
+			assertTrue(found.containsAll(scanForPrefix(added, prefix)));
+			for (int i = 1; i < found.size(); i++) {
+				assertTrue(found.get(i - 1).getName().compareToIgnoreCase(found.get(i).getName()) <= 0);
+			}
+		}
+
+		long[] durations = { 0, 1, 60 * 1000, 30 * 60 * 1000, 60 * 60 * 1000, Long.MAX_VALUE };
+		for (long d : durations) {
+			assertSameVideos(scan(added, Long.MIN_VALUE, d - 1), videos.findByDurationLessThan(d));
+			for (long max : durations) {
+				assertSameVideos(scan(added, d, max), videos.findByDurationBetween(d, max));
+			}
+		}
+
+		List<Video> sorted = new ArrayList<Video>(added);
+		Collections.sort(sorted, BY_DURATION);
+		for (int count : new int[] { 0, 1, 10, VIDEOS, VIDEOS + 1 }) {
+			List<Video> shortest = new ArrayList<Video>(videos.findShortest(count));
+			assertEquals(Math.min(count, VIDEOS), shortest.size());
+			assertInDurationOrder(shortest);
+			if (!shortest.isEmpty()) {
+				assertEquals(sorted.get(shortest.size() - 1).getDuration(),
+						shortest.get(shortest.size() - 1).getDuration());
+			}
+		}
+	}
+
+	private List<Video> scanForPrefix(List<Video> videos, String prefix) {
+		List<Video> matches = new ArrayList<Video>();
+		for (Video v : videos) {
+			if (v.getName().regionMatches(true, 0, prefix, 0, prefix.length())) {
+				matches.add(v);
+			}
+		}
+		return matches;
+	}
+
+	private List<Video> scan(List<Video> videos, long min, long max) {
+		List<Video> matches = new ArrayList<Video>();
+		for (Video v : videos) {
+			if (v.getDuration() >= min && v.getDuration() <= max) {
+				matches.add(v);
+			}
+		}
+		return matches;
+	}
+
+	private void assertSameVideos(List<Video> expected, Collection<Video> actual) {
+		assertEquals(expected.size(), actual.size());
+		assertTrue(actual.containsAll(expected));
+		assertInDurationOrder(new ArrayList<Video>(actual));
+	}
+
+	private void assertInDurationOrder(List<Video> videos) {
+		for (int i = 1; i < videos.size(); i++) {
+			assertTrue(videos.get(i - 1).getDuration() <= videos.get(i).getDuration());
+		}
+	}
+
+}
@@ -1,7 +1,9 @@
 package org.magnum.mobilecloud.video.repository;
 
 import java.util.Collection;
+import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
@@ -18,4 +20,14 @@ public interface VideoRepository extends CrudRepository<Video, Long>{
 	// Find all videos with a matching title (e.g., Video.name)
 	public Collection<Video> findByName(String title);
 	
+	// Find all videos (as a List, so that they don't need to be copied
+	// into one)
+	public List<Video> findAll();
+	
+	// Find the videos with ids greater than after, in id order. Called with
+	// a PageRequest for page 0, this is a seek on the primary key index
+	// ("where id > ? order by id limit ?") instead of an offset scan, so
+	// every page costs the same no matter how far into the videos it is.
+	public List<Video> findByIdGreaterThanOrderByIdAsc(long after, Pageable page);
+	
 }
@@ -1,10 +1,15 @@
 package org.magnum.mobilecloud.controller.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -12,9 +17,11 @@ import org.magnum.mobilecloud.video.TestData;
 import org.magnum.mobilecloud.video.controller.VideoSvc;
 import org.magnum.mobilecloud.video.repository.Video;
 import org.magnum.mobilecloud.video.repository.VideoRepository;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
 
 /**
  * 
@@ -78,4 +85,20 @@ public class VideoSvcTest {
 		assertTrue(videos.contains(video));
 	}
 
+	// The paged list seeks past the given id with a page that always
+	// starts at 0 (so it's never an offset scan) and is capped in size
+	@Test
+	public void testPagedVideoList() throws Exception {
+		when(videoRepository.findByIdGreaterThanOrderByIdAsc(eq(42L), any(Pageable.class)))
+			.thenReturn(Arrays.asList(video));
+
+		List<Video> page = videoService.getVideoList(42, 1000);
+		assertEquals(Arrays.asList(video), page);
+
+		ArgumentCaptor<Pageable> request = ArgumentCaptor.forClass(Pageable.class);
+		verify(videoRepository).findByIdGreaterThanOrderByIdAsc(eq(42L), request.capture());
+		assertEquals(0, request.getValue().getPageNumber());
+		assertEquals(VideoSvc.MAX_PAGE_SIZE, request.getValue().getPageSize());
+	}
+
 }